@@ -41,6 +41,11 @@ public class MainActivity extends Activity implements Detector.ImageListener, Ca
     TextView smileTextView;
     ToggleButton toggleButton;
 
+    //faces keep their IDs across frames, and the smile shown is that of one face, until that face is gone
+    final FaceTracker faceTracker = new FaceTracker();
+    final int[] faceIds = new int[faceTracker.getMaxFaces()];
+    int displayedFaceId = FaceTracker.NO_FACE;
+
     SurfaceView cameraPreview;
 
     boolean isCameraBack = false;
@@ -179,6 +184,7 @@ public class MainActivity extends Activity implements Detector.ImageListener, Ca
     void switchCamera(CameraDetector.CameraType type) {
         try {
             detector.setCameraType(type);
+            faceTracker.reset();
         } catch (Exception e) {
             Log.e("Affectiva", e.getMessage());
         }
@@ -188,11 +194,21 @@ public class MainActivity extends Activity implements Detector.ImageListener, Ca
     public void onImageResults(List<Face> list, Frame frame, float v) {
         if (list == null)
             return;;
-        if (list.size() == 0) {
+        faceTracker.beginFrame();
+        for (int i = 0; i < list.size(); i++) {
+            faceTracker.addFace(list.get(i).getFacePoints());
+        }
+        int faceCount = faceTracker.endFrame((long) (v * 1e9), faceIds);
+        displayedFaceId = FaceTracker.chooseFace(displayedFaceId, faceIds, faceCount);
+        if (displayedFaceId == FaceTracker.NO_FACE) {
             smileTextView.setText("NO FACE");
         } else {
-            Face face = list.get(0);
-            smileTextView.setText(String.format("SMILE\n%.2f",face.expressions.getSmile()));
+            for (int i = 0; i < faceCount; i++) {
+                if (faceIds[i] == displayedFaceId) {
+                    Face face = list.get(i);
+                    smileTextView.setText(String.format("SMILE\n%.2f",face.expressions.getSmile()));
+                }
+            }
         }
     }
 
@@ -0,0 +1,76 @@
+package com.affectiva.framedetectordemo;
+
+import android.content.Context;
+
+import com.affectiva.android.affdex.sdk.Frame;
+import com.affectiva.android.affdex.sdk.detector.Detector;
+import com.affectiva.android.affdex.sdk.detector.Face;
+import com.affectiva.android.affdex.sdk.detector.FrameDetector;
+
+import java.util.List;
+
+/**
+ * A DetectorEngine backed by the Affdex SDK's FrameDetector, set up to detect all emotions and expressions.
+ */
+class AffdexDetectorEngine implements DetectorEngine<Frame, List<Face>> {
+
+    private final FrameDetector detector;
+
+    AffdexDetectorEngine(Context context) {
+        detector = new FrameDetector(context);
+        //detector.setLicensePath("YourLicenseFile");
+        detector.setDetectAllEmotions(true);
+        detector.setDetectAllExpressions(true);
+    }
+
+    /**
+     * Returns a factory for engines using the given context.
+     */
+    static DetectorEngine.Factory<Frame, List<Face>> factory(final Context context) {
+        return new DetectorEngine.Factory<Frame, List<Face>>() {
+            @Override
+            public DetectorEngine<Frame, List<Face>> create() {
+                return new AffdexDetectorEngine(context);
+            }
+        };
+    }
+
+    @Override
+    public void setResultListener(final ResultListener<Frame, List<Face>> listener) {
+        if (listener == null) {
+            detector.setImageListener(null);
+            return;
+        }
+        detector.setImageListener(new Detector.ImageListener() {
+            @Override
+            public void onImageResults(List<Face> faces, Frame frame, float timestamp) {
+                listener.onResults(faces, frame, timestamp);
+            }
+        });
+    }
+
+    @Override
+    public void start() {
+        detector.start();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return detector.isRunning();
+    }
+
+    @Override
+    public void process(Frame frame, float timestamp) {
+        detector.process(frame, timestamp);
+    }
+
+    @Override
+    public void reset() {
+        detector.reset();
+    }
+
+    @Override
+    public void stop() {
+        detector.stop();
+    }
+}
@@ -0,0 +1,66 @@
+package com.affectiva.framedetectordemo;
+
+import android.os.Debug;
+import android.util.Log;
+
+/**
+ * Debug aid which counts the objects allocated by the calling thread within begin()/end() brackets, such as the per-frame
+ * camera and result callbacks, and logs the average per bracket every reportInterval brackets. The frame path is meant
+ * to make no allocations once it has reached its steady state, so any non-zero average points to a regression.
+ *
+ * Allocation counting slows the runtime down, so this should only be enabled in debug builds.
+ */
+class AllocationCounter {
+
+    private static final String LOG_TAG = "Affectiva";
+
+    private final String name;
+    private final int reportInterval;
+    private boolean isEnabled = false;
+    private int startCount;
+    private long allocations = 0;
+    private int brackets = 0;
+
+    AllocationCounter(String name, int reportInterval) {
+        this.name = name;
+        this.reportInterval = reportInterval;
+    }
+
+    @SuppressWarnings("deprecation")
+    void setEnabled(boolean enabled) {
+        if (enabled == isEnabled) {
+            return;
+        }
+        isEnabled = enabled;
+        if (enabled) {
+            Debug.startAllocCounting();
+        } else {
+            Debug.stopAllocCounting();
+        }
+        allocations = 0;
+        brackets = 0;
+    }
+
+    @SuppressWarnings("deprecation")
+    void begin() {
+        if (isEnabled) {
+            startCount = Debug.getThreadAllocCount();
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    void end() {
+        if (!isEnabled) {
+            return;
+        }
+        allocations += Debug.getThreadAllocCount() - startCount;
+        brackets += 1;
+        if (brackets == reportInterval) {
+            if (allocations > 0) {
+                Log.w(LOG_TAG, name + ": " + ((float) allocations / brackets) + " allocations per frame");
+            }
+            allocations = 0;
+            brackets = 0;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.affectiva.framedetectordemo;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Determines what AsyncFrameDetector does with a frame when the worker it is dispatched to is still busy.
+ *
+ * DROP_NEWEST   - queue up to 'capacity' frames, and drop the incoming frame when the queue is full.
+ * DROP_OLDEST   - queue up to 'capacity' frames, and drop the oldest queued frame to make room for the incoming one.
+ * LATEST_ONLY   - keep a single pending frame, which each incoming frame replaces. Best for live camera input, since the
+ *                 detector always works on the freshest frame.
+ * BOUNDED_BLOCKING - queue up to 'capacity' frames, and block the caller of process() until there is room. Lossless, so
+ *                 runs over recorded frames are reproducible, but must not be used when process() is called on the UI thread.
+ *
+ * A policy also keeps the frame counts for the AsyncFrameDetector it is given to. One policy object is shared by all of
+ * that detector's workers, each of which gets its own queue; a policy should not be given to more than one detector.
+ */
+public class BackpressurePolicy {
+
+    public enum Mode {
+        DROP_NEWEST, DROP_OLDEST, LATEST_ONLY, BOUNDED_BLOCKING
+    }
+
+    final Mode mode;
+    final int capacity;
+
+    final AtomicLong framesOffered = new AtomicLong();
+    final AtomicLong framesEnqueued = new AtomicLong();
+    final AtomicLong framesDropped = new AtomicLong();
+    final AtomicLong framesProcessed = new AtomicLong();
+
+    BackpressurePolicy(Mode mode, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1");
+        }
+        this.mode = mode;
+        this.capacity = capacity;
+    }
+
+    public static BackpressurePolicy dropNewest(int capacity) {
+        return new BackpressurePolicy(Mode.DROP_NEWEST, capacity);
+    }
+
+    public static BackpressurePolicy dropOldest(int capacity) {
+        return new BackpressurePolicy(Mode.DROP_OLDEST, capacity);
+    }
+
+    public static BackpressurePolicy latestOnly() {
+        return new BackpressurePolicy(Mode.LATEST_ONLY, 1);
+    }
+
+    public static BackpressurePolicy boundedBlocking(int capacity) {
+        return new BackpressurePolicy(Mode.BOUNDED_BLOCKING, capacity);
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Returns the number of frames each worker's queue can hold.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns true if this policy never drops a frame to make room for another.
+     */
+    public boolean isLossless() {
+        return mode == Mode.BOUNDED_BLOCKING;
+    }
+
+    /**
+     * Returns the number of frames offered to the workers' queues.
+     */
+    public long getFramesOffered() {
+        return framesOffered.get();
+    }
+
+    /**
+     * Returns the number of frames accepted into the workers' queues.
+     */
+    public long getFramesEnqueued() {
+        return framesEnqueued.get();
+    }
+
+    /**
+     * Returns the number of frames which never reached FrameDetector, whether turned away by a full queue, evicted from
+     * it, or discarded by reset() or stop().
+     */
+    public long getFramesDropped() {
+        return framesDropped.get();
+    }
+
+    /**
+     * Returns the number of frames handed to FrameDetector.
+     */
+    public long getFramesProcessed() {
+        return framesProcessed.get();
+    }
+
+    void resetCounts() {
+        framesOffered.set(0);
+        framesEnqueued.set(0);
+        framesDropped.set(0);
+        framesProcessed.set(0);
+    }
+
+    <T> FrameQueue<T> createQueue() {
+        if (mode == Mode.LATEST_ONLY) {
+            return new FrameQueue.LatestOnlyQueue<>();
+        }
+        return new FrameQueue.BoundedQueue<>(mode, capacity);
+    }
+}
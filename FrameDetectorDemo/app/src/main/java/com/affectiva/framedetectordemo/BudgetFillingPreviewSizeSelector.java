@@ -0,0 +1,21 @@
+package com.affectiva.framedetectordemo;
+
+/**
+ * A CostAwarePreviewSizeSelector that chooses the largest size within the pixel budget rather than the smallest, for a
+ * sharp preview when the detector does not pay for the preview's pixels: frames are downscaled before they reach it, as
+ * far as the face size allows (see MainActivity.getDownscaleFactor()). Each budget of a ResolutionGovernor's ladder then
+ * maps to a size of its own.
+ *
+ * Within the budget, sizes are scored by the fraction of it they leave unused; over it, by their pixel count as a
+ * fraction of it, so that the fewer pixels the better. Face size and aspect ratio count as in CostAwarePreviewSizeSelector.
+ */
+class BudgetFillingPreviewSizeSelector extends CostAwarePreviewSizeSelector {
+
+    @Override
+    float pixelScore(long pixels, int budget) {
+        if (pixels > budget) {
+            return OVER_BUDGET_PENALTY + (float) pixels / budget;
+        }
+        return (float) (budget - pixels) / budget;
+    }
+}
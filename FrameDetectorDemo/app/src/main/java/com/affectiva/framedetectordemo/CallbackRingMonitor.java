@@ -0,0 +1,183 @@
+package com.affectiva.framedetectordemo;
+
+/**
+ * Watches the ring of preview callback buffers for starvation, to help size the ring for a device.
+ *
+ * The old camera API gives no sign when it drops a frame for want of a buffer, so starvation is inferred from the
+ * timestamps of the frames that do arrive: a gap of more than GAP_FACTOR frame intervals means frames went missing. The
+ * interval is learned from the gaps between frames, within the bounds of the preview fps range the camera was set to,
+ * since the camera may run anywhere in that range (slower in low light, say). It starts out at the slowest the range
+ * allows, so that nothing is counted until the actual frame rate has been learned. Only gaps after a frame which left
+ * the camera a free buffer are learned from: a gap after the ring ran dry is the very starvation being measured, and
+ * learning from it would stretch the interval until sustained starvation was no longer noticed.
+ *
+ * A gap which follows a frame that left the camera without a free buffer counts as a starvation event, with the frames
+ * it is missing; any other gap is counted as a stall, which a deeper ring would not have helped (the camera or the
+ * thread callbacks run on was late).
+ *
+ * Also keeps a histogram of how many buffers were in use by consumers as each frame arrived. Frames are reported on the
+ * thread camera callbacks run on; everything else may be called from any thread.
+ */
+class CallbackRingMonitor {
+
+    interface OnStarvationListener {
+        /**
+         * Called when a frame arrives framesMissed frames late, gapNanos after the previous one, because the camera had
+         * no free buffer among the bufferCount of the ring. Called on the thread camera callbacks run on.
+         */
+        void onStarvation(int framesMissed, long gapNanos, int bufferCount);
+    }
+
+    static final float GAP_FACTOR = 1.5f;
+
+    //weight of each new gap in the learned frame interval
+    private static final float INTERVAL_SMOOTHING = 0.125f;
+
+    private long minIntervalNanos = 1000000000L / 30;
+    private long maxIntervalNanos = 1000000000L / 30;
+    private float intervalNanos = maxIntervalNanos;
+
+    private boolean hasLastFrame = false;
+    private long lastFrameNanos;
+    private boolean wasRingEmpty;
+
+    private long frames = 0;
+    private long starvationEvents = 0;
+    private long framesMissed = 0;
+    private long stalls = 0;
+    private int peakBuffersInUse = 0;
+    private long[] occupancy = new long[0];
+
+    private OnStarvationListener listener;
+
+    synchronized void setOnStarvationListener(OnStarvationListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Sets the preview fps range the camera was set to, in frames per 1000 seconds as Camera.Parameters reports it.
+     */
+    synchronized void setFpsRange(int minFpsTimes1000, int maxFpsTimes1000) {
+        if (minFpsTimes1000 <= 0 || maxFpsTimes1000 < minFpsTimes1000) {
+            throw new IllegalArgumentException("fps range must be positive, with min no greater than max");
+        }
+        minIntervalNanos = 1000000000000L / maxFpsTimes1000;
+        maxIntervalNanos = 1000000000000L / minFpsTimes1000;
+        intervalNanos = maxIntervalNanos;
+        hasLastFrame = false;
+    }
+
+    /**
+     * Forgets the last frame, so that the gap until the next one is not counted; call whenever the preview (re)starts.
+     */
+    synchronized void restart() {
+        hasLastFrame = false;
+    }
+
+    /**
+     * Reports a frame which arrived at captureNanos in a buffer of the ring, after which buffersInUse buffers (this one
+     * included) were in use by consumers and buffersWithCamera were left for the camera to write into.
+     */
+    void onFrame(long captureNanos, int buffersInUse, int buffersWithCamera, int bufferCount) {
+        OnStarvationListener listenerToNotify = null;
+        int missed = 0;
+        long gapNanos = 0;
+        synchronized (this) {
+            frames += 1;
+            peakBuffersInUse = Math.max(peakBuffersInUse, buffersInUse);
+            if (buffersInUse >= occupancy.length) {
+                long[] grown = new long[Math.max(buffersInUse, bufferCount) + 1];
+                System.arraycopy(occupancy, 0, grown, 0, occupancy.length);
+                occupancy = grown;
+            }
+            occupancy[buffersInUse] += 1;
+
+            if (hasLastFrame) {
+                gapNanos = captureNanos - lastFrameNanos;
+                if (gapNanos > GAP_FACTOR * intervalNanos) {
+                    missed = Math.max(1, Math.round(gapNanos / intervalNanos) - 1);
+                    if (wasRingEmpty) {
+                        starvationEvents += 1;
+                        framesMissed += missed;
+                        listenerToNotify = listener;
+                    } else {
+                        stalls += 1;
+                    }
+                }
+                //gaps the camera could have filled count towards the interval too, so that it follows the camera
+                //slowing down within its range
+                if (gapNanos > 0 && !wasRingEmpty) {
+                    intervalNanos += INTERVAL_SMOOTHING * (Math.min(gapNanos, maxIntervalNanos) - intervalNanos);
+                    intervalNanos = Math.max(minIntervalNanos, intervalNanos);
+                }
+            }
+            hasLastFrame = true;
+            lastFrameNanos = captureNanos;
+            wasRingEmpty = buffersWithCamera == 0;
+        }
+        if (listenerToNotify != null) {
+            listenerToNotify.onStarvation(missed, gapNanos, bufferCount);
+        }
+    }
+
+    synchronized long getFrameCount() {
+        return frames;
+    }
+
+    /**
+     * Returns the number of times the camera went without a free buffer long enough to miss frames.
+     */
+    synchronized long getStarvationEventCount() {
+        return starvationEvents;
+    }
+
+    /**
+     * Returns the estimated number of frames the camera dropped for want of a free buffer.
+     */
+    synchronized long getFramesMissed() {
+        return framesMissed;
+    }
+
+    /**
+     * Returns the number of gaps in the frames which are not explained by the ring running out of buffers.
+     */
+    synchronized long getStallCount() {
+        return stalls;
+    }
+
+    synchronized int getPeakBuffersInUse() {
+        return peakBuffersInUse;
+    }
+
+    /**
+     * Returns the number of frames which arrived with the given number of buffers in use by consumers.
+     */
+    synchronized long getOccupancyCount(int buffersInUse) {
+        return buffersInUse >= 0 && buffersInUse < occupancy.length ? occupancy[buffersInUse] : 0;
+    }
+
+    synchronized void clearStats() {
+        frames = 0;
+        starvationEvents = 0;
+        framesMissed = 0;
+        stalls = 0;
+        peakBuffersInUse = 0;
+        for (int i = 0; i < occupancy.length; i++) {
+            occupancy[i] = 0;
+        }
+    }
+
+    synchronized String getSummary() {
+        StringBuilder summary = new StringBuilder();
+        summary.append("frames ").append(frames)
+                .append(", starvation events ").append(starvationEvents)
+                .append(" (").append(framesMissed).append(" frames missed)")
+                .append(", other stalls ").append(stalls)
+                .append(", peak buffers in use ").append(peakBuffersInUse)
+                .append("\nbuffers in use on arrival:");
+        for (int i = 1; i < occupancy.length; i++) {
+            summary.append(' ').append(i).append(": ").append(occupancy[i]);
+        }
+        return summary.toString();
+    }
+}
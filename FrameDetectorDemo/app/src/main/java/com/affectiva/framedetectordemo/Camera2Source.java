@@ -0,0 +1,600 @@
+package com.affectiva.framedetectordemo;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.util.Log;
+import android.util.Range;
+import android.util.Size;
+import android.view.Display;
+import android.view.OrientationEventListener;
+import android.view.Surface;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
+
+import com.affectiva.android.affdex.sdk.Frame;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+
+/**
+ * A CameraSource on the camera2 API, available from API 21.
+ *
+ * Frames come from an ImageReader in YUV_420_888, whose planes are direct ByteBuffers written by the camera. On a
+ * background thread, each frame is copied once, straight from those buffers into a pooled NV21 FrameBuffer, which is
+ * what the detector takes, and the Image goes back to the reader right away; the FrameBuffer is then delivered on the
+ * main thread like CameraHelper's. The old API instead has the camera service and JNI copy every frame on its way into
+ * a callback buffer, whether or not it will be used. Only the latest image is ever copied here, and if consumers hold
+ * every buffer the frame is dropped, which the CallbackRingMonitor counts like a starved callback buffer ring.
+ *
+ * Devices whose camera2 support is LEGACY only emulate it on top of the old API, so isSupported() is false for them and
+ * CameraView uses CameraHelper instead.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+class Camera2Source implements CameraSource, SurfaceHolder.Callback {
+
+    private final static String LOG_TAG = "Camera2Source";
+    private final static int TARGET_FRAME_RATE = 30;
+    private final static int DEFAULT_CALLBACK_BUFFER_COUNT = 3;
+
+    //images the reader holds at most: the one being copied, and the one the camera is writing
+    private final static int MAX_IMAGES = 2;
+
+    private final CameraManager cameraManager;
+    private final SurfaceHolder holder;
+    private final Display defaultDisplay;
+    private final OrientationEventListener orientationListener;
+    private final MainThreadHandler mHandler;
+    private OnCameraSourceEventListener listener;
+
+    //Buffers the frames are copied into, and those of them not held by consumers
+    final FrameBufferPool bufferPool = new FrameBufferPool(DEFAULT_CALLBACK_BUFFER_COUNT);
+    final PooledBufferQueue freeBuffers = new PooledBufferQueue(bufferPool);
+    final CallbackRingMonitor ringMonitor = new CallbackRingMonitor();
+    private PreviewSizeSelector previewSizeSelector = new CostAwarePreviewSizeSelector();
+
+    //Camera state, only touched on the main thread
+    private boolean isOpening = false;
+    private CameraDevice camera;
+    private CameraCaptureSession session;
+    private boolean isSessionStarting = false;
+    private ImageReader imageReader;
+    private HandlerThread imageThread;
+    private String cameraId;
+    private Size[] outputSizes;
+    private int previewWidth;
+    private int previewHeight;
+    private Range<Integer> fpsRange;
+    private Frame.ROTATE frameRotation = Frame.ROTATE.NO_ROTATION;
+    private int displayRotation;
+
+    //Surface state
+    private boolean isSurfaceCreated = false;
+    private int surfaceWidth;
+    private int surfaceHeight;
+
+    /**
+     * Returns whether the device has a camera with better than LEGACY camera2 support. Only call on API 21 and up.
+     */
+    static boolean isSupported(Context context) {
+        CameraManager manager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+        try {
+            String[] ids = manager.getCameraIdList();
+            if (ids.length == 0) {
+                return false;
+            }
+            for (String id : ids) {
+                Integer level = manager.getCameraCharacteristics(id).get(CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL);
+                if (level == null || level == CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL_LEGACY) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (CameraAccessException e) {
+            return false;
+        }
+    }
+
+    Camera2Source(Context context, SurfaceView providedSurfaceView, Display defaultDisplay) {
+        if (context == null) {
+            throw new NullPointerException("context must not be null");
+        }
+        if (providedSurfaceView == null) {
+            throw new NullPointerException("providedSurfaceView must not be null");
+        }
+        if (defaultDisplay == null) {
+            throw new NullPointerException("defaultDisplay must not be null");
+        }
+        this.cameraManager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+        this.defaultDisplay = defaultDisplay;
+        this.holder = providedSurfaceView.getHolder();
+        holder.addCallback(this);
+        mHandler = new MainThreadHandler(this);
+
+        /*
+            The preview surface has a fixed size, so surfaceChanged() is not called when the display is turned by 180
+            degrees, nor reliably by 90 degrees when the activity handles orientation changes itself. As CameraHelper
+            does, watch the device's orientation instead, and recompute the frame rotation when the display's changes.
+         */
+        orientationListener = new OrientationEventListener(context) {
+            @Override
+            public void onOrientationChanged(int orientation) {
+                //called for every small change of the device's angle; only act on a change of the display's rotation
+                if (camera != null && Camera2Source.this.defaultDisplay.getRotation() != displayRotation) {
+                    updateFrameRotation();
+                }
+            }
+        };
+    }
+
+    @Override
+    public void setOnCameraSourceEventListener(OnCameraSourceEventListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void setCallbackBufferCount(int count) {
+        bufferPool.setBufferCount(count);
+    }
+
+    @Override
+    public void setPreviewSizeSelector(PreviewSizeSelector selector) {
+        if (selector == null) {
+            throw new NullPointerException("selector must not be null");
+        }
+        previewSizeSelector = selector;
+    }
+
+    @Override
+    public CallbackRingMonitor getCallbackRingMonitor() {
+        return ringMonitor;
+    }
+
+    @Override
+    public void startCamera(CameraType cameraType) {
+        if (isOpening || camera != null) {
+            return;
+        }
+        try {
+            cameraId = findCamera(cameraType);
+            CameraCharacteristics characteristics = cameraManager.getCameraCharacteristics(cameraId);
+            StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+            outputSizes = map.getOutputSizes(ImageFormat.YUV_420_888);
+            Size size = chooseSize(outputSizes);
+            previewWidth = size.getWidth();
+            previewHeight = size.getHeight();
+            fpsRange = chooseFpsRange(characteristics.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES));
+            if (fpsRange != null) {
+                ringMonitor.setFpsRange(fpsRange.getLower() * 1000, fpsRange.getUpper() * 1000);
+            }
+            computeFrameRotation(characteristics);
+            orientationListener.enable();
+
+            imageThread = new HandlerThread("Camera2Source");
+            imageThread.start();
+            openImageReader();
+
+            isOpening = true;
+            cameraManager.openCamera(cameraId, cameraStateCallback, mHandler);
+        } catch (CameraAccessException | RuntimeException e) {
+            Log.e(LOG_TAG, "Unable to open camera: " + e.getMessage());
+            closeCamera();
+            if (listener != null) {
+                listener.onCameraStarted(false, e);
+            }
+        }
+    }
+
+    @Override
+    public void stopCamera() {
+        closeCamera();
+    }
+
+    private void closeCamera() {
+        orientationListener.disable();
+        isOpening = false;
+        outputSizes = null;
+        stopPreviewing();
+        if (camera != null) {
+            camera.close();
+            camera = null;
+        }
+        if (imageThread != null) {
+            closeImageReader();
+            imageThread.quitSafely();
+            imageThread = null;
+        }
+    }
+
+    private void openImageReader() {
+        imageReader = ImageReader.newInstance(previewWidth, previewHeight, ImageFormat.YUV_420_888, MAX_IMAGES);
+        imageReader.setOnImageAvailableListener(imageAvailableListener, new Handler(imageThread.getLooper()));
+    }
+
+    private void closeImageReader() {
+        //close the reader on its own thread, so that it is not closed under an image being copied
+        final ImageReader reader = imageReader;
+        if (reader != null) {
+            new Handler(imageThread.getLooper()).post(new Runnable() {
+                @Override
+                public void run() {
+                    reader.close();
+                }
+            });
+        }
+        imageReader = null;
+    }
+
+    /**
+     * Switches to the size the selector now chooses, if it differs, by closing the capture session and starting a new one
+     * with a reader of the new size; the camera device stays open.
+     */
+    @Override
+    public void reselectPreviewSize() {
+        if (camera == null || outputSizes == null) {
+            return;
+        }
+        Size size = chooseSize(outputSizes);
+        if (size.getWidth() == previewWidth && size.getHeight() == previewHeight) {
+            return;
+        }
+        stopPreviewing();
+        closeImageReader();
+        previewWidth = size.getWidth();
+        previewHeight = size.getHeight();
+        try {
+            openImageReader();
+        } catch (RuntimeException e) {
+            Log.e(LOG_TAG, "Unable to change preview size: " + e.getMessage());
+            closeCamera();
+            return;
+        }
+        if (listener != null) {
+            listener.onFrameSizeSelected(previewWidth, previewHeight, frameRotation);
+        }
+        if (isSurfaceCreated) {
+            startPreviewing();
+        }
+    }
+
+    private String findCamera(CameraType cameraType) throws CameraAccessException {
+        int facing = cameraType == CameraType.CAMERA_FRONT ? CameraCharacteristics.LENS_FACING_FRONT
+                : CameraCharacteristics.LENS_FACING_BACK;
+        for (String id : cameraManager.getCameraIdList()) {
+            Integer lensFacing = cameraManager.getCameraCharacteristics(id).get(CameraCharacteristics.LENS_FACING);
+            if (lensFacing != null && lensFacing == facing) {
+                return id;
+            }
+        }
+        throw new IllegalStateException("This device does not have a camera of the requested type");
+    }
+
+    private Size chooseSize(Size[] sizes) {
+        if (sizes == null || sizes.length == 0) {
+            throw new IllegalStateException("camera has no YUV_420_888 output sizes");
+        }
+        int[] widths = new int[sizes.length];
+        int[] heights = new int[sizes.length];
+        for (int i = 0; i < sizes.length; i++) {
+            widths[i] = sizes[i].getWidth();
+            heights[i] = sizes[i].getHeight();
+        }
+        return sizes[previewSizeSelector.select(widths, heights, sizes.length)];
+    }
+
+    //the range whose upper end is closest to TARGET_FRAME_RATE, preferring the widest such range, like CameraHelper's
+    private static Range<Integer> chooseFpsRange(Range<Integer>[] ranges) {
+        if (ranges == null) {
+            return null;
+        }
+        Range<Integer> optimalRange = null;
+        int minDiff = Integer.MAX_VALUE;
+        for (Range<Integer> range : ranges) {
+            int currentDiff = Math.abs(range.getUpper() - TARGET_FRAME_RATE);
+            if (currentDiff < minDiff || currentDiff == minDiff && range.getLower() < optimalRange.getLower()) {
+                optimalRange = range;
+                minDiff = currentDiff;
+            }
+        }
+        return optimalRange;
+    }
+
+    //the rotation of the frames relative to the display, computed as in CameraHelper.setCameraDisplayOrientation()
+    private void computeFrameRotation(CameraCharacteristics characteristics) {
+        Integer sensorOrientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+        Integer lensFacing = characteristics.get(CameraCharacteristics.LENS_FACING);
+        int orientation = sensorOrientation != null ? sensorOrientation : 0;
+        displayRotation = defaultDisplay.getRotation();
+        int degrees = 0;
+        switch (displayRotation) {
+            case Surface.ROTATION_90:
+                degrees = 90;
+                break;
+            case Surface.ROTATION_180:
+                degrees = 180;
+                break;
+            case Surface.ROTATION_270:
+                degrees = 270;
+                break;
+        }
+        int rotation;
+        if (lensFacing != null && lensFacing == CameraCharacteristics.LENS_FACING_FRONT) {
+            rotation = (orientation + degrees) % 360;
+        } else {
+            rotation = (orientation - degrees + 360) % 360;
+        }
+        switch (rotation) {
+            case 90:
+                frameRotation = Frame.ROTATE.BY_90_CW;
+                break;
+            case 180:
+                frameRotation = Frame.ROTATE.BY_180;
+                break;
+            case 270:
+                frameRotation = Frame.ROTATE.BY_90_CCW;
+                break;
+            default:
+                frameRotation = Frame.ROTATE.NO_ROTATION;
+        }
+    }
+
+    /*
+        Recomputes the frame rotation for the display's current rotation, and tells the listener if it changed. Runs on
+        the main thread.
+     */
+    private void updateFrameRotation() {
+        CameraCharacteristics characteristics;
+        try {
+            characteristics = cameraManager.getCameraCharacteristics(cameraId);
+        } catch (CameraAccessException e) {
+            Log.e(LOG_TAG, "Unable to read camera characteristics: " + e.getMessage());
+            return;
+        }
+        Frame.ROTATE previousRotation = frameRotation;
+        computeFrameRotation(characteristics);
+        if (frameRotation != previousRotation && listener != null) {
+            listener.onFrameSizeSelected(previewWidth, previewHeight, frameRotation);
+        }
+    }
+
+    private final CameraDevice.StateCallback cameraStateCallback = new CameraDevice.StateCallback() {
+        @Override
+        public void onOpened(CameraDevice device) {
+            if (!isOpening) {
+                device.close(); //stopped while opening
+                return;
+            }
+            isOpening = false;
+            camera = device;
+            if (listener != null) {
+                listener.onCameraStarted(true, null);
+                listener.onFrameSizeSelected(previewWidth, previewHeight, frameRotation);
+            }
+            if (isSurfaceCreated) {
+                startPreviewing();
+            }
+        }
+
+        @Override
+        public void onDisconnected(CameraDevice device) {
+            Log.e(LOG_TAG, "camera disconnected");
+            device.close();
+            if (device == camera || isOpening) {
+                closeCamera();
+            }
+        }
+
+        @Override
+        public void onError(CameraDevice device, int error) {
+            Log.e(LOG_TAG, "camera error " + error);
+            device.close();
+            boolean wasOpening = isOpening;
+            if (device == camera || isOpening) {
+                closeCamera();
+            }
+            if (wasOpening && listener != null) {
+                listener.onCameraStarted(false, new IllegalStateException("camera error " + error));
+            }
+        }
+    };
+
+    /*
+        Starts the capture session, once the preview surface has the size of the frames; until then, asks for that size,
+        and surfaceChanged() brings us back here. Runs on the main thread.
+     */
+    private void startPreviewing() {
+        if (camera == null || session != null || isSessionStarting) {
+            return;
+        }
+        if (surfaceWidth != previewWidth || surfaceHeight != previewHeight) {
+            holder.setFixedSize(previewWidth, previewHeight);
+            return;
+        }
+        bufferPool.ensureBuffers(Nv21Image.bufferSize(previewWidth, previewHeight));
+        freeBuffers.attach();
+        ringMonitor.restart();
+        isSessionStarting = true;
+        try {
+            camera.createCaptureSession(Arrays.asList(holder.getSurface(), imageReader.getSurface()),
+                    sessionStateCallback, mHandler);
+        } catch (CameraAccessException | RuntimeException e) {
+            Log.e(LOG_TAG, "Failed to start preview: " + e.getMessage());
+            stopPreviewing();
+        }
+    }
+
+    private void stopPreviewing() {
+        if (session != null || isSessionStarting) {
+            freeBuffers.detach();
+        }
+        if (session != null) {
+            session.close();
+            session = null;
+        }
+        isSessionStarting = false;
+    }
+
+    private final CameraCaptureSession.StateCallback sessionStateCallback = new CameraCaptureSession.StateCallback() {
+        @Override
+        public void onConfigured(CameraCaptureSession configuredSession) {
+            if (!isSessionStarting) {
+                configuredSession.close(); //stopped while configuring
+                return;
+            }
+            isSessionStarting = false;
+            session = configuredSession;
+            try {
+                CaptureRequest.Builder request = camera.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+                request.addTarget(holder.getSurface());
+                request.addTarget(imageReader.getSurface());
+                if (fpsRange != null) {
+                    request.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, fpsRange);
+                }
+                session.setRepeatingRequest(request.build(), null, null);
+            } catch (CameraAccessException | RuntimeException e) {
+                Log.e(LOG_TAG, "Failed to start preview: " + e.getMessage());
+                stopPreviewing();
+            }
+        }
+
+        @Override
+        public void onConfigureFailed(CameraCaptureSession failedSession) {
+            Log.e(LOG_TAG, "Failed to configure capture session");
+            failedSession.close();
+            if (isSessionStarting) {
+                stopPreviewing();
+            }
+        }
+    };
+
+    /*
+        Runs on the image thread: copies the latest image into a free buffer, and hands the buffer to the main thread.
+     */
+    private final ImageReader.OnImageAvailableListener imageAvailableListener = new ImageReader.OnImageAvailableListener() {
+        @Override
+        public void onImageAvailable(ImageReader reader) {
+            Image image;
+            try {
+                image = reader.acquireLatestImage();
+            } catch (IllegalStateException e) {
+                return; //the reader has been closed
+            }
+            if (image == null) {
+                return;
+            }
+            //timestamp the frame as early as possible, for the pipeline latency statistics
+            long captureNanos = SessionClock.nowNanos();
+            FrameBuffer frame = null;
+            try {
+                frame = freeBuffers.take();
+                if (frame == null) {
+                    return; //consumers hold every buffer: drop the frame, as the old camera API would
+                }
+                Image.Plane[] planes = image.getPlanes();
+                Nv21Image.fromYuv420(planes[0].getBuffer(), planes[0].getRowStride(), planes[1].getBuffer(),
+                        planes[2].getBuffer(), planes[1].getRowStride(), planes[1].getPixelStride(), image.getWidth(),
+                        image.getHeight(), frame.getData());
+            } catch (RuntimeException e) {
+                Log.e(LOG_TAG, "Failed to copy image: " + e.getMessage());
+                if (frame != null) {
+                    frame.release();
+                }
+                return;
+            } finally {
+                image.close();
+            }
+            ringMonitor.onFrame(captureNanos, bufferPool.getBuffersInUse(), bufferPool.getBuffersWithCamera(),
+                    bufferPool.getBufferCount());
+            //a message carries two ints, so the timestamp travels in two halves rather than in an allocated object
+            mHandler.obtainMessage(MainThreadHandler.FRAME_AVAILABLE, (int) (captureNanos >>> 32), (int) captureNanos,
+                    frame).sendToTarget();
+        }
+    };
+
+    /*
+        Delivers a frame copied on the image thread, unless the preview has stopped since. Runs on the main thread.
+     */
+    private void deliverFrame(FrameBuffer frame, long captureNanos) {
+        //frames copied before reselectPreviewSize() switched sizes are dropped
+        boolean isCurrentSize = frame.getData().length == Nv21Image.bufferSize(previewWidth, previewHeight);
+        if (session != null && listener != null && isCurrentSize) {
+            listener.onFrameAvailable(frame, previewWidth, previewHeight, frameRotation, captureNanos);
+        }
+        // drop our reference; the buffer becomes free again once every consumer that retained it has released it
+        frame.release();
+    }
+
+    @Override
+    public void surfaceCreated(SurfaceHolder holder) {
+        isSurfaceCreated = true;
+    }
+
+    @Override
+    public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+        surfaceWidth = width;
+        surfaceHeight = height;
+        if (camera != null) {
+            //the display may have been rotated
+            updateFrameRotation();
+            if (session == null) {
+                startPreviewing();
+            }
+        }
+    }
+
+    @Override
+    public void surfaceDestroyed(SurfaceHolder holder) {
+        isSurfaceCreated = false;
+        surfaceWidth = 0;
+        surfaceHeight = 0;
+        stopPreviewing();
+    }
+
+    /*
+        A Handler to send messages back to the main thread, which also receives the camera's callbacks.
+        This Handler class holds a WeakReference to the Camera2Source to avoid memory leaks.
+     */
+    static class MainThreadHandler extends Handler {
+        WeakReference<Camera2Source> sourceRef;
+
+        final static int FRAME_AVAILABLE = 0;
+
+        MainThreadHandler(Camera2Source source) {
+            super(Looper.getMainLooper());
+            sourceRef = new WeakReference<>(source);
+        }
+
+        @Override
+        public void handleMessage(Message msg) {
+            Camera2Source source = sourceRef.get();
+            switch (msg.what) {
+                case FRAME_AVAILABLE:
+                    FrameBuffer frame = (FrameBuffer) msg.obj;
+                    long captureNanos = ((long) msg.arg1 << 32) | (msg.arg2 & 0xFFFFFFFFL);
+                    if (source != null) {
+                        source.deliverFrame(frame, captureNanos);
+                    } else {
+                        frame.release();
+                    }
+                    break;
+                default:
+                    Log.e(LOG_TAG, "Received unhandled message of code " + String.valueOf(msg.what));
+                    break;
+            }
+        }
+    }
+}
@@ -29,17 +29,7 @@ import com.affectiva.android.affdex.sdk.Frame;
  * at the start of its host Activity (which should happen as long as the developer instantiates CameraDetector at
  * the start of its host Activity) (e.g. in onCreate()).
  */
-class CameraHelper extends OrientationEventListener implements SurfaceHolder.Callback, Camera.PreviewCallback {
-
-    enum CameraType {
-        CAMERA_BACK, CAMERA_FRONT
-    }
-
-    public interface OnCameraHelperEventListener {
-        void onFrameAvailable(byte[] frame, int width, int height, Frame.ROTATE rotation);
-        void onFrameSizeSelected(int width, int height, Frame.ROTATE rotation);
-        void onCameraStarted(boolean success, Throwable error);
-    }
+class CameraHelper extends OrientationEventListener implements CameraSource, SurfaceHolder.Callback, Camera.PreviewCallback {
 
     enum CameraHelperState {
         STOPPED, //Camera has not been created
@@ -47,11 +37,12 @@ class CameraHelper extends OrientationEventListener implements SurfaceHolder.Cal
         STARTED //Camera is ready to use
     }
 
-    private OnCameraHelperEventListener listener = null;
+    private OnCameraSourceEventListener listener = null;
 
     private final static float TARGET_FRAME_RATE = 30; // Specified at 30 fps on 3/18/2014
     private final static int PREVIEW_IMAGE_FORMAT = ImageFormat.NV21; // NV21 is the default, but this line here in case want to change.
     private final static String LOG_TAG = "CameraHelper";
+    private final static int DEFAULT_CALLBACK_BUFFER_COUNT = 3;
 
     //Surface and Preview members
     private SurfaceHolder holder;
@@ -71,6 +62,25 @@ class CameraHelper extends OrientationEventListener implements SurfaceHolder.Cal
 
     MainThreadHandler mHandler;
 
+    //Preview callback buffers, which only go back to the camera once every consumer of the frame has released them
+    final FrameBufferPool bufferPool = new FrameBufferPool(DEFAULT_CALLBACK_BUFFER_COUNT);
+    final FrameBufferPool.OnBufferRecycledListener bufferRecycledListener = new FrameBufferPool.OnBufferRecycledListener() {
+        @Override
+        public void onBufferRecycled(FrameBuffer buffer, int attachEpoch) {
+            if (Looper.myLooper() == Looper.getMainLooper()) {
+                returnBufferToCamera(buffer, attachEpoch);
+            } else {
+                mHandler.obtainMessage(MainThreadHandler.BUFFER_RECYCLED, attachEpoch, 0, buffer).sendToTarget();
+            }
+        }
+    };
+
+    //infers from preview timestamps how often the camera ran out of buffers, and records how full the ring gets
+    final CallbackRingMonitor ringMonitor = new CallbackRingMonitor();
+
+    //read on the camera creation thread
+    private volatile PreviewSizeSelector previewSizeSelector = new CostAwarePreviewSizeSelector();
+
     CameraHelper(Context context, SurfaceView providedSurfaceView, Display defaultDisplay) {
         super(context);
 
@@ -98,14 +108,74 @@ class CameraHelper extends OrientationEventListener implements SurfaceHolder.Cal
         mHandler = new MainThreadHandler(this);
     }
 
-    public void setOnCameraHelperEventListener(OnCameraHelperEventListener listener) {
+    @Override
+    public void setOnCameraSourceEventListener(OnCameraSourceEventListener listener) {
         this.listener = listener;
     }
 
+    /**
+     * Sets the number of preview callback buffers shared by the camera and the consumers of its frames. Consumers that
+     * hold on to frames (such as a detector with several workers) need more buffers, or the camera will drop frames.
+     * Takes effect the next time the preview starts. getCallbackRingMonitor() tells whether the count is enough.
+     */
+    @Override
+    public void setCallbackBufferCount(int count) {
+        bufferPool.setBufferCount(count);
+    }
+
+    @Override
+    public void setPreviewSizeSelector(PreviewSizeSelector selector) {
+        if (selector == null) {
+            throw new NullPointerException("selector must not be null");
+        }
+        previewSizeSelector = selector;
+    }
+
+    /**
+     * Switches to the size the selector now chooses, if it differs, by stopping the preview, changing the camera's
+     * parameters and starting the preview again; the camera stays open, which is much faster than reopening it.
+     */
+    @Override
+    public void reselectPreviewSize() {
+        if (cameraState != CameraHelperState.STARTED) {
+            return; //a camera being created will use the selector anyway
+        }
+        Camera.Parameters cameraParams = cameraWrapper.camera.getParameters();
+        if (!setOptimalPreviewSize(cameraParams)) {
+            return;
+        }
+        boolean wasPreviewing = isPreviewing;
+        stopPreviewing();
+        try {
+            cameraWrapper.camera.setParameters(cameraParams);
+        } catch (RuntimeException e) {
+            Log.e(LOG_TAG, "Unable to change preview size: " + e.getMessage());
+        }
+        Size size = cameraWrapper.camera.getParameters().getPreviewSize();
+        cameraWrapper.previewWidth = size.width;
+        cameraWrapper.previewHeight = size.height;
+        if (listener != null) {
+            listener.onFrameSizeSelected(cameraWrapper.previewWidth, cameraWrapper.previewHeight, frameRotation);
+        }
+        if (wasPreviewing) {
+            startPreviewing(holder);
+        }
+    }
+
+    FrameBufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    @Override
+    public CallbackRingMonitor getCallbackRingMonitor() {
+        return ringMonitor;
+    }
+
     /**
      * Starts a background thread to open the Camera and set its parameters to those that will work
      * best with the Affdex SDK.
      */
+    @Override
     public void startCamera(CameraType cameraType) {
         if (cameraState == CameraHelperState.STOPPED) {
             cameraState = CameraHelperState.CREATING;
@@ -125,6 +195,9 @@ class CameraHelper extends OrientationEventListener implements SurfaceHolder.Cal
                 if (cameraWrapper.error == null) {
                     Log.e(LOG_TAG,"camera creation successful");
                     cameraState = CameraHelperState.STARTED;
+                    if (cameraWrapper.minFpsTimes1000 > 0) {
+                        ringMonitor.setFpsRange(cameraWrapper.minFpsTimes1000, cameraWrapper.maxFpsTimes1000);
+                    }
                     if (listener != null) {
                         listener.onCameraStarted(true, null);
                     }
@@ -167,9 +240,13 @@ class CameraHelper extends OrientationEventListener implements SurfaceHolder.Cal
         cameraWrapper.camera.setOneShotPreviewCallback(new Camera.PreviewCallback() {
             @Override
             public void onPreviewFrame(byte[] data, Camera camera) {
+                //this buffer was allocated by the camera rather than taken from our pool
+                FrameBuffer frame = FrameBuffer.wrap(data);
+                frame.retain();
                 if (listener != null) {
-                    listener.onFrameAvailable(data, cameraWrapper.previewWidth, cameraWrapper.previewHeight, frameRotation);
+                    listener.onFrameAvailable(frame, cameraWrapper.previewWidth, cameraWrapper.previewHeight, frameRotation, SessionClock.nowNanos());
                 }
+                frame.release();
                 setupPreviewWithCallbackBuffers();
             }
         });
@@ -192,7 +269,8 @@ class CameraHelper extends OrientationEventListener implements SurfaceHolder.Cal
         Log.e("Affectiva", "stopPreviewing");
         if (isPreviewing) {
             cameraWrapper.camera.stopPreview();
-            cameraWrapper.camera.setPreviewCallback(null);
+            cameraWrapper.camera.setPreviewCallback(null); //also clears the camera's queue of callback buffers
+            bufferPool.detach();
             disable(); // disable orientation listening
         }
         isPreviewing = false;
@@ -202,6 +280,7 @@ class CameraHelper extends OrientationEventListener implements SurfaceHolder.Cal
      * Stops the camera.
      * If a camera was in the process of being created, this method will attempt to block until the camera has been released.
      */
+    @Override
     public void stopCamera() {
         Log.e("Affectiva", "CameraHelper.stopCamera()");
         if (cameraState == CameraHelperState.STARTED) {
@@ -267,11 +346,29 @@ class CameraHelper extends OrientationEventListener implements SurfaceHolder.Cal
     // Implement Camera.PreviewCallback interface
     @Override
     public void onPreviewFrame(byte[] data, Camera camera) {
+        //timestamp the frame as early as possible, for the pipeline latency statistics
+        long captureNanos = SessionClock.nowNanos();
+
+        //a frame of the previous size, delivered after reselectPreviewSize() switched sizes
+        if (data.length != cameraWrapper.previewWidth * cameraWrapper.previewHeight
+                * ImageFormat.getBitsPerPixel(PREVIEW_IMAGE_FORMAT) / 8) {
+            return;
+        }
+
+        FrameBuffer frame = bufferPool.onFrameReceived(data);
+        if (frame == null) {
+            //a buffer from before the pool was reallocated; deliver it, but don't give it back to the camera
+            frame = FrameBuffer.wrap(data);
+            frame.retain();
+        } else {
+            ringMonitor.onFrame(captureNanos, bufferPool.getBuffersInUse(), bufferPool.getBuffersWithCamera(),
+                    bufferPool.getBufferCount());
+        }
         if (listener!= null) {
-            listener.onFrameAvailable(data, cameraWrapper.previewWidth, cameraWrapper.previewHeight, frameRotation);
+            listener.onFrameAvailable(frame, cameraWrapper.previewWidth, cameraWrapper.previewHeight, frameRotation, captureNanos);
         }
-        // put the buffer back in the queue, so that it can be used again
-        camera.addCallbackBuffer(data);
+        // drop our reference; the buffer goes back to the camera once every consumer that retained it has released it
+        frame.release();
     }
 
     private void setupPreviewWithCallbackBuffers() {
@@ -283,13 +380,52 @@ class CameraHelper extends OrientationEventListener implements SurfaceHolder.Cal
 
         int bufSize = size.width * size.height * bitsPerPixel / 8;
 
-        // add two buffers to the queue, so the camera can be working with one, while the callback is working with the
-        // other. The callback will put each buffer it receives back into the buffer queue when it's done, so the
-        // camera can use it again.
-        cameraWrapper.camera.addCallbackBuffer(new byte[bufSize]);
-        cameraWrapper.camera.addCallbackBuffer(new byte[bufSize]);
-
+        // The pool keeps its buffers across camera restarts, and only reallocates them if the frame size changed.
+        // Attaching hands every buffer not held by a consumer to the camera; the others follow as they are released.
         cameraWrapper.camera.setPreviewCallbackWithBuffer(this);
+        ringMonitor.restart();
+        bufferPool.ensureBuffers(bufSize);
+        bufferPool.attach(bufferRecycledListener);
+    }
+
+    /*
+        Puts a released buffer back in the camera's queue, so that it can be used again. Runs on the main thread.
+     */
+    private void returnBufferToCamera(FrameBuffer buffer, int attachEpoch) {
+        //ignore hand-offs from before the preview was last stopped, as those buffers have since been handed over again
+        if (isPreviewing && bufferPool.isCurrentEpoch(attachEpoch)) {
+            cameraWrapper.camera.addCallbackBuffer(buffer.getData());
+        }
+    }
+
+    /*
+        Sets the preview size chosen by previewSizeSelector among the supported ones. Returns whether that differs from the
+        size cameraParams had. Runs on the camera creation thread, or on the main thread once the camera is started.
+     */
+    private boolean setOptimalPreviewSize(Camera.Parameters cameraParams) {
+        List<Size> supportedPreviewSizes = cameraParams.getSupportedPreviewSizes();
+        // according to Android bug #6271, the emulator sometimes returns null from getSupportedPreviewSizes,
+        // although this shouldn't happen on a real device.
+        // See https://code.google.com/p/android/issues/detail?id=6271
+        if (null == supportedPreviewSizes || supportedPreviewSizes.isEmpty()) {
+            Log.v(LOG_TAG, "Camera returning null for getSupportedPreviewSizes(), will use default");
+            return false;
+        }
+
+        int count = supportedPreviewSizes.size();
+        int[] widths = new int[count];
+        int[] heights = new int[count];
+        for (int i = 0; i < count; i++) {
+            widths[i] = supportedPreviewSizes.get(i).width;
+            heights[i] = supportedPreviewSizes.get(i).height;
+        }
+        Size optimalSize = supportedPreviewSizes.get(previewSizeSelector.select(widths, heights, count));
+        Size currentSize = cameraParams.getPreviewSize();
+        if (currentSize != null && currentSize.width == optimalSize.width && currentSize.height == optimalSize.height) {
+            return false;
+        }
+        cameraParams.setPreviewSize(optimalSize.width, optimalSize.height);
+        return true;
     }
 
     void closeCameraSafe() {
@@ -450,6 +586,8 @@ class CameraHelper extends OrientationEventListener implements SurfaceHolder.Cal
         int cameraId;
         int previewWidth;
         int previewHeight;
+        int minFpsTimes1000;
+        int maxFpsTimes1000;
     }
 
     /*
@@ -460,6 +598,7 @@ class CameraHelper extends OrientationEventListener implements SurfaceHolder.Cal
         WeakReference<CameraHelper> cameraHelperRef;
 
         final static int CAMERA_CREATED = 0;
+        final static int BUFFER_RECYCLED = 1;
 
         MainThreadHandler(CameraHelper cameraHelper) {
             super(Looper.getMainLooper());
@@ -473,6 +612,9 @@ class CameraHelper extends OrientationEventListener implements SurfaceHolder.Cal
                 case CAMERA_CREATED:
                     cameraHelper.cameraStarted();
                     break;
+                case BUFFER_RECYCLED:
+                    cameraHelper.returnBufferToCamera((FrameBuffer) msg.obj, msg.arg1);
+                    break;
                 default:
                     Log.e(LOG_TAG,"Received unhandled message of code " + String.valueOf(msg.what));
                     break;
@@ -502,12 +644,16 @@ class CameraHelper extends OrientationEventListener implements SurfaceHolder.Cal
             // NV21 is the default, but this line here in case want to change.
             cameraParams.setPreviewFormat(PREVIEW_IMAGE_FORMAT);
             setOptimalPreviewFrameRate(cameraParams);
-            setOptimalPreviewSize(cameraParams, 640, 480); // Youssef requested roughly 640x480 on 3/18/2014
+            setOptimalPreviewSize(cameraParams);
 
             cameraWrapper.camera.setParameters(cameraParams);
 
             cameraWrapper.previewWidth = cameraParams.getPreviewSize().width;
             cameraWrapper.previewHeight = cameraParams.getPreviewSize().height;
+            int[] fpsRange = new int[2];
+            cameraParams.getPreviewFpsRange(fpsRange);
+            cameraWrapper.minFpsTimes1000 = fpsRange[Camera.Parameters.PREVIEW_FPS_MIN_INDEX];
+            cameraWrapper.maxFpsTimes1000 = fpsRange[Camera.Parameters.PREVIEW_FPS_MAX_INDEX];
         }
 
         //Sets camera frame to be as close to TARGET_FRAME_RATE as possible
@@ -533,30 +679,6 @@ class CameraHelper extends OrientationEventListener implements SurfaceHolder.Cal
             }
             cameraParams.setPreviewFpsRange(optimalRange[0], optimalRange[1]); // this will take the biggest lo range.
         }
-
-        // Finds the closest height - simple algo. NOTE: only height is used as a target, width is ignored!
-        //TODO: this could benefit from revision - for example, it chooses a square image on the Nexus 7, which looks bad
-        private void setOptimalPreviewSize(Camera.Parameters cameraParams, int targetWidth, int targetHeight) {
-            List<Size> supportedPreviewSizes = cameraParams.getSupportedPreviewSizes();
-            // according to Android bug #6271, the emulator sometimes returns null from getSupportedPreviewSizes,
-            // although this shouldn't happen on a real device.
-            // See https://code.google.com/p/android/issues/detail?id=6271
-            if (null == supportedPreviewSizes) {
-                Log.v(LOG_TAG, "Camera returning null for getSupportedPreviewSizes(), will use default");
-                return;
-            }
-
-            Size optimalSize = null;
-            double minDiff = Double.MAX_VALUE;
-
-            for (Size size : supportedPreviewSizes) {
-                if (Math.abs(size.height - targetHeight) < minDiff) {
-                    optimalSize = size;
-                    minDiff = Math.abs(size.height - targetHeight);
-                }
-            }
-            cameraParams.setPreviewSize(optimalSize.width, optimalSize.height);
-        }
     }
 
 
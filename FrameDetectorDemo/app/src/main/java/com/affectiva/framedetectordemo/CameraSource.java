@@ -0,0 +1,58 @@
+package com.affectiva.framedetectordemo;
+
+import com.affectiva.android.affdex.sdk.Frame;
+
+/**
+ * A source of NV21 camera frames, in pooled FrameBuffers, for the detector pipeline. Implemented on the old camera API by
+ * CameraHelper, on camera2 by Camera2Source, and without a camera by FakeCameraSource.
+ *
+ * Frames and events are delivered to the listener on the main thread, except for FakeCameraSource, which delivers them on
+ * the thread that asks it for a frame.
+ */
+interface CameraSource {
+
+    enum CameraType {
+        CAMERA_BACK, CAMERA_FRONT
+    }
+
+    interface OnCameraSourceEventListener {
+        /**
+         * The listener may only read the frame's data during this call, unless it calls frame.retain(), in which case it
+         * must call frame.release() once it is done with the data.
+         */
+        void onFrameAvailable(FrameBuffer frame, int width, int height, Frame.ROTATE rotation, long captureNanos);
+        void onFrameSizeSelected(int width, int height, Frame.ROTATE rotation);
+        void onCameraStarted(boolean success, Throwable error);
+    }
+
+    void setOnCameraSourceEventListener(OnCameraSourceEventListener listener);
+
+    /**
+     * Opens the camera of the given type and starts delivering frames as soon as there is a surface to preview on.
+     */
+    void startCamera(CameraType cameraType);
+
+    void stopCamera();
+
+    /**
+     * Sets the number of frame buffers shared by the camera and the consumers of its frames. Consumers that hold on to
+     * frames (such as a detector with several workers) need more buffers, or frames will be dropped. Takes effect the
+     * next time the preview starts. getCallbackRingMonitor() tells whether the count is enough.
+     */
+    void setCallbackBufferCount(int count);
+
+    /**
+     * Sets the strategy that chooses the preview size among the camera's supported sizes. Takes effect the next time the
+     * camera is started.
+     */
+    void setPreviewSizeSelector(PreviewSizeSelector selector);
+
+    /**
+     * Asks the selector for the preview size again, for instance after its settings have changed, and if it chooses a
+     * different size, restarts the preview with that size while keeping the camera open. The listener is told of the new
+     * size through onFrameSizeSelected() before the first frame of that size. Does nothing unless the camera is started.
+     */
+    void reselectPreviewSize();
+
+    CallbackRingMonitor getCallbackRingMonitor();
+}
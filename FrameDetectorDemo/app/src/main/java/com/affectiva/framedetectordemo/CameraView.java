@@ -1,8 +1,10 @@
 package com.affectiva.framedetectordemo;
 
 import android.content.Context;
+import android.os.Build;
 import android.util.AttributeSet;
 import android.util.Log;
+import android.view.Display;
 import android.view.Gravity;
 import android.view.SurfaceView;
 import android.view.ViewGroup;
@@ -16,10 +18,10 @@ import com.affectiva.android.affdex.sdk.Frame;
  *
  * This view consists of a SurfaceView object contained inside a FrameLayout.
  */
-public class CameraView extends FrameLayout implements CameraHelper.OnCameraHelperEventListener {
+public class CameraView extends FrameLayout implements CameraSource.OnCameraSourceEventListener {
 
     interface OnCameraViewEventListener {
-        void onCameraFrameAvailable(byte[] frame, int width, int height, Frame.ROTATE rotation);
+        void onCameraFrameAvailable(FrameBuffer frame, int width, int height, Frame.ROTATE rotation, long captureNanos);
         void onCameraStarted(boolean success, Throwable error);
         void onSurfaceViewSizeChanged();
     }
@@ -27,11 +29,16 @@ public class CameraView extends FrameLayout implements CameraHelper.OnCameraHelp
     public static String LOG_TAG = "Affectiva";
 
     SurfaceView surfaceView;
-    CameraHelper cameraHelper;
+    CameraSource cameraSource;
     OnCameraViewEventListener listener;
 
+    //chooses preview sizes in the shape of this view, so that the preview fills it without bars, and as large as the
+    //budget set by setPreviewPixelBudget() allows, since the detector is given downscaled frames
+    final CostAwarePreviewSizeSelector previewSizeSelector = new BudgetFillingPreviewSizeSelector();
+
     int previewHeight = 0;
     int previewWidth = 0;
+    Frame.ROTATE previewRotation = null;
 
     public CameraView(Context context) {
         super(context);
@@ -54,7 +61,7 @@ public class CameraView extends FrameLayout implements CameraHelper.OnCameraHelp
 
         /*
             Create a SurfaceView subclass that resizes itself to match the aspect ratio of previewWidth and previewHeight,
-            which are the dimensions of the camera preview chosen by CameraHelper.
+            which are the dimensions of the camera preview chosen by the CameraSource.
             While an Android View typically needs to call the MeasureSpec.getMode() method to properly determine its size,
             we can neglect that step in this case because we know we want our SurfaceView to take up as space as possible
             while matching the camera's aspect ratio.
@@ -92,9 +99,28 @@ public class CameraView extends FrameLayout implements CameraHelper.OnCameraHelp
         surfaceView.setLayoutParams(params);
         this.addView(surfaceView);
 
-        //Init cameraHelper, the class which controls our camera.
-        cameraHelper = new CameraHelper(context,surfaceView,((WindowManager)context.getSystemService(Context.WINDOW_SERVICE)).getDefaultDisplay());
-        cameraHelper.setOnCameraHelperEventListener(this);
+        //Init cameraSource, which controls our camera: through camera2 where the device properly supports it, since
+        //frames then reach the detector with a single copy, and through the old camera API otherwise.
+        Display display = ((WindowManager)context.getSystemService(Context.WINDOW_SERVICE)).getDefaultDisplay();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP && Camera2Source.isSupported(context)) {
+            cameraSource = new Camera2Source(context, surfaceView, display);
+        } else {
+            cameraSource = new CameraHelper(context, surfaceView, display);
+        }
+        cameraSource.setOnCameraSourceEventListener(this);
+        cameraSource.setPreviewSizeSelector(previewSizeSelector);
+    }
+
+    /**
+     * Matches the preview's shape to the space this view has been given, which is known once it has been laid out, and
+     * switches a running camera to a size of that shape.
+     */
+    @Override
+    protected void onSizeChanged(int width, int height, int oldWidth, int oldHeight) {
+        super.onSizeChanged(width, height, oldWidth, oldHeight);
+        if (width > 0 && height > 0 && previewSizeSelector.setTargetAspectRatio(width, height)) {
+            cameraSource.reselectPreviewSize();
+        }
     }
 
     public void setOnCameraViewEventListener(OnCameraViewEventListener listener) {
@@ -105,31 +131,57 @@ public class CameraView extends FrameLayout implements CameraHelper.OnCameraHelp
         return surfaceView;
     }
 
-    public void startCamera(CameraHelper.CameraType type) {
-        cameraHelper.startCamera(type);
+    public void startCamera(CameraSource.CameraType type) {
+        cameraSource.startCamera(type);
     }
 
     public void stopCamera() {
-        cameraHelper.stopCamera();
+        cameraSource.stopCamera();
+    }
+
+    /**
+     * Sets the number of preview buffers shared by the camera and the consumers of its frames.
+     * See CameraSource.setCallbackBufferCount().
+     */
+    public void setCallbackBufferCount(int count) {
+        cameraSource.setCallbackBufferCount(count);
+    }
+
+    /**
+     * Sets the number of pixels the preview may have, and switches the running camera to the size that fits it best, without
+     * closing the camera. See BudgetFillingPreviewSizeSelector.
+     */
+    void setPreviewPixelBudget(int pixels) {
+        previewSizeSelector.setPixelBudget(pixels);
+        cameraSource.reselectPreviewSize();
+    }
+
+    /**
+     * Returns the statistics of the preview buffers: how full they get, and how often the camera ran out of them.
+     */
+    CallbackRingMonitor getCallbackRingMonitor() {
+        return cameraSource.getCallbackRingMonitor();
     }
 
     /**
      * Bubble up received camera frames.
      */
     @Override
-    public void onFrameAvailable(byte[] frame, int width, int height, Frame.ROTATE rotation) {
+    public void onFrameAvailable(FrameBuffer frame, int width, int height, Frame.ROTATE rotation, long captureNanos) {
         if (listener!= null) {
-            listener.onCameraFrameAvailable(frame, width, height, rotation);
+            listener.onCameraFrameAvailable(frame, width, height, rotation, captureNanos);
         }
     }
 
     /**
      * Update the camera width and height variables, then request a resize of the SurfaceView.
-     * Notice that CameraHelper notifies us of the physical, pre-rotation width and height of the camera
+     * Notice that the CameraSource notifies us of the physical, pre-rotation width and height of the camera
      * frames, so we need to account for possible rotation in this method.
      */
     @Override
     public void onFrameSizeSelected(int width, int height, Frame.ROTATE rotation) {
+        int oldWidth = previewWidth;
+        int oldHeight = previewHeight;
         if (rotation == Frame.ROTATE.BY_90_CW || rotation == Frame.ROTATE.BY_90_CCW) {
             previewHeight = width;
             previewWidth = height;
@@ -137,7 +189,14 @@ public class CameraView extends FrameLayout implements CameraHelper.OnCameraHelp
             previewWidth = width;
             previewHeight = height;
         }
-        surfaceView.requestLayout();
+        //the layout only depends on the aspect ratio, so a new size of the same shape, such as a switch between 640x480
+        //and 320x240, needs no layout, which would have our listener reset the detector
+        boolean isSameShape = rotation == previewRotation
+                && (long) previewWidth * oldHeight == (long) previewHeight * oldWidth;
+        previewRotation = rotation;
+        if (!isSameShape) {
+            surfaceView.requestLayout();
+        }
     }
 
     /**
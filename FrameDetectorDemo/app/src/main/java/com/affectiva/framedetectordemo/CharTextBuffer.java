@@ -0,0 +1,96 @@
+package com.affectiva.framedetectordemo;
+
+/**
+ * A reusable char buffer for building short texts, such as metric scores and frame rates, without allocating a String
+ * each time. Pass the result to TextView.setText(getChars(), 0, length()).
+ *
+ * TextView keeps a reference to the array rather than copying it, so the buffer must only be changed right before it is
+ * passed to setText() again, and each TextView needs a buffer of its own. Text which does not fit is cut off.
+ */
+class CharTextBuffer {
+
+    private static final long[] POWERS_OF_TEN = {1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L};
+
+    private final char[] chars;
+    private int length = 0;
+
+    CharTextBuffer(int capacity) {
+        chars = new char[capacity];
+    }
+
+    char[] getChars() {
+        return chars;
+    }
+
+    int length() {
+        return length;
+    }
+
+    CharTextBuffer clear() {
+        length = 0;
+        return this;
+    }
+
+    CharTextBuffer append(char c) {
+        if (length < chars.length) {
+            chars[length++] = c;
+        }
+        return this;
+    }
+
+    CharTextBuffer append(String text) {
+        int count = Math.min(text.length(), chars.length - length);
+        text.getChars(0, count, chars, length);
+        length += count;
+        return this;
+    }
+
+    CharTextBuffer append(long value) {
+        if (value < 0) {
+            append('-');
+            value = -value;
+        }
+        int start = length;
+        do {
+            append((char) ('0' + (int) (value % 10)));
+            value /= 10;
+        } while (value > 0);
+        //digits were appended least significant first
+        for (int i = start, j = length - 1; i < j; i++, j--) {
+            char c = chars[i];
+            chars[i] = chars[j];
+            chars[j] = c;
+        }
+        return this;
+    }
+
+    /**
+     * Appends value rounded to the given number of decimals (at most 6), the way String.format("%.nf") would for the
+     * values we display.
+     */
+    CharTextBuffer append(float value, int decimals) {
+        if (decimals < 0 || decimals >= POWERS_OF_TEN.length) {
+            throw new IllegalArgumentException("decimals must be between 0 and " + (POWERS_OF_TEN.length - 1));
+        }
+        if (Float.isNaN(value)) {
+            return append("NaN");
+        }
+        if (Float.isInfinite(value)) {
+            return append(value > 0 ? "Infinity" : "-Infinity");
+        }
+        long scale = POWERS_OF_TEN[decimals];
+        long scaled = Math.round(Math.abs((double) value) * scale);
+        if (value < 0 && scaled != 0) {
+            append('-');
+        }
+        append(scaled / scale);
+        if (decimals > 0) {
+            append('.');
+            long fraction = scaled % scale;
+            for (long divisor = scale / 10; divisor > 0; divisor /= 10) {
+                append((char) ('0' + (int) (fraction / divisor % 10)));
+            }
+        }
+        return this;
+    }
+}
@@ -0,0 +1,145 @@
+package com.affectiva.framedetectordemo;
+
+/**
+ * Chooses the smallest preview size that still lets the detector find the faces we care about, in the shape of the view
+ * the preview is shown in.
+ *
+ * A size is good enough for detection if the smallest face of interest, minFaceFraction of the short side of the frame,
+ * comes out at least minFacePixels across. Among the sizes that are, each is scored by how far its aspect ratio is from
+ * the target's (the log of their ratio, times aspectWeight, so that a wider and a narrower size are treated alike) plus
+ * its pixel count as a fraction of pixelBudget, the number of pixels the detector can afford to process per frame; sizes
+ * over budget score worse than any within it. The lowest score wins. Should no size be good enough, the one with the
+ * longest short side is chosen instead, with the score as a tiebreak. BudgetFillingPreviewSizeSelector scores the pixel
+ * count the other way round.
+ *
+ * The pixel budget and the target aspect ratio may be changed while a CameraSource is using the selector, followed by
+ * CameraSource.reselectPreviewSize(); the other settings should be made before the selector is handed to a source.
+ */
+class CostAwarePreviewSizeSelector implements PreviewSizeSelector {
+
+    //the roughly 640x480 the preview size used to be chosen for
+    static final int DEFAULT_PIXEL_BUDGET = 640 * 480;
+    //together, a short side of at least 240, MainActivity.MIN_DETECTOR_FRAME_SIZE, below which frames are not downsampled
+    static final int DEFAULT_MIN_FACE_PIXELS = 48;
+    static final float DEFAULT_MIN_FACE_FRACTION = 0.2f;
+    static final float DEFAULT_ASPECT_WEIGHT = 2f;
+
+    //added to the score of sizes over budget, more than the aspect and pixel terms of any size within budget add up to
+    static final float OVER_BUDGET_PENALTY = 100f;
+
+    private volatile float targetAspectRatio = 4f / 3f;
+    private volatile int pixelBudget = DEFAULT_PIXEL_BUDGET;
+    private int minFacePixels = DEFAULT_MIN_FACE_PIXELS;
+    private float minFaceFraction = DEFAULT_MIN_FACE_FRACTION;
+    private float aspectWeight = DEFAULT_ASPECT_WEIGHT;
+
+    /**
+     * Sets the shape the preview is shown in, such as the view's; which way round does not matter. Returns whether the
+     * shape changed.
+     */
+    boolean setTargetAspectRatio(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("width and height must be positive");
+        }
+        float aspectRatio = (float) Math.max(width, height) / Math.min(width, height);
+        boolean isChanged = aspectRatio != targetAspectRatio;
+        targetAspectRatio = aspectRatio;
+        return isChanged;
+    }
+
+    void setPixelBudget(int pixels) {
+        if (pixels <= 0) {
+            throw new IllegalArgumentException("pixels must be positive");
+        }
+        pixelBudget = pixels;
+    }
+
+    int getPixelBudget() {
+        return pixelBudget;
+    }
+
+    /**
+     * Sets the smallest face that must remain detectable: one minFaceFraction of the frame's short side across must be at
+     * least minFacePixels wide.
+     */
+    void setMinFaceSize(int minFacePixels, float minFaceFraction) {
+        if (minFacePixels <= 0) {
+            throw new IllegalArgumentException("minFacePixels must be positive");
+        }
+        if (minFaceFraction <= 0f || minFaceFraction > 1f) {
+            throw new IllegalArgumentException("minFaceFraction must be in (0, 1]");
+        }
+        this.minFacePixels = minFacePixels;
+        this.minFaceFraction = minFaceFraction;
+    }
+
+    void setAspectWeight(float weight) {
+        if (weight < 0f) {
+            throw new IllegalArgumentException("weight must not be negative");
+        }
+        aspectWeight = weight;
+    }
+
+    /**
+     * Returns the shortest short side a frame may have for the smallest face of interest to remain detectable.
+     */
+    int getMinShortSide() {
+        return (int) Math.ceil(minFacePixels / minFaceFraction);
+    }
+
+    @Override
+    public int select(int[] widths, int[] heights, int count) {
+        if (count < 1 || widths.length < count || heights.length < count) {
+            throw new IllegalArgumentException("there must be count sizes, and at least one");
+        }
+        int minShortSide = getMinShortSide();
+        int best = -1;
+        boolean isBestGoodEnough = false;
+        int bestShortSide = 0;
+        float bestScore = Float.POSITIVE_INFINITY;
+        for (int i = 0; i < count; i++) {
+            int shortSide = Math.min(widths[i], heights[i]);
+            if (shortSide <= 0) {
+                continue;
+            }
+            boolean isGoodEnough = shortSide >= minShortSide;
+            float score = score(widths[i], heights[i]);
+            boolean isBetter;
+            if (isGoodEnough != isBestGoodEnough) {
+                isBetter = isGoodEnough;
+            } else if (!isGoodEnough && shortSide != bestShortSide) {
+                isBetter = shortSide > bestShortSide;
+            } else {
+                isBetter = score < bestScore;
+            }
+            if (best < 0 || isBetter) {
+                best = i;
+                isBestGoodEnough = isGoodEnough;
+                bestShortSide = shortSide;
+                bestScore = score;
+            }
+        }
+        if (best < 0) {
+            throw new IllegalArgumentException("sizes must be positive");
+        }
+        return best;
+    }
+
+    float score(int width, int height) {
+        float aspectRatio = (float) Math.max(width, height) / Math.min(width, height);
+        float score = aspectWeight * Math.abs((float) Math.log(aspectRatio / targetAspectRatio));
+        return score + pixelScore((long) width * height, pixelBudget);
+    }
+
+    /**
+     * Returns the part of a size's score that comes from its pixel count: the smaller the better, and anything over
+     * budget worse than anything within it.
+     */
+    float pixelScore(long pixels, int budget) {
+        float score = (float) pixels / budget;
+        if (pixels > budget) {
+            score += OVER_BUDGET_PENALTY;
+        }
+        return score;
+    }
+}
@@ -0,0 +1,47 @@
+package com.affectiva.framedetectordemo;
+
+/**
+ * The face detector each DetectorPipeline worker drives: the Affdex FrameDetector on a device (AffdexDetectorEngine), or a
+ * stand-in such as SyntheticDetectorEngine when the pipeline runs or is measured without the SDK.
+ *
+ * The frame and result types are left open so that this interface, like the other pipeline helpers, does not depend on
+ * Android or the SDK. An engine is only ever used from the thread that created it. Like FrameDetector, it reports
+ * results synchronously from within process(), and not at all for frames it has no results for.
+ *
+ * @param <F> the frame type
+ * @param <R> the result type, for FrameDetector the list of faces found
+ */
+interface DetectorEngine<F, R> {
+
+    interface ResultListener<F, R> {
+        void onResults(R results, F frame, float timestamp);
+    }
+
+    /**
+     * Creates an engine for each worker, on the worker's own thread.
+     */
+    interface Factory<F, R> {
+        DetectorEngine<F, R> create();
+    }
+
+    void setResultListener(ResultListener<F, R> listener);
+
+    /**
+     * Starts the engine. May be slow, e.g. if models have to be loaded.
+     */
+    void start();
+
+    boolean isRunning();
+
+    /**
+     * Processes a frame. Timestamps are in seconds and must be strictly increasing, except right after reset().
+     */
+    void process(F frame, float timestamp);
+
+    /**
+     * Forgets the faces being tracked.
+     */
+    void reset();
+
+    void stop();
+}
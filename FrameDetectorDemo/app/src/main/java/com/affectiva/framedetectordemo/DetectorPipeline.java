@@ -0,0 +1,1591 @@
+package com.affectiva.framedetectordemo;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs one or more DetectorEngines on background threads, and delivers their results in order: the frame pipeline behind
+ * AsyncFrameDetector, without Android or the SDK. The workers and the thread results are delivered on are MessageLoops,
+ * so that the pipeline can run on Android's Handlers, or on plain threads to be tested and measured on a JVM.
+ * The workers are re-created for any pair of start() stop() calls the user makes.
+ *
+ * When more than one worker is requested, frames are dispatched to the workers round-robin and their results are put back
+ * into submission order by a ResultResequencer before they are delivered to the listener, so listeners always receive
+ * results with increasing timestamps.
+ *
+ * Frames are timestamped in SessionClock.nowNanos() time, which is what listeners receive. Only the engine itself is
+ * given float seconds, relative to a SessionClock origin that is rebased whenever the engine is (re)started or reset.
+ *
+ * The listener set with setOnDetectorEventListener() is called on the main loop. Listeners which do not touch views can
+ * instead be added with an Executor of their choice, or with DETECTOR_THREAD, so that they do not wait behind layout and
+ * drawing on the main thread.
+ *
+ * @param <F> the frame type
+ * @param <R> the result type, for FrameDetector the list of faces found
+ */
+class DetectorPipeline<F, R> {
+
+    public interface Listener<F, R> {
+        /**
+         * image is the frame that was passed to process(), and timestampNanos the SessionClock.nowNanos() time at which
+         * it was captured.
+         */
+        void onImageResults(R results, F image, long timestampNanos);
+        void onDetectorStarted();
+        /**
+         * Called, like onDetectorStarted(), when the pipeline gives up on a worker whose engine kept failing however
+         * often it was restarted. No more frames are processed until the pipeline is stopped and started again.
+         */
+        void onDetectorFailed();
+    }
+
+    /**
+     * IMMEDIATE          - every result is delivered to the listener, in its own main loop message.
+     * COALESCED_VSYNC    - only the newest result is kept, and it is delivered at most once per display frame. Results
+     *                      replaced before they could be delivered are counted but never reach the listener. Suited to
+     *                      listeners that only update views, which cannot show more than one result per frame anyway.
+     */
+    public enum DeliveryMode {
+        IMMEDIATE, COALESCED_VSYNC
+    }
+
+    /**
+     * Where the pipeline reports failing and recovering workers: logcat for AsyncFrameDetector, nowhere by default.
+     */
+    interface EventLog {
+        void error(String message);
+        void info(String message);
+    }
+
+    static final EventLog SILENT = new EventLog() {
+        @Override
+        public void error(String message) {
+        }
+
+        @Override
+        public void info(String message) {
+        }
+    };
+
+    /**
+     * Pass to addOnDetectorEventListener() to have a listener called directly on the thread which releases each result,
+     * normally a detector thread. Results are then delivered in order while the ResultResequencer lock is held, so the
+     * listener must return quickly or it will hold up every worker.
+     */
+    public static final Executor DETECTOR_THREAD = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    /*
+     workers, resequencer and isRunning are written by start() and stop() on the main thread, but read by process() on the
+     camera thread, which may be blocked in a full BOUNDED_BLOCKING queue while stop() runs. So they are volatile, and
+     whoever reads them reads them once into locals, which remain valid to use after stop() has cleared the fields.
+     */
+    volatile Worker[] workers;
+    int nextWorker = 0;
+    //creates the DetectorEngine each worker runs
+    final DetectorEngine.Factory<F, R> engineFactory;
+    volatile boolean isRunning;
+    //starts the workers' loops, and gave us the main loop
+    final MessageLoop.Factory loopFactory;
+    final MessageLoop mainLoop;
+    Listener<F, R> listener;
+    volatile EventLog eventLog = SILENT;
+
+    /*
+     Frames are handed to each background thread through a FrameQueue rather than through its loop's message queue.
+     The BackpressurePolicy decides what happens when a frame arrives for a worker whose queue is full, so the engine
+     never incurs an unbounded 'debt' of frames to process. The loop is only used to wake the background thread up.
+     The policy also keeps the frame counts.
+     */
+    final BackpressurePolicy backpressurePolicy;
+
+    /*
+     Every submitted frame gets a sequence number, which the resequencer uses to release results in submission order.
+     Frames dropped from a queue leave the resequencer's window as soon as they are dropped, so it only has to cover the
+     frames that can be in flight at once, those in each worker's queue and the one being processed by each worker, plus
+     as many results again, completed and waiting behind an earlier frame.
+     */
+    final int workerCount;
+    long nextSequence = 0;
+    volatile ResultResequencer<OutputData> resequencer;
+    final AtomicInteger workersStarted = new AtomicInteger();
+    final ResultResequencer.OnResultReleasedListener<OutputData> resultReleasedListener;
+    final ResultResequencer.OnResultReleasedListener<OutputData> resultDiscardedListener =
+            new ResultResequencer.OnResultReleasedListener<OutputData>() {
+                @Override
+                public void onResultReleased(OutputData result) {
+                    releaseResult(result);
+                }
+            };
+
+    //decides which of the frames passed to process() are submitted, based on the measured engine service time
+    final FrameAdmissionController admissionController;
+
+    //per-stage latency histograms, fed from timestamps each frame collects on its way through the pipeline
+    final PipelineLatencyStats latencyStats = new PipelineLatencyStats();
+
+    /*
+     In COALESCED_VSYNC mode, released results wait in a single slot until the next display frame, and a newer result
+     replaces an undelivered one. Where the main loop knows of no display frames, a single pending main loop message still
+     coalesces bursts of results.
+     */
+    volatile DeliveryMode deliveryMode = DeliveryMode.IMMEDIATE;
+    final AtomicReference<OutputData> latestResult = new AtomicReference<>();
+    final AtomicBoolean deliveryScheduled = new AtomicBoolean();
+    final AtomicLong resultsCoalesced = new AtomicLong();
+
+    /*
+     Listeners added with an Executor. Each one holds its own reference to a result's buffer until it has been called, so
+     a slow executor keeps the buffer from going back to the camera rather than letting it be overwritten. Results reach
+     a listener in order only if its executor runs tasks one at a time, in submission order.
+     The registrations are an array which is replaced as a whole whenever a listener is added or removed, so that the
+     detector threads can walk it for every result without the iterator a collection would allocate.
+     */
+    final Object registrationsLock = new Object();
+    volatile ListenerRegistration[] registrations = newRegistrationArray(0);
+
+    /*
+     Creating an engine may be slow, as FrameDetector loads its models. suspend() keeps the workers and their started
+     engines parked for a grace period instead of stopping them, and a start() within that period picks them up
+     again. Time-to-first-result is measured from start() to the first released result, separately for cold starts and
+     warm resumes.
+     */
+    volatile Worker[] parkedWorkers;
+    final Runnable releaseParkedWorkersRunnable = new Runnable() {
+        @Override
+        public void run() {
+            releaseSuspendedWorkers();
+        }
+    };
+    volatile long startNanos;
+    volatile boolean isWarmStart;
+    final AtomicBoolean firstResultPending = new AtomicBoolean();
+    volatile float coldTimeToFirstResult = -1f;
+    volatile float warmTimeToFirstResult = -1f;
+
+    /*
+     InputData and OutputData are recycled rather than allocated per frame, so that, together with the message loops'
+     own message pools and the FrameBufferPool, submitting a frame and delivering its result allocates nothing once the
+     pipeline has reached its steady state. An OutputData is reference-counted like a FrameBuffer, since it may be
+     handed to several listeners, and goes back to its pool, releasing its buffer, once all of them are done with it.
+     */
+    final ObjectPool<InputData> inputPool;
+    final ObjectPool<OutputData> outputPool;
+
+    /*
+     Converts capture times into the float seconds the engine expects. The origin is rebased with the first frame after
+     start() or reset(), so the float timestamps stay small and precise; a session that runs long enough for them to lose
+     precision is ended with a reset(). lastSdkTimestamp guards the strictly increasing timestamps the engine requires.
+     */
+    final SessionClock sessionClock = new SessionClock();
+
+    /*
+     Each frame carries a deadline, its capture time plus the maximum frame age. A worker which only gets to a frame after
+     its deadline skips it rather than spend engine time on a result that is already stale, and that would delay
+     the next, fresh frame.
+     */
+    volatile long maxFrameAgeNanos = 0;
+    final AtomicLong framesExpired = new AtomicLong();
+    boolean isClockRebasePending = true;
+    float lastSdkTimestamp;
+
+    /*
+     Frames a motion gate found unchanged are not processed; processUnchanged() delivers the results of the most recent
+     processed frame again for them. lastResults is written as results are released, in order, so it always holds the
+     newest results.
+     */
+    volatile R lastResults;
+    final AtomicLong framesRepeated = new AtomicLong();
+
+    /*
+     While the detector runs, a supervisor on the main thread checks on the workers every SUPERVISOR_INTERVAL_MILLIS.
+     A worker whose engine failed (threw, or stopped running), which has not answered a heartbeat within the watchdog
+     timeout, or which has kept processing frames without a single result for that long, is abandoned and replaced by a
+     fresh thread with a new engine. The replacement takes over the worker's frame queue, so process() keeps accepting
+     frames throughout, and recovery takes at most the watchdog timeout plus the new engine's start time. The frame the
+     old worker was stuck on is skipped, and anything it reports later is ignored.
+
+     A worker which fails again soon after being replaced is restarted after an exponentially growing back-off, so an
+     engine that can never start does not keep the main thread busy creating threads for it. Once a worker has been
+     restarted maxConsecutiveRestarts times without running healthily for HEALTHY_RUN_MILLIS in between, the pipeline gives
+     up: it stops accepting frames and reports onDetectorFailed() to its listeners.
+     */
+    static final long SUPERVISOR_INTERVAL_MILLIS = 500;
+    static final long DEFAULT_WATCHDOG_TIMEOUT_MILLIS = 10000;
+    static final long DEFAULT_INITIAL_RESTART_BACKOFF_MILLIS = 1000;
+    static final long DEFAULT_MAX_RESTART_BACKOFF_MILLIS = 30000;
+    static final int DEFAULT_MAX_CONSECUTIVE_RESTARTS = 8;
+    static final long HEALTHY_RUN_MILLIS = 60000;
+    volatile long watchdogTimeoutNanos = DEFAULT_WATCHDOG_TIMEOUT_MILLIS * 1000000L;
+    volatile long initialRestartBackoffNanos = DEFAULT_INITIAL_RESTART_BACKOFF_MILLIS * 1000000L;
+    volatile long maxRestartBackoffNanos = DEFAULT_MAX_RESTART_BACKOFF_MILLIS * 1000000L;
+    volatile int maxConsecutiveRestarts = DEFAULT_MAX_CONSECUTIVE_RESTARTS;
+    volatile boolean hasFailed;
+    final AtomicLong workerRestarts = new AtomicLong();
+    final AtomicLong workerDowntimeNanos = new AtomicLong();
+    final Runnable superviseWorkersRunnable = new Runnable() {
+        @Override
+        public void run() {
+            superviseWorkers();
+            mainLoop.postDelayed(this, SUPERVISOR_INTERVAL_MILLIS);
+        }
+    };
+    //checks on the workers again as soon as a restart held back by its back-off is due
+    final Runnable restartDueRunnable = new Runnable() {
+        @Override
+        public void run() {
+            superviseWorkers();
+        }
+    };
+
+    /**
+     * Creates a pipeline which runs workerCount engines created by engineFactory, each on its own loop from loopFactory,
+     * with frames waiting for a busy worker handled according to backpressurePolicy. The main loop is obtained from
+     * loopFactory right away.
+     */
+    DetectorPipeline(DetectorEngine.Factory<F, R> engineFactory, int workerCount, BackpressurePolicy backpressurePolicy,
+                     MessageLoop.Factory loopFactory) {
+        if (engineFactory == null) {
+            throw new NullPointerException("engineFactory must not be null");
+        }
+        if (workerCount < 1) {
+            throw new IllegalArgumentException("workerCount must be at least 1");
+        }
+        if (backpressurePolicy == null) {
+            throw new NullPointerException("backpressurePolicy must not be null");
+        }
+        if (loopFactory == null) {
+            throw new NullPointerException("loopFactory must not be null");
+        }
+        this.engineFactory = engineFactory;
+        this.workerCount = workerCount;
+        this.backpressurePolicy = backpressurePolicy;
+        this.loopFactory = loopFactory;
+        mainLoop = loopFactory.mainLoop(new MainLoopCallback(this));
+        admissionController = new FrameAdmissionController(workerCount);
+        //enough for every frame and result that can be in flight at once, with room to spare for the handover in between
+        int maxInFlight = 2 * workerCount * (backpressurePolicy.getCapacity() + 1) + 2;
+        inputPool = new ObjectPool<InputData>(maxInFlight) {
+            @Override
+            protected InputData create() {
+                return new InputData();
+            }
+        };
+        outputPool = new ObjectPool<OutputData>(maxInFlight) {
+            @Override
+            protected OutputData create() {
+                return new OutputData();
+            }
+        };
+        resultReleasedListener = new ResultResequencer.OnResultReleasedListener<OutputData>() {
+            @Override
+            public void onResultReleased(OutputData result) {
+                if (!result.isRepeat) {
+                    lastResults = result.results;
+                }
+                if (firstResultPending.compareAndSet(true, false)) {
+                    recordTimeToFirstResult();
+                }
+                dispatchToRegistrations(result);
+                if (deliveryMode == DeliveryMode.COALESCED_VSYNC) {
+                    coalesceResult(result);
+                } else {
+                    mainLoop.sendMessage(MainLoopCallback.FRAME_READY, result);
+                }
+            }
+        };
+    }
+
+    public void setOnDetectorEventListener(Listener<F, R> listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Sets where failing and recovering workers are reported.
+     */
+    void setEventLog(EventLog eventLog) {
+        if (eventLog == null) {
+            throw new NullPointerException("eventLog must not be null");
+        }
+        this.eventLog = eventLog;
+    }
+
+    /**
+     * Adds a listener which is called through the given executor, in addition to the one set with
+     * setOnDetectorEventListener(). Use DETECTOR_THREAD to have it called without any thread hop. The same listener may
+     * be added more than once, with different executors.
+     */
+    public void addOnDetectorEventListener(Listener<F, R> listener, Executor executor) {
+        if (listener == null) {
+            throw new NullPointerException("listener must not be null");
+        }
+        if (executor == null) {
+            throw new NullPointerException("executor must not be null");
+        }
+        synchronized (registrationsLock) {
+            ListenerRegistration[] added = Arrays.copyOf(registrations, registrations.length + 1);
+            added[registrations.length] = new ListenerRegistration(listener, executor);
+            registrations = added;
+        }
+    }
+
+    /**
+     * Removes every registration of a listener added with addOnDetectorEventListener(). Results already handed to its
+     * executor may still be delivered.
+     */
+    public void removeOnDetectorEventListener(Listener<F, R> listener) {
+        synchronized (registrationsLock) {
+            ListenerRegistration[] remaining = newRegistrationArray(registrations.length);
+            int count = 0;
+            for (ListenerRegistration registration : registrations) {
+                if (registration.listener != listener) {
+                    remaining[count++] = registration;
+                }
+            }
+            registrations = Arrays.copyOf(remaining, count);
+        }
+    }
+
+    /**
+     * Sets how results are delivered to the listener. See DeliveryMode.
+     */
+    public void setDeliveryMode(DeliveryMode mode) {
+        deliveryMode = mode;
+    }
+
+    public DeliveryMode getDeliveryMode() {
+        return deliveryMode;
+    }
+
+    /**
+     * Returns the number of results which, in COALESCED_VSYNC mode, were replaced by a newer result before they could be
+     * delivered.
+     */
+    public long getResultsCoalesced() {
+        return resultsCoalesced.get();
+    }
+
+    /**
+     * Starts running the engines on background threads.
+     * Note that the engines are not guaranteed to have started by the time this call returns, because they are
+     * started asynchronously. onDetectorStarted() is called once every worker has started its engine.
+     *
+     * If the detector was suspended and its grace period has not run out yet, the parked workers are resumed instead of
+     * creating new ones. Their engines are reset, since any faces they were tracking are out of date.
+     */
+    public void start() {
+        if (isRunning)
+            throw new RuntimeException("Called start() without calling stop() first.");
+
+        nextSequence = 0;
+        nextWorker = 0;
+        workersStarted.set(0);
+        startNanos = SessionClock.nowNanos();
+        firstResultPending.set(true);
+        isClockRebasePending = true;
+        ResultResequencer<OutputData> resequencer = new ResultResequencer<>(
+                2 * workerCount * (backpressurePolicy.getCapacity() + 1), resultReleasedListener);
+        Worker[] workers;
+        if (parkedWorkers != null) {
+            mainLoop.removeCallbacks(releaseParkedWorkersRunnable);
+            isWarmStart = true;
+            workers = parkedWorkers;
+            parkedWorkers = null;
+            for (Worker worker : workers) {
+                worker.resumeDetector(resequencer);
+            }
+        } else {
+            isWarmStart = false;
+            workers = newWorkerArray(workerCount);
+            for (int i = 0; i < workerCount; i++) {
+                workers[i] = new Worker("FrameDetectorThread-" + i, resequencer,
+                        backpressurePolicy.<InputData>createQueue());
+                workers[i].start();
+                workers[i].startDetector();
+            }
+        }
+        backpressurePolicy.resetCounts();
+        admissionController.reset();
+        latencyStats.reset();
+        resultsCoalesced.set(0);
+        framesExpired.set(0);
+        framesRepeated.set(0);
+        lastResults = null;
+        hasFailed = false;
+        //published only once complete, so that process() never sees a half-built set of workers
+        this.resequencer = resequencer;
+        this.workers = workers;
+        isRunning = true;
+        mainLoop.postDelayed(superviseWorkersRunnable, SUPERVISOR_INTERVAL_MILLIS);
+        //a worker whose engine failed before now was ignored by the supervisor, which had no workers to look at yet
+        for (Worker worker : workers) {
+            if (worker.isFailed) {
+                mainLoop.sendMessage(MainLoopCallback.WORKER_FAILED, null);
+                break;
+            }
+        }
+    }
+
+    /**
+     * Notifies the background threads to stop their engines.
+     */
+    public void stop() {
+        if(!isRunning)
+            throw new RuntimeException("Called stop() without calling start() first");
+
+        for (Worker worker : workers) {
+            worker.stopDetector();
+        }
+        detachWorkers();
+    }
+
+    /**
+     * Stops processing frames like stop(), but keeps the background threads and their started engines for
+     * gracePeriodMillis, so that a start() within that period does not have to create them again. Once the grace period
+     * runs out, they are stopped as if stop() had been called. Must be called on the main thread.
+     */
+    public void suspend(long gracePeriodMillis) {
+        if(!isRunning)
+            throw new RuntimeException("Called suspend() without calling start() first");
+        if (gracePeriodMillis < 0) {
+            throw new IllegalArgumentException("gracePeriodMillis must not be negative");
+        }
+
+        for (Worker worker : workers) {
+            worker.suspendDetector();
+        }
+        parkedWorkers = workers;
+        detachWorkers();
+        mainLoop.postDelayed(releaseParkedWorkersRunnable, gracePeriodMillis);
+    }
+
+    /**
+     * Stops the background threads kept by suspend() right away, rather than waiting for the grace period to run out.
+     * Does nothing if the detector is not suspended.
+     */
+    public void releaseSuspendedWorkers() {
+        mainLoop.removeCallbacks(releaseParkedWorkersRunnable);
+        if (parkedWorkers != null) {
+            for (Worker worker : parkedWorkers) {
+                worker.stopDetector();
+            }
+            parkedWorkers = null;
+        }
+    }
+
+    public boolean isSuspended() {
+        return parkedWorkers != null;
+    }
+
+    /*
+        Discards everything in flight when the workers stop processing frames, whether they are being stopped or parked.
+     */
+    private void detachWorkers() {
+        /*
+         Cleared first, so that a process() which completes an offer from here on sees that the workers are gone, and
+         discards its frame itself.
+         */
+        Worker[] workers = this.workers;
+        ResultResequencer<OutputData> resequencer = this.resequencer;
+        isRunning = false;
+        this.workers = null;
+        this.resequencer = null;
+        mainLoop.removeCallbacks(superviseWorkersRunnable);
+        mainLoop.removeCallbacks(restartDueRunnable);
+        for (Worker worker : workers) {
+            worker.frameQueue.abandonWaiters();
+            discardPendingFrames(worker, resequencer);
+        }
+        //results held back waiting for a frame that will now never complete are discarded, freeing their buffers
+        resequencer.close(resultDiscardedListener);
+        OutputData pendingResult = latestResult.getAndSet(null);
+        if (pendingResult != null) {
+            releaseResult(pendingResult);
+        }
+    }
+
+    /**
+     * Returns the time, in milliseconds, from the most recent cold start() (one that had to create engines) to the
+     * first result, or -1 if there has not been one yet.
+     */
+    public float getColdTimeToFirstResult() {
+        return coldTimeToFirstResult;
+    }
+
+    /**
+     * Returns the time, in milliseconds, from the most recent start() that resumed suspended engines to the first
+     * result, or -1 if there has not been one yet.
+     */
+    public float getWarmTimeToFirstResult() {
+        return warmTimeToFirstResult;
+    }
+
+    private void recordTimeToFirstResult() {
+        float millis = (SessionClock.nowNanos() - startNanos) / 1000000f;
+        if (isWarmStart) {
+            warmTimeToFirstResult = millis;
+        } else {
+            coldTimeToFirstResult = millis;
+        }
+    }
+
+    boolean isRunning() {
+        return isRunning;
+    }
+
+    public int getWorkerCount() {
+        return workerCount;
+    }
+
+    /**
+     * Returns the controller which decides which frames passed to process() are submitted to the workers. Use it to set a
+     * target frame rate or latency budget, and to read the current admission rate and the decisions it has made.
+     */
+    FrameAdmissionController getAdmissionController() {
+        return admissionController;
+    }
+
+    public BackpressurePolicy getBackpressurePolicy() {
+        return backpressurePolicy;
+    }
+
+    /**
+     * Returns the latency histograms for each stage of the pipeline, collected since the last call to start().
+     */
+    PipelineLatencyStats getLatencyStats() {
+        return latencyStats;
+    }
+
+    public boolean process(F frame) {
+        return process(frame, SessionClock.nowNanos(), null);
+    }
+
+    /**
+     * Offers a frame to the admission controller and, if admitted, submits it to the next worker in round-robin order.
+     * If that worker's queue is full, the BackpressurePolicy decides which frame is dropped, or blocks this call until
+     * there is room. Lossless policies bypass the admission controller, so that every frame reaches the engine.
+     * Returns whether the frame was queued for a worker: false if the pipeline is not running, or the frame was ignored,
+     * not admitted, or turned away by a full queue. A queued frame may still be replaced by a newer one before a worker
+     * gets to it.
+     * This method must always be called from the same thread.
+     *
+     * captureNanos is the SessionClock.nowNanos() time at which the camera delivered the frame. Frames captured no later
+     * than the previous frame, as far as the engine's float timestamps can tell, are ignored.
+     *
+     * If buffer is not null, it must hold the frame's data. The pipeline retains it until the engine and the
+     * listener are done with the frame, so that the camera cannot overwrite it in the meantime. Listeners which need
+     * the frame's data after onImageResults() returns must retain the buffer themselves.
+     */
+    public boolean process(F frame, long captureNanos, FrameBuffer buffer) {
+        Worker[] workers = this.workers;
+        ResultResequencer<OutputData> resequencer = this.resequencer;
+        if(isRunning && !hasFailed && workers != null && resequencer != null) {
+            if (sessionClock.isSessionExpired(captureNanos)) {
+                reset();
+            }
+            if (isClockRebasePending) {
+                isClockRebasePending = false;
+                sessionClock.rebase(captureNanos);
+                lastSdkTimestamp = -1f;
+            }
+            float timestamp = sessionClock.toSessionSeconds(captureNanos);
+            if (timestamp <= lastSdkTimestamp) {
+                return false;
+            }
+            if (!backpressurePolicy.isLossless() && !admissionController.admit(captureNanos)) {
+                return false;
+            }
+            lastSdkTimestamp = timestamp;
+            long nowNanos = SessionClock.nowNanos();
+            latencyStats.record(PipelineLatencyStats.Stage.CAMERA_TO_SUBMIT, captureNanos, nowNanos);
+            backpressurePolicy.framesOffered.incrementAndGet();
+            Worker worker = workers[nextWorker];
+            nextWorker = (nextWorker + 1) % workers.length;
+
+            InputData data = inputPool.acquire();
+            data.frame = frame;
+            data.timestamp = timestamp;
+            data.sequence = nextSequence++;
+            resequencer.begin(data.sequence);
+            data.captureNanos = captureNanos;
+            data.submitNanos = nowNanos;
+            long maxAgeNanos = maxFrameAgeNanos;
+            data.deadlineNanos = maxAgeNanos > 0 ? captureNanos + maxAgeNanos : Long.MAX_VALUE;
+            data.buffer = buffer;
+            if (buffer != null) {
+                buffer.retain();
+            }
+            InputData dropped = worker.frameQueue.offer(data);
+            if (this.workers != workers) {
+                /*
+                 stop() or suspend() ran while the offer was blocked or in progress: the resequencer has been closed, and
+                 the queue may already have been emptied, so whatever is still in it, or was handed back, is let go here.
+                 */
+                if (dropped != null) {
+                    discardFrame(dropped);
+                }
+                InputData discarded;
+                while ((discarded = worker.frameQueue.poll()) != null) {
+                    discardFrame(discarded);
+                }
+                return false;
+            }
+            if (dropped != data) {
+                backpressurePolicy.framesEnqueued.incrementAndGet();
+                worker.signalFrameAvailable();
+            }
+            if (dropped != null) {
+                dropFrame(dropped, resequencer);
+            }
+            return dropped != data;
+        }
+        return false;
+    }
+
+    /**
+     * Delivers the results of the most recently processed frame again, for a frame which was found to be unchanged since,
+     * instead of processing it. Listeners receive the given frame and capture time with those results. Nothing is
+     * delivered if there are no results yet, or if frames are still being processed, since their results will be newer
+     * anyway. Returns whether results were delivered. Must be called from the same thread as process().
+     */
+    public boolean processUnchanged(F frame, long captureNanos, FrameBuffer buffer) {
+        R results = lastResults;
+        ResultResequencer<OutputData> resequencer = this.resequencer;
+        if (!isRunning || results == null || resequencer == null || resequencer.getWaitingCount() != 0) {
+            return false;
+        }
+        OutputData output = outputPool.acquire();
+        output.results = results;
+        output.frame = frame;
+        output.captureNanos = captureNanos;
+        output.detectEndNanos = SessionClock.nowNanos();
+        output.buffer = buffer;
+        if (buffer != null) {
+            buffer.retain();
+        }
+        output.isRepeat = true;
+        output.refCount.set(1);
+        framesRepeated.incrementAndGet();
+        //nothing is in flight, so this result is released right away, in order
+        long sequence = nextSequence++;
+        resequencer.begin(sequence);
+        if (!resequencer.complete(sequence, output)) {
+            releaseResult(output);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of frames for which processUnchanged() delivered earlier results again, since the last call to
+     * start().
+     */
+    public long getFramesRepeated() {
+        return framesRepeated.get();
+    }
+
+    /**
+     * Resets the engines, which forget the faces they were tracking, and discards the frames waiting to be processed.
+     */
+    public void reset() {
+        Worker[] workers = this.workers;
+        ResultResequencer<OutputData> resequencer = this.resequencer;
+        if (isRunning && workers != null && resequencer != null) {
+            lastResults = null;
+            isClockRebasePending = true;
+            for (Worker worker : workers) {
+                worker.resetDetector();
+                discardPendingFrames(worker, resequencer);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of frames passed to process() and admitted by the admission controller since the last call to start().
+     */
+    public long getFramesSubmitted() {
+        return backpressurePolicy.getFramesOffered();
+    }
+
+    /**
+     * Sets the maximum age, measured from capture, a frame may reach before an engine starts on it. Frames which are
+     * older by the time a worker gets to them are skipped, and counted by getFramesExpired(). 0, the default, means
+     * frames never expire. Applies to frames submitted from now on.
+     */
+    public void setMaxFrameAge(long maxAgeMillis) {
+        if (maxAgeMillis < 0) {
+            throw new IllegalArgumentException("maxAgeMillis must not be negative");
+        }
+        maxFrameAgeNanos = maxAgeMillis * 1000000L;
+    }
+
+    public long getMaxFrameAge() {
+        return maxFrameAgeNanos / 1000000L;
+    }
+
+    /**
+     * Returns the number of submitted frames skipped because they were past their deadline when a worker got to them.
+     * These are included in getFramesDropped().
+     */
+    public long getFramesExpired() {
+        return framesExpired.get();
+    }
+
+    /**
+     * Returns the number of submitted frames that were dropped by the BackpressurePolicy, discarded by reset() or stop(),
+     * expired, or taken while the engine was not running, and so never reached an engine.
+     */
+    public long getFramesDropped() {
+        return backpressurePolicy.getFramesDropped();
+    }
+
+    /**
+     * Returns the number of submitted frames that were handed to an engine.
+     */
+    public long getFramesProcessed() {
+        return backpressurePolicy.getFramesProcessed();
+    }
+
+    /**
+     * Sets how long a worker may go without answering a heartbeat, or keep processing frames without producing any
+     * results, before it is considered hung and replaced. Defaults to DEFAULT_WATCHDOG_TIMEOUT_MILLIS.
+     */
+    public void setWatchdogTimeout(long timeoutMillis) {
+        if (timeoutMillis <= 0) {
+            throw new IllegalArgumentException("timeoutMillis must be positive");
+        }
+        watchdogTimeoutNanos = timeoutMillis * 1000000L;
+    }
+
+    public long getWatchdogTimeout() {
+        return watchdogTimeoutNanos / 1000000L;
+    }
+
+    /**
+     * Sets the back-off before a worker which failed again soon after being restarted is restarted once more: initialMillis
+     * for the second restart in a row, doubling with every further one up to maxMillis. The first restart is immediate.
+     * Default to DEFAULT_INITIAL_RESTART_BACKOFF_MILLIS and DEFAULT_MAX_RESTART_BACKOFF_MILLIS.
+     */
+    public void setRestartBackoff(long initialMillis, long maxMillis) {
+        if (initialMillis <= 0 || maxMillis < initialMillis) {
+            throw new IllegalArgumentException("need 0 < initialMillis <= maxMillis");
+        }
+        initialRestartBackoffNanos = initialMillis * 1000000L;
+        maxRestartBackoffNanos = maxMillis * 1000000L;
+    }
+
+    /**
+     * Sets how many times in a row a worker may be restarted before the pipeline gives up and reports
+     * onDetectorFailed(). Defaults to DEFAULT_MAX_CONSECUTIVE_RESTARTS.
+     */
+    public void setMaxConsecutiveRestarts(int restarts) {
+        if (restarts < 0) {
+            throw new IllegalArgumentException("restarts must not be negative");
+        }
+        maxConsecutiveRestarts = restarts;
+    }
+
+    /**
+     * Returns whether the pipeline has given up on a worker whose engine kept failing, since the last call to start().
+     * It then ignores frames passed to process() until it is stopped and started again.
+     */
+    public boolean hasFailed() {
+        return hasFailed;
+    }
+
+    /**
+     * Returns the number of workers that have been replaced because their engine failed or hung, since this
+     * pipeline was created.
+     */
+    public long getWorkerRestarts() {
+        return workerRestarts.get();
+    }
+
+    /**
+     * Returns the total time, in milliseconds, workers spent down: from the moment a failure was detected, or a hung
+     * worker last showed signs of life, until its replacement's engine had started.
+     */
+    public long getWorkerDowntime() {
+        return workerDowntimeNanos.get() / 1000000L;
+    }
+
+    /*
+        Runs on the main thread: replaces the workers which have failed or hung, and sends the others a heartbeat.
+     */
+    void superviseWorkers() {
+        Worker[] workers = this.workers;
+        ResultResequencer<OutputData> resequencer = this.resequencer;
+        if (!isRunning || hasFailed || workers == null || resequencer == null) {
+            return;
+        }
+        long nowNanos = SessionClock.nowNanos();
+        long timeoutNanos = watchdogTimeoutNanos;
+        long nextRestartNanos = Long.MAX_VALUE;
+        for (int i = 0; i < workers.length; i++) {
+            Worker worker = workers[i];
+            String reason = null;
+            long downSinceNanos = 0;
+            if (worker.isFailed) {
+                reason = "its engine failed";
+                downSinceNanos = worker.failedNanos;
+            } else if (worker.isHeartbeatPending && nowNanos - worker.heartbeatSentNanos > timeoutNanos) {
+                reason = "it stopped answering heartbeats";
+                downSinceNanos = worker.heartbeatSentNanos;
+            } else if (worker.lastProcessedNanos - worker.lastResultNanos > timeoutNanos) {
+                reason = "it stopped producing results";
+                downSinceNanos = worker.lastResultNanos;
+            } else if (!worker.isHeartbeatPending) {
+                worker.sendHeartbeat(nowNanos);
+            }
+            if (reason == null) {
+                continue;
+            }
+            if (worker.restartCount > 0 && nowNanos - worker.restartNotBeforeNanos < 0) {
+                nextRestartNanos = Math.min(nextRestartNanos, worker.restartNotBeforeNanos);
+            } else if (!restartWorker(workers, resequencer, i, downSinceNanos, reason, nowNanos)) {
+                return;
+            }
+        }
+        if (nextRestartNanos != Long.MAX_VALUE) {
+            mainLoop.removeCallbacks(restartDueRunnable);
+            mainLoop.postDelayed(restartDueRunnable, (nextRestartNanos - nowNanos + 999999L) / 1000000L);
+        }
+    }
+
+    /*
+        Replaces a failed or hung worker, and returns true; or gives up on the pipeline if the worker has been restarted
+        too many times in a row already, and returns false.
+     */
+    private boolean restartWorker(Worker[] workers, ResultResequencer<OutputData> resequencer, int index,
+                                  long downSinceNanos, String reason, long nowNanos) {
+        Worker abandoned = workers[index];
+        if (abandoned.isRecovering) {
+            //the replacement failed before it came up, so the worker has been down since the original failure
+            downSinceNanos = abandoned.downSinceNanos;
+        }
+        //a worker which ran healthily for long enough since its last restart starts over with an immediate restart
+        int restartCount = downSinceNanos - abandoned.restartedNanos > HEALTHY_RUN_MILLIS * 1000000L
+                ? 0 : abandoned.restartCount;
+        abandoned.abandon();
+        InputData stuck = abandoned.currentInput.getAndSet(null);
+        if (stuck != null) {
+            //the abandoned thread still owns the InputData itself, and recycles it if it ever returns
+            resequencer.skip(stuck.sequence);
+            releaseBuffer(stuck.buffer);
+        }
+        if (restartCount >= maxConsecutiveRestarts) {
+            giveUp(workers, resequencer, abandoned.getName() + " kept failing, last because " + reason);
+            return false;
+        }
+        eventLog.error("Restarting " + abandoned.getName() + " because " + reason);
+
+        Worker replacement = new Worker(abandoned.getName(), resequencer, abandoned.frameQueue);
+        replacement.isRecovering = true;
+        replacement.downSinceNanos = downSinceNanos;
+        replacement.isStartCounted = abandoned.isStartCounted;
+        replacement.restartCount = restartCount + 1;
+        replacement.restartedNanos = nowNanos;
+        replacement.restartNotBeforeNanos = nowNanos + restartBackoffNanos(replacement.restartCount);
+        replacement.start();
+        replacement.startDetector();
+        workers[index] = replacement;
+        workerRestarts.incrementAndGet();
+        if (this.workers != workers && parkedWorkers != workers) {
+            //stop() ran in the meantime, on another thread, and did not see the replacement
+            replacement.stopDetector();
+        } else if (!replacement.frameQueue.isEmpty()) {
+            replacement.signalFrameAvailable();
+        }
+        return true;
+    }
+
+    /*
+        Returns how long to wait after the given restart in a row, should the worker fail again, before the next one.
+     */
+    private long restartBackoffNanos(int restartCount) {
+        long backoffNanos = initialRestartBackoffNanos;
+        for (int i = 1; i < restartCount && backoffNanos < maxRestartBackoffNanos; i++) {
+            backoffNanos *= 2;
+        }
+        return Math.min(backoffNanos, maxRestartBackoffNanos);
+    }
+
+    /*
+        Stops feeding frames to the workers, which are left running until stop(), and tells the listeners.
+     */
+    private void giveUp(Worker[] workers, ResultResequencer<OutputData> resequencer, String reason) {
+        eventLog.error("Giving up on the detector: " + reason);
+        hasFailed = true;
+        mainLoop.removeCallbacks(restartDueRunnable);
+        for (Worker worker : workers) {
+            worker.frameQueue.abandonWaiters();
+            discardPendingFrames(worker, resequencer);
+        }
+        dispatchDetectorFailed();
+    }
+
+    private void discardPendingFrames(Worker worker, ResultResequencer<OutputData> resequencer) {
+        InputData discarded;
+        while ((discarded = worker.frameQueue.poll()) != null) {
+            dropFrame(discarded, resequencer);
+        }
+    }
+
+    /*
+        Counts a frame as dropped, lets the resequencer know that no result will arrive for it, and gives up the frame's buffer.
+     */
+    void dropFrame(InputData data, ResultResequencer<OutputData> resequencer) {
+        resequencer.skip(data.sequence);
+        discardFrame(data);
+    }
+
+    /*
+        Counts a frame as dropped and gives up its buffer, without reporting it to a resequencer, which has been closed.
+     */
+    void discardFrame(InputData data) {
+        backpressurePolicy.framesDropped.incrementAndGet();
+        releaseBuffer(data.buffer);
+        recycleInput(data);
+    }
+
+    static void releaseBuffer(FrameBuffer buffer) {
+        if (buffer != null) {
+            buffer.release();
+        }
+    }
+
+    void recycleInput(InputData data) {
+        data.frame = null;
+        data.buffer = null;
+        inputPool.recycle(data);
+    }
+
+    void retainResult(OutputData data) {
+        data.refCount.incrementAndGet();
+    }
+
+    /*
+        Gives up a reference to a result. The last one releases the result's buffer and recycles the result.
+     */
+    void releaseResult(OutputData data) {
+        int count = data.refCount.decrementAndGet();
+        if (count == 0) {
+            releaseBuffer(data.buffer);
+            data.results = null;
+            data.frame = null;
+            data.buffer = null;
+            data.isRepeat = false;
+            outputPool.recycle(data);
+        } else if (count < 0) {
+            throw new IllegalStateException("OutputData released more times than it was retained");
+        }
+    }
+
+    /*
+        Called in COALESCED_VSYNC mode, on whichever thread released the result. Replaces any result still waiting for
+        delivery, and makes sure a delivery is scheduled.
+     */
+    void coalesceResult(OutputData result) {
+        OutputData replaced = latestResult.getAndSet(result);
+        if (replaced != null) {
+            resultsCoalesced.incrementAndGet();
+            releaseResult(replaced);
+        }
+        if (deliveryScheduled.compareAndSet(false, true)) {
+            mainLoop.sendMessageAtNextFrame(MainLoopCallback.LATEST_FRAME_READY);
+        }
+    }
+
+    /*
+        Runs on the main loop, once per display frame while results are coming in.
+     */
+    void deliverLatestResult() {
+        deliveryScheduled.set(false);
+        OutputData result = latestResult.getAndSet(null);
+        if (result != null) {
+            sendOnImageResultsEvent(result);
+        }
+    }
+
+    /*
+        Hands a released result to every listener added with an executor. Called under the resequencer lock, so results
+        are submitted to each executor in order. DETECTOR_THREAD listeners are called directly; every other executor is
+        handed the result's DispatchTask for the registration, which is reused along with the result.
+     */
+    void dispatchToRegistrations(OutputData data) {
+        ListenerRegistration[] registrations = this.registrations;
+        for (int i = 0; i < registrations.length; i++) {
+            ListenerRegistration registration = registrations[i];
+            if (registration.executor == DETECTOR_THREAD) {
+                registration.listener.onImageResults(data.results, data.frame, data.captureNanos);
+                continue;
+            }
+            DispatchTask task = getDispatchTask(data, i, registrations.length);
+            task.registration = registration;
+            retainResult(data);
+            try {
+                registration.executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                eventLog.error("Executor rejected detector results: " + e.getMessage());
+                releaseResult(data);
+            }
+        }
+    }
+
+    //the task handing data to the registration at index i, made the first time the result has that many registrations
+    private DispatchTask getDispatchTask(OutputData data, int i, int registrationCount) {
+        if (i >= data.dispatchTasks.length) {
+            data.dispatchTasks = Arrays.copyOf(data.dispatchTasks, registrationCount);
+        }
+        DispatchTask task = data.dispatchTasks[i];
+        if (task == null) {
+            task = new DispatchTask(data);
+            data.dispatchTasks[i] = task;
+        }
+        return task;
+    }
+
+    /*
+        Called on the detector thread once every worker has started. Listeners added with an executor are notified through
+        it, and the main loop listener through the main loop.
+     */
+    void dispatchDetectorStarted() {
+        ListenerRegistration[] registrations = this.registrations;
+        for (int i = 0; i < registrations.length; i++) {
+            ListenerRegistration registration = registrations[i];
+            try {
+                registration.executor.execute(registration.startedTask);
+            } catch (RejectedExecutionException e) {
+                eventLog.error("Executor rejected detector start event: " + e.getMessage());
+            }
+        }
+        mainLoop.sendMessage(MainLoopCallback.DETECTOR_STARTED, null);
+    }
+
+    /*
+        Called on the main loop when the pipeline gives up. Notifies the listeners the same way as dispatchDetectorStarted().
+     */
+    void dispatchDetectorFailed() {
+        ListenerRegistration[] registrations = this.registrations;
+        for (int i = 0; i < registrations.length; i++) {
+            ListenerRegistration registration = registrations[i];
+            try {
+                registration.executor.execute(registration.failedTask);
+            } catch (RejectedExecutionException e) {
+                eventLog.error("Executor rejected detector failure event: " + e.getMessage());
+            }
+        }
+        mainLoop.sendMessage(MainLoopCallback.DETECTOR_FAILED, null);
+    }
+
+    /*
+        Notify our listener that FrameDetector start has completed.
+     */
+    private void sendDetectorStartedEvent() {
+        if (listener!= null) {
+            listener.onDetectorStarted();
+        }
+    }
+
+    /*
+        Notify our listener that the pipeline has given up.
+     */
+    private void sendDetectorFailedEvent() {
+        if (listener != null) {
+            listener.onDetectorFailed();
+        }
+    }
+
+    /*
+        Send processed frame data to our listener.
+     */
+    private void sendOnImageResultsEvent(OutputData data) {
+        if (!data.isRepeat) {
+            long nowNanos = SessionClock.nowNanos();
+            latencyStats.record(PipelineLatencyStats.Stage.DELIVERY, data.detectEndNanos, nowNanos);
+            latencyStats.record(PipelineLatencyStats.Stage.END_TO_END, data.captureNanos, nowNanos);
+        }
+        if (listener != null) {
+            listener.onImageResults(data.results,data.frame,data.captureNanos);
+        }
+        releaseResult(data);
+    }
+
+    /*
+        Handles a message sent to the main loop.
+     */
+    @SuppressWarnings("unchecked")
+    void handleMainLoopMessage(int what, Object obj) {
+        switch (what) {
+            case MainLoopCallback.DETECTOR_STARTED:
+                sendDetectorStartedEvent();
+                break;
+            case MainLoopCallback.FRAME_READY:
+                sendOnImageResultsEvent((OutputData) obj);
+                break;
+            case MainLoopCallback.LATEST_FRAME_READY:
+                deliverLatestResult();
+                break;
+            case MainLoopCallback.WORKER_FAILED:
+                superviseWorkers();
+                break;
+            case MainLoopCallback.DETECTOR_FAILED:
+                sendDetectorFailedEvent();
+                break;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Worker[] newWorkerArray(int length) {
+        return (Worker[]) new DetectorPipeline.Worker[length];
+    }
+
+    @SuppressWarnings("unchecked")
+    private ListenerRegistration[] newRegistrationArray(int length) {
+        return (ListenerRegistration[]) new DetectorPipeline.ListenerRegistration[length];
+    }
+
+    @SuppressWarnings("unchecked")
+    private DispatchTask[] newDispatchTaskArray(int length) {
+        return (DispatchTask[]) new DetectorPipeline.DispatchTask[length];
+    }
+
+    /**
+     * Since our main loop may outlive the pipeline, its callback is a static class which holds only a WeakReference to
+     * the pipeline, to avoid memory leaks.
+     */
+    static class MainLoopCallback implements MessageLoop.Callback {
+        final WeakReference<DetectorPipeline<?, ?>> weakReference;
+
+        public static final int FRAME_READY = 0;
+        public static final int DETECTOR_STARTED = 1;
+        public static final int LATEST_FRAME_READY = 2;
+        public static final int WORKER_FAILED = 3;
+        public static final int DETECTOR_FAILED = 4;
+
+        MainLoopCallback(DetectorPipeline<?, ?> pipeline) {
+            weakReference = new WeakReference<DetectorPipeline<?, ?>>(pipeline);
+        }
+
+        @Override
+        public void handleMessage(int what, Object obj) {
+            DetectorPipeline<?, ?> pipeline = weakReference.get();
+            if (pipeline != null) {
+                pipeline.handleMainLoopMessage(what, obj);
+            }
+        }
+    }
+
+    /**
+     * A background thread, which instantiates a DetectorEngine (normally FrameDetector) and drives it in response to the
+     * messages sent to its loop.
+     */
+    private class Worker implements MessageLoop.Callback {
+
+        final String name;
+        MessageLoop loop;
+        //cleared once the engine has stopped, so that a late failure report does not reach the main loop
+        volatile boolean isMainLoopAttached = true;
+
+        DetectorEngine<F, R> detector;
+
+        final FrameQueue<InputData> frameQueue;
+        final AtomicBoolean wakeUpPending = new AtomicBoolean();
+
+        /*
+         Replaced when the worker is resumed after a suspend(). Only read and written on this thread, so a frame still
+         being processed when the worker was suspended reports to the old, closed resequencer.
+         */
+        ResultResequencer<OutputData> resequencer;
+
+        /*
+         The frame the engine is currently processing. The engine delivers its results synchronously from within
+         process(), so this is how the results are matched back up with the sequence number of the frame. Whoever takes
+         the frame out of here reports it to the resequencer: normally this thread, but the supervisor if it abandons
+         the worker while the engine is stuck on the frame.
+         */
+        final AtomicReference<InputData> currentInput = new AtomicReference<>();
+
+        //supervision state, written by this thread and read by the supervisor on the main loop, or the other way round
+        volatile boolean isAbandoned;
+        volatile boolean isFailed;
+        volatile long failedNanos;
+        volatile boolean isHeartbeatPending;
+        volatile long heartbeatSentNanos;
+        volatile long lastProcessedNanos;
+        volatile long lastResultNanos;
+
+        //set on a replacement worker until its engine has started, along with when the worker it replaces went down
+        volatile boolean isRecovering;
+        volatile long downSinceNanos;
+
+        //whether this worker, or the one it replaced, has counted towards onDetectorStarted() yet
+        volatile boolean isStartCounted;
+
+        //restart bookkeeping, only touched by the supervisor: restarts in a row up to this worker, and when it was started
+        int restartCount;
+        long restartedNanos;
+        long restartNotBeforeNanos;
+
+        //Incoming message codes
+        public static final int START_DETECTOR = 0;
+        public static final int PROCESS_FRAME = 1;
+        public static final int STOP_DETECTOR = 2;
+        public static final int RESET_DETECTOR = 3;
+        public static final int RESUME_DETECTOR = 4;
+        public static final int HEARTBEAT = 5;
+
+        Worker(String name, ResultResequencer<OutputData> resequencer, FrameQueue<InputData> frameQueue) {
+            this.name = name;
+            this.resequencer = resequencer;
+            this.frameQueue = frameQueue;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        /**
+         * Starts the worker's thread. startLoop() blocks until the loop is ready to take messages, which ensures that
+         * loop is not null in any of the methods below.
+         */
+        void start() {
+            loop = loopFactory.startLoop(name, this);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void handleMessage(int what, Object obj) {
+            switch (what) {
+                case START_DETECTOR:
+                    startDetectorAsync();
+                    break;
+                case PROCESS_FRAME:
+                    wakeUpPending.set(false);
+                    if (isAbandoned || isFailed) {
+                        //the frames are left in the queue for the replacement worker
+                        break;
+                    }
+                    InputData data = frameQueue.poll();
+                    if (data != null) {
+                        detectFrameAsync(data);
+                    }
+                    if (!frameQueue.isEmpty()) {
+                        signalFrameAvailable();
+                    }
+                    break;
+                case STOP_DETECTOR:
+                    stopDetectorAsync();
+                    isMainLoopAttached = false;
+                    detector = null;
+                    eventLog.info(name + ": quitting thread");
+                    loop.quit();
+                    break;
+                case RESET_DETECTOR:
+                    resetDetectorAsync();
+                    break;
+                case RESUME_DETECTOR:
+                    resumeDetectorAsync((ResultResequencer<OutputData>) obj);
+                    break;
+                case HEARTBEAT:
+                    isHeartbeatPending = false;
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        /**
+         * When resetting or stopping the detector, we don't want our command to have to wait for messages in front of it to
+         * finish processing, so we purge any non-critical messages, namely PROCESS_FRAME and RESET_DETECTOR.
+         */
+        private void emptyQueue() {
+            loop.removeMessages(PROCESS_FRAME);
+            loop.removeMessages(RESET_DETECTOR);
+            wakeUpPending.set(false);
+        }
+
+        public void startDetector() {
+            loop.sendMessage(START_DETECTOR, null);
+        }
+
+        public void stopDetector() {
+            emptyQueue();
+            loop.sendMessage(STOP_DETECTOR, null);
+        }
+
+        /**
+         * Wakes the thread up to take the next frame out of its queue. At most one wake-up is queued at a time; the thread
+         * queues another itself if frames remain after it has processed one.
+         */
+        public void signalFrameAvailable() {
+            if (wakeUpPending.compareAndSet(false, true)) {
+                loop.sendMessage(PROCESS_FRAME, null);
+            }
+        }
+
+        public void resetDetector() {
+            emptyQueue();
+            loop.sendMessage(RESET_DETECTOR, null);
+        }
+
+        /**
+         * Stops taking frames out of the queue, while leaving the engine running.
+         */
+        public void suspendDetector() {
+            emptyQueue();
+        }
+
+        public void sendHeartbeat(long nowNanos) {
+            heartbeatSentNanos = nowNanos;
+            isHeartbeatPending = true;
+            loop.sendMessage(HEARTBEAT, null);
+        }
+
+        /**
+         * Gives up on this worker: it stops taking frames, and stops its engine and quits if it ever gets to do so.
+         */
+        public void abandon() {
+            isAbandoned = true;
+            stopDetector();
+        }
+
+        /*
+            Called on this thread. The supervisor is told right away rather than at its next check.
+         */
+        private void markFailed(String reason) {
+            eventLog.error(name + ": " + reason);
+            if (!isFailed) {
+                failedNanos = SessionClock.nowNanos();
+                isFailed = true;
+                if (isMainLoopAttached) {
+                    mainLoop.sendMessage(MainLoopCallback.WORKER_FAILED, null);
+                }
+            }
+        }
+
+        public void resumeDetector(ResultResequencer<OutputData> resequencer) {
+            loop.sendMessage(RESUME_DETECTOR, resequencer);
+        }
+
+        private void resumeDetectorAsync(ResultResequencer<OutputData> resequencer) {
+            this.resequencer = resequencer;
+            resetDetectorAsync();
+            if (workersStarted.incrementAndGet() == workerCount) {
+                dispatchDetectorStarted();
+            }
+        }
+
+        private void startDetectorAsync() {
+
+            try {
+                detector = engineFactory.create();
+            } catch (Exception e) {
+                markFailed("Could not create engine: " + e);
+                return;
+            }
+            detector.setResultListener(new DetectorEngine.ResultListener<F, R>() {
+                @Override
+                public void onResults(R results, F frame, float timeStamp) {
+                    InputData input = currentInput.getAndSet(null);
+                    if (input != null) {
+                        lastResultNanos = SessionClock.nowNanos();
+                        OutputData output = outputPool.acquire();
+                        output.results = results;
+                        output.frame = input.frame;
+                        output.captureNanos = input.captureNanos;
+                        output.detectEndNanos = SessionClock.nowNanos();
+                        output.buffer = input.buffer; //the input's reference to the buffer passes to the output
+                        output.refCount.set(1);
+                        if (!resequencer.complete(input.sequence, output)) {
+                            //the resequencer had already given up on this frame, so the result will never be delivered
+                            releaseResult(output);
+                        }
+                    }
+                }
+            });
+
+            try {
+                detector.start();
+            } catch (Exception e) {
+                markFailed("Engine failed to start: " + e);
+                return;
+            }
+            if (!detector.isRunning()) {
+                markFailed("Engine did not start");
+                return;
+            }
+
+            long nowNanos = SessionClock.nowNanos();
+            lastProcessedNanos = nowNanos;
+            lastResultNanos = nowNanos;
+            if (isRecovering) {
+                isRecovering = false;
+                workerDowntimeNanos.addAndGet(nowNanos - downSinceNanos);
+                eventLog.info(name + " recovered");
+            }
+            if (!isStartCounted) {
+                isStartCounted = true;
+                if (workersStarted.incrementAndGet() == workerCount) {
+                    dispatchDetectorStarted();
+                }
+            }
+        }
+
+        public void stopDetectorAsync() {
+            if (detector == null) {
+                return;
+            }
+            detector.setResultListener(null);
+            try {
+                detector.stop();
+            } catch (Exception e) {
+                eventLog.error(String.valueOf(e.getMessage()));
+            }
+        }
+
+        void detectFrameAsync(InputData data) {
+            long startNanos = SessionClock.nowNanos();
+            if (startNanos > data.deadlineNanos) {
+                framesExpired.incrementAndGet();
+                dropFrame(data, resequencer);
+            } else if (detector.isRunning()) {
+                backpressurePolicy.framesProcessed.incrementAndGet();
+                currentInput.set(data);
+                latencyStats.record(PipelineLatencyStats.Stage.QUEUE_WAIT, data.submitNanos, startNanos);
+                try {
+                    detector.process(data.frame, data.timestamp);
+                } catch (Exception e) {
+                    markFailed("Engine failed processing a frame: " + e);
+                }
+                long endNanos = SessionClock.nowNanos();
+                if (!isAbandoned) {
+                    //a worker that was given up on as hung would only skew the service time estimate
+                    lastProcessedNanos = endNanos;
+                    latencyStats.record(PipelineLatencyStats.Stage.DETECT, startNanos, endNanos);
+                    admissionController.recordServiceTime(endNanos - startNanos);
+                }
+                if (currentInput.getAndSet(null) != null) {
+                    //the engine returned no results for this frame
+                    resequencer.skip(data.sequence);
+                    releaseBuffer(data.buffer);
+                }
+                recycleInput(data);
+            } else {
+                dropFrame(data, resequencer);
+                markFailed("Engine is no longer running");
+            }
+        }
+
+        void resetDetectorAsync() {
+            if (isFailed) {
+                return;
+            }
+            try {
+                if (detector.isRunning()) {
+                    detector.reset();
+                }
+            } catch (Exception e) {
+                markFailed("Engine failed to reset: " + e);
+                return;
+            }
+            eventLog.info("Detector reset");
+        }
+
+    }
+
+    class ListenerRegistration {
+        final Listener<F, R> listener;
+        final Executor executor;
+
+        //handed to the executor for the start and failure events, made once rather than for every event
+        final Runnable startedTask;
+        final Runnable failedTask;
+
+        ListenerRegistration(final Listener<F, R> listener, Executor executor) {
+            this.listener = listener;
+            this.executor = executor;
+            startedTask = new Runnable() {
+                @Override
+                public void run() {
+                    listener.onDetectorStarted();
+                }
+            };
+            failedTask = new Runnable() {
+                @Override
+                public void run() {
+                    listener.onDetectorFailed();
+                }
+            };
+        }
+    }
+
+    /*
+     Calls one listener added with an executor with a result, then gives up the reference taken for it. Once given up, the
+     result may be recycled and handed out again, so nothing of the task may be touched after releaseResult().
+     */
+    class DispatchTask implements Runnable {
+        final OutputData data;
+        ListenerRegistration registration;
+
+        DispatchTask(OutputData data) {
+            this.data = data;
+        }
+
+        @Override
+        public void run() {
+            try {
+                registration.listener.onImageResults(data.results, data.frame, data.captureNanos);
+            } finally {
+                releaseResult(data);
+            }
+        }
+    }
+
+    class InputData {
+        public F frame;
+        public float timestamp; //seconds since the SessionClock origin, as passed to the engine
+        public long sequence;
+
+        //SessionClock.nowNanos() stamps for latency statistics
+        public long captureNanos;
+        public long submitNanos;
+
+        //SessionClock.nowNanos() time after which the frame is no longer worth processing
+        public long deadlineNanos;
+
+        //the camera buffer holding the frame's data, retained until the frame is dropped or its result delivered
+        public FrameBuffer buffer;
+
+    }
+
+    class OutputData {
+        public R results;
+        public F frame;
+
+        //SessionClock.nowNanos() stamps for latency statistics
+        public long captureNanos;
+        public long detectEndNanos;
+
+        public FrameBuffer buffer;
+
+        //true for results delivered again by processUnchanged()
+        public boolean isRepeat;
+
+        //one reference for the delivery to the main loop listener, plus one per executor it is handed to
+        final AtomicInteger refCount = new AtomicInteger();
+
+        //a task per registration, by index, reused whenever the result is, so that dispatching allocates nothing
+        DispatchTask[] dispatchTasks = newDispatchTaskArray(0);
+    }
+
+}
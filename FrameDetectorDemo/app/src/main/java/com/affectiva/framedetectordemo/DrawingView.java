@@ -22,6 +22,9 @@ import com.affectiva.android.affdex.sdk.detector.Face;
 /**
  * This class contains a SurfaceView and its own thread that draws to it.
  * It is used to display the facial tracking dots over a user's face.
+ *
+ * It is laid out over the whole CameraView, which fits the camera preview into itself and centers it, so points are
+ * mapped into the same centered rectangle. While there is no face to draw, the thread leaves the cleared surface alone.
  */
 public class DrawingView extends SurfaceView implements SurfaceHolder.Callback {
 
@@ -31,9 +34,14 @@ public class DrawingView extends SurfaceView implements SurfaceHolder.Callback {
         private Paint circlePaint;
         private Paint boxPaint;
         private boolean stopFlag = false; //boolean to indicate when thread has been told to stop
-        private PointF[] nextPointsToDraw = null; //holds a reference to the most recent set of points returned by CameraDetector, passed in by main thread
         private DrawingViewConfig config;
-        private final long drawPeriod = 33; //draw at 30 fps
+        private final long drawPeriod = 16; //draw at 60 fps
+
+        //tracks the points of detector results, which arrive at the detector's frame rate, and predicts them in between
+        private final LandmarkPredictor predictor = new LandmarkPredictor();
+        private float[] resultPoints = new float[0]; //only used by the thread reporting results
+        private float[] predictedPoints = new float[0]; //only used by the drawing thread
+        private boolean isCanvasClear = false; //whether the last frame drawn was empty, so there is no need to draw another
 
         private final int TEXT_RAISE = 10;
 
@@ -82,9 +90,16 @@ public class DrawingView extends SurfaceView implements SurfaceHolder.Callback {
             return stopFlag;
         }
 
-        //Updates thread with latest points returned by the onImageResults() event.
-        public void updatePoints(PointF[] pointList) {
-            nextPointsToDraw = pointList;
+        //Updates thread with latest points returned by the onImageResults() event, for a frame captured at timestampNanos.
+        public void updatePoints(PointF[] pointList, long timestampNanos) {
+            if (resultPoints.length < 2 * pointList.length) {
+                resultPoints = new float[2 * pointList.length];
+            }
+            for (int i = 0; i < pointList.length; i++) {
+                resultPoints[2 * i] = pointList[i].x;
+                resultPoints[2 * i + 1] = pointList[i].y;
+            }
+            predictor.update(resultPoints, pointList.length, timestampNanos);
         }
 
         void setThickness(int thickness) {
@@ -93,18 +108,56 @@ public class DrawingView extends SurfaceView implements SurfaceHolder.Callback {
 
         //Inform thread face detection has stopped, so array of points is no longer valid.
         public void invalidatePoints() {
-            nextPointsToDraw = null;
+            predictor.reset();
         }
 
         @Override
         public void run() {
             android.os.Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
 
+            while (!stopFlag) {
+                long startTime = SystemClock.elapsedRealtime();
+
+                //predict where the points are now, rather than draw the last result until the next one arrives
+                int pointCount = predictor.getPointCount();
+                if (predictedPoints.length < 2 * pointCount) {
+                    predictedPoints = new float[2 * pointCount];
+                }
+                pointCount = predictor.predict(SessionClock.nowNanos(), predictedPoints);
+
+                if (pointCount > 0 || !isCanvasClear) {
+                    Canvas c = null;
+                    try {
+                        c = mSurfaceHolder.lockCanvas();
+                        if (c != null) {
+                            synchronized (mSurfaceHolder) {
+                                c.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+                                if (pointCount > 0) {
+                                    draw(c, predictedPoints, pointCount);
+                                }
+                            }
+                            isCanvasClear = pointCount == 0;
+                        }
+                    } finally {
+                        if (c != null) {
+                            mSurfaceHolder.unlockCanvasAndPost(c);
+                        }
+                    }
+                }
+
+                long sleepTime = drawPeriod - (SystemClock.elapsedRealtime() - startTime);
+                if (sleepTime > 0) {
+                    try {
+                        Thread.sleep(sleepTime);
+                    } catch (InterruptedException e) {
+                        Log.e(LOG_TAG, e.getMessage());
+                    }
+                }
+            }
         }
 
-        void draw(Canvas c) {
-            //Save our own reference to the list of points, in case the previous reference is overwritten by the main thread.
-            PointF[] points = nextPointsToDraw;
+        //points holds pointCount points as interleaved x, y coordinates
+        void draw(Canvas c, float[] points, int pointCount) {
 
             //Coordinates around which to draw bounding box.
             float leftBx = config.surfaceViewWidth;
@@ -112,12 +165,13 @@ public class DrawingView extends SurfaceView implements SurfaceHolder.Callback {
             float topBx = config.surfaceViewHeight;
             float botBx = 0;
 
-            for (int i = 0; i < points.length; i++) {
+            for (int i = 0; i < pointCount; i++) {
 
                 //transform from the camera coordinates to our screen coordinates
-                //The camera preview is displayed as a mirror, so X pts have to be mirrored back.
-                float x = (config.imageWidth - points[i].x - 1) * config.screenToImageRatio;
-                float y = (points[i].y)* config.screenToImageRatio;
+                //The front camera preview is displayed as a mirror, so X pts have to be mirrored back.
+                float imageX = config.isMirrored ? config.imageWidth - points[2 * i] - 1 : points[2 * i];
+                float x = config.offsetX + imageX * config.screenToImageRatio;
+                float y = config.offsetY + points[2 * i + 1] * config.screenToImageRatio;
 
                 //We determine the left-most, top-most, right-most, and bottom-most points to draw the bounding box around.
                 if (x < leftBx)
@@ -179,6 +233,9 @@ public class DrawingView extends SurfaceView implements SurfaceHolder.Callback {
         private int surfaceViewWidth = 0;
         private int surfaceViewHeight = 0;
         private float screenToImageRatio = 0;
+        private float offsetX = 0; //where the image, fitted into the view and centered, starts
+        private float offsetY = 0;
+        private boolean isMirrored = true; //by default, the front camera's mirrored preview
         private int drawThickness = 0;
         private boolean isImageDimensionsNeeded = true;
         private boolean isSurfaceViewDimensionsNeeded = true;
@@ -206,7 +263,7 @@ public class DrawingView extends SurfaceView implements SurfaceHolder.Callback {
             imageWidth = w;
             imageHeight = h;
             if (!isSurfaceViewDimensionsNeeded) {
-                screenToImageRatio = (float)surfaceViewWidth / (float)imageWidth;
+                fitImage();
             }
             isImageDimensionsNeeded = false;
         }
@@ -220,11 +277,19 @@ public class DrawingView extends SurfaceView implements SurfaceHolder.Callback {
             surfaceViewWidth = w;
             surfaceViewHeight = h;
             if (!isImageDimensionsNeeded) {
-                screenToImageRatio = (float)surfaceViewWidth / (float)imageWidth;
+                fitImage();
             }
             isSurfaceViewDimensionsNeeded = false;
         }
 
+        //the largest scale at which the whole image fits into the view, as CameraView does with the preview
+        private void fitImage() {
+            screenToImageRatio = Math.min((float)surfaceViewWidth / (float)imageWidth,
+                    (float)surfaceViewHeight / (float)imageHeight);
+            offsetX = (surfaceViewWidth - imageWidth * screenToImageRatio) / 2f;
+            offsetY = (surfaceViewHeight - imageHeight * screenToImageRatio) / 2f;
+        }
+
         public void setDrawThickness(int t) {
 
             if ( t <= 0) {
@@ -298,6 +363,7 @@ public class DrawingView extends SurfaceView implements SurfaceHolder.Callback {
 
     @Override
     public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+        updateSurfaceViewDimensions(width, height);
     }
 
     @Override
@@ -368,12 +434,28 @@ public class DrawingView extends SurfaceView implements SurfaceHolder.Callback {
         return drawingViewConfig.isDrawMeasurementsEnabled;
     }
 
+    /**
+     * Sets whether points are mirrored horizontally, as they must be over the front camera's mirrored preview.
+     */
+    public void setMirrored(boolean b) {
+        drawingViewConfig.isMirrored = b;
+    }
+
     public void setMetrics(float roll, float yaw, float pitch, float interOcDis, float valence) {
         drawingThread.setMetrics(roll,yaw,pitch,interOcDis,valence);
     }
 
     public void updatePoints(PointF[] points) {
-        drawingThread.updatePoints(points);
+        drawingThread.updatePoints(points, SessionClock.nowNanos());
+    }
+
+    /**
+     * Updates the points to draw with those of a result for a frame captured at timestampNanos, in SessionClock.nowNanos()
+     * time, as passed to AsyncFrameDetector.OnDetectorEventListener.onImageResults(). Between results, the points are
+     * drawn where they are predicted to be.
+     */
+    public void updatePoints(PointF[] points, long timestampNanos) {
+        drawingThread.updatePoints(points, timestampNanos);
     }
 
     public void invalidatePoints(){
@@ -0,0 +1,127 @@
+package com.affectiva.framedetectordemo;
+
+/**
+ * Decides which region of each camera frame is worth handing to the detector, from where faces were found in earlier
+ * frames.
+ *
+ * The region is the bounding box of the faces, grown by a margin on every side so that a face can move between frames
+ * without leaving it. It is only moved when the faces get close to its edge or change size substantially, and its size is
+ * rounded up to a multiple of SIZE_QUANTUM, so that for a roughly still face the detector sees a steady image. Every
+ * fullFrameInterval frames, and whenever no face was found, the full frame is used instead, so that faces entering the
+ * frame elsewhere, or lost ones, are picked up.
+ *
+ * Coordinates are those of the upright frame. Thread safe: regions are typically requested on the camera thread and
+ * faces reported on a detector thread.
+ */
+class FaceRoiTracker {
+
+    //margin added on each side of the faces' bounding box, as a fraction of the box's size
+    static final float DEFAULT_MARGIN = 0.6f;
+    static final int DEFAULT_FULL_FRAME_INTERVAL = 30;
+
+    //a region covering more of the frame than this saves too little detector time to be worth the copy
+    static final float MAX_REGION_AREA_FRACTION = 0.6f;
+
+    static final int SIZE_QUANTUM = 32;
+
+    private final float margin;
+    private final int fullFrameInterval;
+
+    private boolean hasRegion = false;
+    private int left, top, right, bottom;
+    private int framesSinceFullFrame = 0;
+
+    FaceRoiTracker() {
+        this(DEFAULT_MARGIN, DEFAULT_FULL_FRAME_INTERVAL);
+    }
+
+    FaceRoiTracker(float margin, int fullFrameInterval) {
+        if (margin < 0f) {
+            throw new IllegalArgumentException("margin must not be negative");
+        }
+        if (fullFrameInterval < 1) {
+            throw new IllegalArgumentException("fullFrameInterval must be at least 1");
+        }
+        this.margin = margin;
+        this.fullFrameInterval = fullFrameInterval;
+    }
+
+    /**
+     * Returns false if the next frame should be processed in full, and otherwise true, with the region to crop it to
+     * written to out as {left, top, right, bottom}. The region's position and size are even.
+     */
+    synchronized boolean nextRegion(int[] out) {
+        if (!hasRegion) {
+            framesSinceFullFrame = 0;
+            return false;
+        }
+        framesSinceFullFrame += 1;
+        if (framesSinceFullFrame >= fullFrameInterval) {
+            framesSinceFullFrame = 0;
+            return false;
+        }
+        out[0] = left;
+        out[1] = top;
+        out[2] = right;
+        out[3] = bottom;
+        return true;
+    }
+
+    /**
+     * Reports the bounding box, in full frame coordinates, of the faces found in a frame of the given size.
+     */
+    synchronized void onFacesFound(float minX, float minY, float maxX, float maxY, int frameWidth, int frameHeight) {
+        float faceWidth = maxX - minX;
+        float faceHeight = maxY - minY;
+        int width = quantize(faceWidth * (1f + 2f * margin), frameWidth);
+        int height = quantize(faceHeight * (1f + 2f * margin), frameHeight);
+        if (width * height > MAX_REGION_AREA_FRACTION * frameWidth * frameHeight) {
+            hasRegion = false;
+            return;
+        }
+
+        if (hasRegion) {
+            //keep the current region while the faces are still well inside it, and it is not much too large for them
+            float innerMarginX = faceWidth * margin / 2f;
+            float innerMarginY = faceHeight * margin / 2f;
+            boolean isInside = minX - innerMarginX >= left && maxX + innerMarginX <= right
+                    && minY - innerMarginY >= top && maxY + innerMarginY <= bottom;
+            boolean isOversized = (right - left) * (bottom - top) > 2 * width * height;
+            if (isInside && !isOversized) {
+                return;
+            }
+        }
+
+        int centerX = Math.round((minX + maxX) / 2f);
+        int centerY = Math.round((minY + maxY) / 2f);
+        left = clamp((centerX - width / 2) & ~1, 0, frameWidth - width);
+        top = clamp((centerY - height / 2) & ~1, 0, frameHeight - height);
+        right = left + width;
+        bottom = top + height;
+        hasRegion = true;
+    }
+
+    /**
+     * Reports that no face was found in a frame, so the next one is processed in full.
+     */
+    synchronized void onFacesLost() {
+        hasRegion = false;
+    }
+
+    synchronized void reset() {
+        hasRegion = false;
+        framesSinceFullFrame = 0;
+    }
+
+    /*
+        Rounds a size up to a multiple of SIZE_QUANTUM, but no further than the (even) frame size.
+     */
+    private static int quantize(float size, int frameSize) {
+        int quantized = ((int) Math.ceil(size / SIZE_QUANTUM)) * SIZE_QUANTUM;
+        return Math.min(Math.max(quantized, SIZE_QUANTUM), frameSize & ~1);
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
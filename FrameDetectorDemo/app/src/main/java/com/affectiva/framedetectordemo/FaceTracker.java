@@ -0,0 +1,372 @@
+package com.affectiva.framedetectordemo;
+
+import android.graphics.PointF;
+
+/**
+ * Gives the faces in a stream of detector results stable IDs, so that a face keeps its ID from one result to the next
+ * however the detector happens to order the faces it finds, and a face that appears does not take over another's.
+ *
+ * The faces of each result are associated with those of earlier results by the overlap (intersection over union) of
+ * their landmark bounding boxes and by the mean distance between their landmarks, relative to the size of the face. A
+ * pair is a candidate if either is close enough, and candidates are matched greedily, best first. A face that matches
+ * nothing gets a new ID; IDs only ever increase, so the lowest ID in a result belongs to the face tracked longest. A face
+ * that is not found keeps its ID for maxMissingNanos, long enough to survive a turned head or a dropped result.
+ *
+ * State is kept in flat arrays allocated up front, grown only if faces come with more landmarks than before. Not thread
+ * safe; meant to be used on the thread results are delivered on. Use beginFrame(), then addFace() for each face of a
+ * result, then endFrame() to get their IDs.
+ */
+class FaceTracker {
+
+    static final int NO_FACE = -1;
+
+    static final int DEFAULT_MAX_FACES = 8;
+    static final float DEFAULT_MIN_OVERLAP = 0.2f;
+
+    //mean landmark distance below which faces are candidates, as a fraction of the diagonal of the tracked face's box
+    static final float DEFAULT_MAX_LANDMARK_DISTANCE = 0.3f;
+
+    static final long DEFAULT_MAX_MISSING_NANOS = 1000000000L;
+
+    private final int maxFaces;
+    private final int maxTracks;
+    private final float minOverlap;
+    private final float maxLandmarkDistance;
+    private final long maxMissingNanos;
+
+    //faces tracked so far: ID, bounding box as left, top, right, bottom, landmarks as interleaved x, y
+    private final int[] trackIds;
+    private final float[] trackBoxes;
+    private float[] trackPoints;
+    private final int[] trackPointCounts;
+    private final long[] trackLastSeenNanos;
+    private final boolean[] isTrackMatched;
+    private int trackCount = 0;
+    private int nextId = 0;
+
+    //the faces of the current result
+    private final float[] faceBoxes;
+    private float[] facePoints;
+    private final int[] facePointCounts;
+    private final int[] faceTracks;
+    private int faceCount = 0;
+    private int pointCapacity = 0;
+
+    //similarity of each face with each track, or NaN where they are not candidates
+    private final float[] similarities;
+
+    FaceTracker() {
+        this(DEFAULT_MAX_FACES, DEFAULT_MIN_OVERLAP, DEFAULT_MAX_LANDMARK_DISTANCE, DEFAULT_MAX_MISSING_NANOS);
+    }
+
+    FaceTracker(int maxFaces, float minOverlap, float maxLandmarkDistance, long maxMissingNanos) {
+        if (maxFaces < 1) {
+            throw new IllegalArgumentException("maxFaces must be at least 1");
+        }
+        if (minOverlap <= 0f || minOverlap > 1f) {
+            throw new IllegalArgumentException("minOverlap must be in (0, 1]");
+        }
+        if (maxLandmarkDistance < 0f) {
+            throw new IllegalArgumentException("maxLandmarkDistance must not be negative");
+        }
+        if (maxMissingNanos < 0) {
+            throw new IllegalArgumentException("maxMissingNanos must not be negative");
+        }
+        this.maxFaces = maxFaces;
+        this.minOverlap = minOverlap;
+        this.maxLandmarkDistance = maxLandmarkDistance;
+        this.maxMissingNanos = maxMissingNanos;
+
+        //room for every face of a result plus as many missing ones
+        maxTracks = 2 * maxFaces;
+        trackIds = new int[maxTracks];
+        trackBoxes = new float[4 * maxTracks];
+        trackPoints = new float[0];
+        trackPointCounts = new int[maxTracks];
+        trackLastSeenNanos = new long[maxTracks];
+        isTrackMatched = new boolean[maxTracks];
+        faceBoxes = new float[4 * maxFaces];
+        facePoints = new float[0];
+        facePointCounts = new int[maxFaces];
+        faceTracks = new int[maxFaces];
+        similarities = new float[maxFaces * maxTracks];
+    }
+
+    int getMaxFaces() {
+        return maxFaces;
+    }
+
+    /**
+     * Starts a new result.
+     */
+    void beginFrame() {
+        faceCount = 0;
+    }
+
+    /**
+     * Adds a face of the current result, given its landmarks. Faces without landmarks are not tracked and get NO_FACE,
+     * and faces beyond the first getMaxFaces() are ignored.
+     */
+    void addFace(PointF[] points) {
+        int count = points != null ? points.length : 0;
+        int base = prepareFace(count);
+        if (base < 0) {
+            return;
+        }
+        for (int i = 0; i < count; i++) {
+            facePoints[base + 2 * i] = points[i].x;
+            facePoints[base + 2 * i + 1] = points[i].y;
+        }
+        finishFace();
+    }
+
+    /**
+     * Adds a face of the current result, given count landmarks as interleaved x, y coordinates in xy.
+     */
+    void addFace(float[] xy, int count) {
+        int base = prepareFace(count);
+        if (base < 0) {
+            return;
+        }
+        System.arraycopy(xy, 0, facePoints, base, 2 * count);
+        finishFace();
+    }
+
+    //makes room for a face's points and returns where they go, or -1 if the face is not tracked
+    private int prepareFace(int count) {
+        if (faceCount == maxFaces) {
+            return -1;
+        }
+        if (count == 0) {
+            facePointCounts[faceCount] = 0;
+            faceCount += 1;
+            return -1;
+        }
+        if (count > pointCapacity) {
+            growPoints(count);
+        }
+        facePointCounts[faceCount] = count;
+        return faceCount * 2 * pointCapacity;
+    }
+
+    private void finishFace() {
+        int count = facePointCounts[faceCount];
+        int base = faceCount * 2 * pointCapacity;
+        float left = Float.MAX_VALUE;
+        float top = Float.MAX_VALUE;
+        float right = -Float.MAX_VALUE;
+        float bottom = -Float.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            float x = facePoints[base + 2 * i];
+            float y = facePoints[base + 2 * i + 1];
+            left = Math.min(left, x);
+            top = Math.min(top, y);
+            right = Math.max(right, x);
+            bottom = Math.max(bottom, y);
+        }
+        faceBoxes[4 * faceCount] = left;
+        faceBoxes[4 * faceCount + 1] = top;
+        faceBoxes[4 * faceCount + 2] = right;
+        faceBoxes[4 * faceCount + 3] = bottom;
+        faceCount += 1;
+    }
+
+    private void growPoints(int count) {
+        float[] grownFaces = new float[maxFaces * 2 * count];
+        float[] grownTracks = new float[maxTracks * 2 * count];
+        for (int i = 0; i < faceCount; i++) {
+            System.arraycopy(facePoints, i * 2 * pointCapacity, grownFaces, i * 2 * count,
+                    2 * facePointCounts[i]);
+        }
+        for (int i = 0; i < trackCount; i++) {
+            System.arraycopy(trackPoints, i * 2 * pointCapacity, grownTracks, i * 2 * count,
+                    2 * trackPointCounts[i]);
+        }
+        facePoints = grownFaces;
+        trackPoints = grownTracks;
+        pointCapacity = count;
+    }
+
+    /**
+     * Ends the current result, captured at timestampNanos, and writes the ID of each face, in the order they were added,
+     * to ids. Returns the number of faces, which is at most getMaxFaces().
+     */
+    int endFrame(long timestampNanos, int[] ids) {
+        if (ids.length < faceCount) {
+            throw new IllegalArgumentException("ids must have room for " + faceCount + " faces");
+        }
+        expireTracks(timestampNanos);
+
+        for (int t = 0; t < trackCount; t++) {
+            isTrackMatched[t] = false;
+        }
+        for (int f = 0; f < faceCount; f++) {
+            faceTracks[f] = -1;
+            for (int t = 0; t < trackCount; t++) {
+                similarities[f * maxTracks + t] = facePointCounts[f] > 0 ? similarity(f, t) : Float.NaN;
+            }
+        }
+
+        //greedy matching: the most similar pair of a face and a track that are both still unmatched, until none is left
+        while (true) {
+            int bestFace = -1;
+            int bestTrack = -1;
+            float best = Float.NEGATIVE_INFINITY;
+            for (int f = 0; f < faceCount; f++) {
+                if (faceTracks[f] >= 0) {
+                    continue;
+                }
+                for (int t = 0; t < trackCount; t++) {
+                    float s = similarities[f * maxTracks + t];
+                    if (!isTrackMatched[t] && s > best) {
+                        best = s;
+                        bestFace = f;
+                        bestTrack = t;
+                    }
+                }
+            }
+            if (bestFace < 0) {
+                break;
+            }
+            faceTracks[bestFace] = bestTrack;
+            isTrackMatched[bestTrack] = true;
+        }
+
+        //matched faces first, since making room for new tracks moves tracks around
+        for (int f = 0; f < faceCount; f++) {
+            int t = faceTracks[f];
+            if (t >= 0) {
+                updateTrack(t, f, timestampNanos);
+                ids[f] = trackIds[t];
+            }
+        }
+        for (int f = 0; f < faceCount; f++) {
+            if (facePointCounts[f] == 0) {
+                ids[f] = NO_FACE;
+            } else if (faceTracks[f] < 0) {
+                int t = newTrack();
+                updateTrack(t, f, timestampNanos);
+                ids[f] = trackIds[t];
+            }
+        }
+        return faceCount;
+    }
+
+    /**
+     * Forgets every face; those found from then on get new IDs.
+     */
+    void reset() {
+        trackCount = 0;
+        faceCount = 0;
+    }
+
+    /**
+     * Chooses which of the faces of a result to follow, such as the one whose scores are shown: the face followed so far,
+     * with ID currentId, if it is among them, and otherwise the one tracked longest. Returns NO_FACE if there are none.
+     */
+    static int chooseFace(int currentId, int[] ids, int count) {
+        int lowest = NO_FACE;
+        for (int i = 0; i < count; i++) {
+            if (ids[i] == NO_FACE) {
+                continue;
+            }
+            if (ids[i] == currentId) {
+                return currentId;
+            }
+            if (lowest == NO_FACE || ids[i] < lowest) {
+                lowest = ids[i];
+            }
+        }
+        return lowest;
+    }
+
+    //how alike face f and track t are, from 0 to 2, or NaN if they are too far apart to be the same face
+    private float similarity(int f, int t) {
+        float overlap = overlap(faceBoxes, 4 * f, trackBoxes, 4 * t);
+        float distance = Float.POSITIVE_INFINITY;
+        int count = facePointCounts[f];
+        if (count == trackPointCounts[t]) {
+            float width = trackBoxes[4 * t + 2] - trackBoxes[4 * t];
+            float height = trackBoxes[4 * t + 3] - trackBoxes[4 * t + 1];
+            float diagonal = (float) Math.sqrt(width * width + height * height);
+            if (diagonal > 0f) {
+                int faceBase = f * 2 * pointCapacity;
+                int trackBase = t * 2 * pointCapacity;
+                float sum = 0f;
+                for (int i = 0; i < 2 * count; i += 2) {
+                    float dx = facePoints[faceBase + i] - trackPoints[trackBase + i];
+                    float dy = facePoints[faceBase + i + 1] - trackPoints[trackBase + i + 1];
+                    sum += (float) Math.sqrt(dx * dx + dy * dy);
+                }
+                distance = sum / count / diagonal;
+            }
+        }
+        if (overlap < minOverlap && distance > maxLandmarkDistance) {
+            return Float.NaN;
+        }
+        return overlap + Math.max(0f, 1f - distance);
+    }
+
+    private static float overlap(float[] a, int i, float[] b, int j) {
+        float width = Math.min(a[i + 2], b[j + 2]) - Math.max(a[i], b[j]);
+        float height = Math.min(a[i + 3], b[j + 3]) - Math.max(a[i + 1], b[j + 1]);
+        if (width <= 0f || height <= 0f) {
+            return 0f;
+        }
+        float intersection = width * height;
+        float union = (a[i + 2] - a[i]) * (a[i + 3] - a[i + 1]) + (b[j + 2] - b[j]) * (b[j + 3] - b[j + 1])
+                - intersection;
+        return union > 0f ? intersection / union : 0f;
+    }
+
+    private void expireTracks(long timestampNanos) {
+        int t = 0;
+        while (t < trackCount) {
+            if (timestampNanos - trackLastSeenNanos[t] > maxMissingNanos) {
+                removeTrack(t);
+            } else {
+                t++;
+            }
+        }
+    }
+
+    //returns a free track with a new ID, making room by dropping the unmatched track seen longest ago if need be
+    private int newTrack() {
+        if (trackCount == maxTracks) {
+            int oldest = -1;
+            for (int t = 0; t < trackCount; t++) {
+                if (!isTrackMatched[t] && (oldest < 0 || trackLastSeenNanos[t] < trackLastSeenNanos[oldest])) {
+                    oldest = t;
+                }
+            }
+            removeTrack(oldest);
+        }
+        int t = trackCount;
+        trackCount += 1;
+        trackIds[t] = nextId++;
+        isTrackMatched[t] = true;
+        return t;
+    }
+
+    //moves the last track into t's place
+    private void removeTrack(int t) {
+        int last = trackCount - 1;
+        if (t != last) {
+            trackIds[t] = trackIds[last];
+            System.arraycopy(trackBoxes, 4 * last, trackBoxes, 4 * t, 4);
+            System.arraycopy(trackPoints, last * 2 * pointCapacity, trackPoints, t * 2 * pointCapacity,
+                    2 * trackPointCounts[last]);
+            trackPointCounts[t] = trackPointCounts[last];
+            trackLastSeenNanos[t] = trackLastSeenNanos[last];
+            isTrackMatched[t] = isTrackMatched[last];
+        }
+        trackCount = last;
+    }
+
+    private void updateTrack(int t, int f, long timestampNanos) {
+        System.arraycopy(faceBoxes, 4 * f, trackBoxes, 4 * t, 4);
+        System.arraycopy(facePoints, f * 2 * pointCapacity, trackPoints, t * 2 * pointCapacity, 2 * facePointCounts[f]);
+        trackPointCounts[t] = facePointCounts[f];
+        trackLastSeenNanos[t] = timestampNanos;
+    }
+}
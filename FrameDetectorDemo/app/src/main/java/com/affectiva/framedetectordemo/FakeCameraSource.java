@@ -0,0 +1,144 @@
+package com.affectiva.framedetectordemo;
+
+import com.affectiva.android.affdex.sdk.Frame;
+
+/**
+ * A CameraSource without a camera, which makes a synthetic NV21 frame each time deliverFrame() is called, so that the
+ * frame path from a source through the FrameBuffer pool to its consumers can be exercised without a device camera, for
+ * instance in tests. Frames are delivered on the calling thread, in pooled buffers like a real source's, and a frame is
+ * dropped when consumers hold every buffer.
+ *
+ * Each frame shows a still gradient with a bright square moving across it, one step per frame.
+ */
+class FakeCameraSource implements CameraSource {
+
+    private final static int DEFAULT_CALLBACK_BUFFER_COUNT = 3;
+    private final static int SQUARE_STEP = 8;
+
+    private final int width;
+    private final int height;
+    private final Frame.ROTATE rotation;
+    private OnCameraSourceEventListener listener;
+
+    final FrameBufferPool bufferPool = new FrameBufferPool(DEFAULT_CALLBACK_BUFFER_COUNT);
+    final PooledBufferQueue freeBuffers = new PooledBufferQueue(bufferPool);
+    final CallbackRingMonitor ringMonitor = new CallbackRingMonitor();
+
+    private boolean isStarted = false;
+    private long framesDelivered = 0;
+    private long framesDropped = 0;
+
+    FakeCameraSource(int width, int height, Frame.ROTATE rotation) {
+        if (width <= 0 || height <= 0 || ((width | height) & 1) != 0) {
+            throw new IllegalArgumentException("width and height must be positive and even");
+        }
+        if (rotation == null) {
+            throw new NullPointerException("rotation must not be null");
+        }
+        this.width = width;
+        this.height = height;
+        this.rotation = rotation;
+    }
+
+    @Override
+    public void setOnCameraSourceEventListener(OnCameraSourceEventListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void startCamera(CameraType cameraType) {
+        if (isStarted) {
+            return;
+        }
+        isStarted = true;
+        bufferPool.ensureBuffers(Nv21Image.bufferSize(width, height));
+        freeBuffers.attach();
+        ringMonitor.restart();
+        if (listener != null) {
+            listener.onCameraStarted(true, null);
+            listener.onFrameSizeSelected(width, height, rotation);
+        }
+    }
+
+    @Override
+    public void stopCamera() {
+        if (isStarted) {
+            isStarted = false;
+            freeBuffers.detach();
+        }
+    }
+
+    @Override
+    public void setCallbackBufferCount(int count) {
+        bufferPool.setBufferCount(count);
+    }
+
+    /**
+     * Ignored, since the fake camera has a single frame size, the one it was constructed with.
+     */
+    @Override
+    public void setPreviewSizeSelector(PreviewSizeSelector selector) {
+        if (selector == null) {
+            throw new NullPointerException("selector must not be null");
+        }
+    }
+
+    @Override
+    public void reselectPreviewSize() {
+        //the size never changes
+    }
+
+    @Override
+    public CallbackRingMonitor getCallbackRingMonitor() {
+        return ringMonitor;
+    }
+
+    /**
+     * Makes the next frame, stamped captureNanos, and delivers it to the listener. Returns false if the camera is not
+     * started or the frame was dropped for want of a free buffer.
+     */
+    boolean deliverFrame(long captureNanos) {
+        if (!isStarted) {
+            return false;
+        }
+        FrameBuffer frame = freeBuffers.take();
+        if (frame == null) {
+            framesDropped += 1;
+            return false;
+        }
+        fill(frame.getData(), framesDelivered);
+        ringMonitor.onFrame(captureNanos, bufferPool.getBuffersInUse(), bufferPool.getBuffersWithCamera(),
+                bufferPool.getBufferCount());
+        framesDelivered += 1;
+        if (listener != null) {
+            listener.onFrameAvailable(frame, width, height, rotation, captureNanos);
+        }
+        frame.release();
+        return true;
+    }
+
+    long getFramesDelivered() {
+        return framesDelivered;
+    }
+
+    long getFramesDropped() {
+        return framesDropped;
+    }
+
+    private void fill(byte[] data, long frameIndex) {
+        int size = Math.min(width, height) / 4;
+        int squareLeft = (int) ((frameIndex * SQUARE_STEP) % (width - size));
+        int squareTop = (height - size) / 2;
+        for (int y = 0; y < height; y++) {
+            int row = y * width;
+            boolean isSquareRow = y >= squareTop && y < squareTop + size;
+            for (int x = 0; x < width; x++) {
+                boolean isSquare = isSquareRow && x >= squareLeft && x < squareLeft + size;
+                data[row + x] = (byte) (isSquare ? 235 : 16 + (x + y) * 160 / (width + height));
+            }
+        }
+        for (int i = width * height; i < Nv21Image.bufferSize(width, height); i++) {
+            data[i] = (byte) 128;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.affectiva.framedetectordemo;
+
+/**
+ * Decides which frames offered by the camera are admitted into AsyncFrameDetector, based on how long FrameDetector has
+ * recently been taking to process a frame.
+ *
+ * The controller keeps an exponential moving average of the detector's service time, from which it derives the rate the
+ * workers can sustain. The admission rate is the lower of that capacity (less some headroom) and the configured target,
+ * which is either a target SDK frame rate or a latency budget. Admission uses a credit accumulator, so when the admission
+ * rate is below the camera rate, the frames that are turned away are spread evenly rather than dropped in bursts.
+ *
+ * admit() is called by the thread submitting frames, recordServiceTime() by the worker threads. The getters may be called
+ * from any thread.
+ */
+class FrameAdmissionController {
+
+    //fraction of the measured capacity we admit, so that the workers are never quite saturated and frames do not queue
+    static final float CAPACITY_HEADROOM = 0.9f;
+    //weight given to each new service time sample in the moving average
+    static final float SERVICE_TIME_SMOOTHING = 0.1f;
+
+    private final int workerCount;
+
+    private float targetFps = 0f; //0 means no target frame rate
+    private float latencyBudgetMillis = 0f; //0 means no latency budget
+
+    private float serviceTimeNanos = 0f; //0 until the first sample is recorded
+    private float admissionRate = Float.POSITIVE_INFINITY; //frames per second
+
+    //credit accumulator, in frames
+    private long lastOfferNanos = -1L;
+    private float credit = 1f;
+
+    private long framesAdmitted = 0;
+    private long framesRejected = 0;
+    private long recentDecisions = 0; //one bit per decision, most recent in the lowest bit, 1 meaning admitted
+
+    FrameAdmissionController(int workerCount) {
+        if (workerCount < 1) {
+            throw new IllegalArgumentException("workerCount must be at least 1");
+        }
+        this.workerCount = workerCount;
+    }
+
+    /**
+     * Sets the SDK frame rate the controller should aim for, or 0 to admit frames as fast as the workers can sustain.
+     * Setting a target frame rate clears any latency budget.
+     */
+    synchronized void setTargetFps(float fps) {
+        if (fps < 0) {
+            throw new IllegalArgumentException("fps must not be negative");
+        }
+        targetFps = fps;
+        latencyBudgetMillis = 0f;
+        updateAdmissionRate();
+    }
+
+    /**
+     * Sets the time from admission to result the controller should aim for, or 0 for no budget. The controller lowers the
+     * load on the workers until the expected queueing delay plus service time fits in the budget.
+     * Setting a latency budget clears any target frame rate.
+     */
+    synchronized void setLatencyBudget(float millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("millis must not be negative");
+        }
+        latencyBudgetMillis = millis;
+        targetFps = 0f;
+        updateAdmissionRate();
+    }
+
+    synchronized float getTargetFps() {
+        return targetFps;
+    }
+
+    synchronized float getLatencyBudget() {
+        return latencyBudgetMillis;
+    }
+
+    /**
+     * Returns the rate, in frames per second, at which frames are currently being admitted.
+     * This is infinite until the first service time has been measured, or if neither capacity nor target limit it.
+     */
+    synchronized float getAdmissionRate() {
+        return admissionRate;
+    }
+
+    /**
+     * Returns the frame rate the workers could sustain at the measured service time, before headroom or any target is
+     * applied. This is infinite until the first service time has been measured.
+     */
+    synchronized float getCapacity() {
+        if (serviceTimeNanos == 0f) {
+            return Float.POSITIVE_INFINITY;
+        }
+        return workerCount * 1000000000f / serviceTimeNanos;
+    }
+
+    /**
+     * Returns the moving average of FrameDetector's service time, in milliseconds.
+     */
+    synchronized float getServiceTime() {
+        return serviceTimeNanos / 1000000f;
+    }
+
+    synchronized long getFramesAdmitted() {
+        return framesAdmitted;
+    }
+
+    synchronized long getFramesRejected() {
+        return framesRejected;
+    }
+
+    /**
+     * Returns the last 64 admission decisions as a bit field, the most recent in the lowest bit, 1 meaning admitted.
+     */
+    synchronized long getRecentDecisions() {
+        return recentDecisions;
+    }
+
+    /**
+     * Forgets all measurements and counts, keeping the configured target.
+     */
+    synchronized void reset() {
+        serviceTimeNanos = 0f;
+        lastOfferNanos = -1L;
+        credit = 1f;
+        framesAdmitted = 0;
+        framesRejected = 0;
+        recentDecisions = 0;
+        updateAdmissionRate();
+    }
+
+    /**
+     * Records how long FrameDetector took to process one frame.
+     */
+    synchronized void recordServiceTime(long nanos) {
+        if (serviceTimeNanos == 0f) {
+            serviceTimeNanos = nanos;
+        } else {
+            serviceTimeNanos += SERVICE_TIME_SMOOTHING * (nanos - serviceTimeNanos);
+        }
+        updateAdmissionRate();
+    }
+
+    /**
+     * Called for every frame offered by the camera, with the time it was captured at, so that credit accrues with the
+     * real spacing between frames. Returns true if the frame should be submitted to the detector.
+     */
+    synchronized boolean admit(long nowNanos) {
+        boolean admitted;
+        if (Float.isInfinite(admissionRate)) {
+            admitted = true;
+        } else {
+            if (lastOfferNanos >= 0) {
+                credit += admissionRate * (nowNanos - lastOfferNanos) / 1000000000f;
+            }
+            admitted = credit >= 1f;
+            if (admitted) {
+                credit -= 1f;
+            }
+            //never bank more than one frame's worth of credit, otherwise an idle period is followed by a burst
+            if (credit > 1f) {
+                credit = 1f;
+            }
+        }
+        lastOfferNanos = nowNanos;
+
+        recentDecisions = (recentDecisions << 1) | (admitted ? 1 : 0);
+        if (admitted) {
+            framesAdmitted += 1;
+        } else {
+            framesRejected += 1;
+        }
+        return admitted;
+    }
+
+    private void updateAdmissionRate() {
+        float rate = Float.POSITIVE_INFINITY;
+
+        if (serviceTimeNanos > 0f) {
+            float serviceTimeSeconds = serviceTimeNanos / 1000000000f;
+            float capacity = workerCount / serviceTimeSeconds;
+            float utilization = CAPACITY_HEADROOM;
+
+            if (latencyBudgetMillis > 0f) {
+                /*
+                 Treating each worker as an M/D/1 queue, the mean wait is u*S / (2*(1-u)) for utilization u and service
+                 time S. Keeping S plus that wait within the budget L gives u <= 2k / (1+2k), where k = (L-S)/S.
+                 If the detector alone takes longer than the budget, we fall back to the smallest utilization we allow.
+                 */
+                float k = (latencyBudgetMillis / 1000f - serviceTimeSeconds) / serviceTimeSeconds;
+                float budgetUtilization = k > 0f ? 2f * k / (1f + 2f * k) : 0f;
+                utilization = Math.max(0.1f, Math.min(utilization, budgetUtilization));
+            }
+            rate = capacity * utilization;
+        }
+
+        if (targetFps > 0f && targetFps < rate) {
+            rate = targetFps;
+        }
+        admissionRate = rate;
+    }
+}
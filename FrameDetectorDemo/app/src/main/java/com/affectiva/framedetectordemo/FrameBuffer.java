@@ -0,0 +1,58 @@
+package com.affectiva.framedetectordemo;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A reference-counted camera frame buffer.
+ *
+ * The CameraSource holds a reference for the duration of the onFrameAvailable() callback. Anything that needs the frame data
+ * after the callback returns (a queued detector frame, a renderer) must call retain() before returning, and release()
+ * once it no longer reads the data. When the last reference is released, the buffer goes back to its FrameBufferPool, and
+ * from there to the camera, which will overwrite it with a new frame.
+ */
+class FrameBuffer {
+
+    final byte[] data;
+    final FrameBufferPool pool; //null for buffers which do not belong to a pool
+    final int generation; //the pool generation this buffer was allocated in
+    final AtomicInteger refCount = new AtomicInteger();
+
+    /*
+     Lets the consumer which wraps the data for further processing, such as into an SDK Frame, keep that wrapper with the
+     buffer, so it is created once per buffer rather than once per frame. Only touched on the thread frames are delivered on.
+     */
+    Object attachment;
+
+    FrameBuffer(byte[] data, FrameBufferPool pool, int generation) {
+        this.data = data;
+        this.pool = pool;
+        this.generation = generation;
+    }
+
+    /**
+     * Wraps data which does not belong to a pool, such as the camera-allocated buffer of a one-shot preview callback.
+     * retain() and release() still work, but releasing the last reference has no effect.
+     */
+    static FrameBuffer wrap(byte[] data) {
+        return new FrameBuffer(data, null, 0);
+    }
+
+    byte[] getData() {
+        return data;
+    }
+
+    void retain() {
+        refCount.incrementAndGet();
+    }
+
+    void release() {
+        int count = refCount.decrementAndGet();
+        if (count == 0) {
+            if (pool != null) {
+                pool.recycle(this);
+            }
+        } else if (count < 0) {
+            throw new IllegalStateException("FrameBuffer released more times than it was retained");
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package com.affectiva.framedetectordemo;
+
+/**
+ * A fixed set of preview callback buffers, shared between the camera and the consumers of its frames.
+ *
+ * Each buffer is either idle in the pool, queued with the camera, or in use by consumers. A buffer only goes back to the
+ * camera once every consumer has released it, so the camera can never overwrite a frame that is still being read. If
+ * consumers hold on to every buffer, the camera has nothing to write into and drops frames itself; each time a frame
+ * leaves the camera without a buffer to write the next one into, the pool counts it as an exhaustion.
+ *
+ * Buffers are kept across camera restarts and only reallocated when the frame size or the buffer count changes.
+ * Buffers still in use when that happens are simply let go when they are released.
+ */
+class FrameBufferPool {
+
+    interface OnBufferRecycledListener {
+        /**
+         * Called when a buffer should be handed (back) to the camera. May be called on any thread.
+         */
+        void onBufferRecycled(FrameBuffer buffer, int attachEpoch);
+    }
+
+    private static final int IDLE = 0;
+    private static final int WITH_CAMERA = 1;
+    private static final int IN_USE = 2;
+
+    private int bufferCount;
+    private int bufferSize = 0;
+    private int generation = 0;
+    private FrameBuffer[] buffers = new FrameBuffer[0];
+    private int[] states = new int[0];
+
+    private OnBufferRecycledListener listener;
+    private int attachEpoch = 0;
+
+    private long allocations = 0;
+    private long exhaustions = 0;
+
+    FrameBufferPool(int bufferCount) {
+        setBufferCount(bufferCount);
+    }
+
+    /**
+     * Sets the number of buffers in the pool. Takes effect the next time ensureBuffers() is called.
+     */
+    synchronized void setBufferCount(int bufferCount) {
+        if (bufferCount < 1) {
+            throw new IllegalArgumentException("bufferCount must be at least 1");
+        }
+        this.bufferCount = bufferCount;
+    }
+
+    synchronized int getBufferCount() {
+        return bufferCount;
+    }
+
+    /**
+     * Makes sure the pool holds bufferCount buffers of the given size, reallocating only if the size or count changed.
+     */
+    synchronized void ensureBuffers(int size) {
+        if (size == bufferSize && buffers.length == bufferCount) {
+            return;
+        }
+        generation += 1;
+        bufferSize = size;
+        buffers = new FrameBuffer[bufferCount];
+        states = new int[bufferCount];
+        for (int i = 0; i < bufferCount; i++) {
+            buffers[i] = new FrameBuffer(new byte[size], this, generation);
+            states[i] = IDLE;
+        }
+        allocations += 1;
+    }
+
+    /**
+     * Starts handing buffers to the camera through the listener: every idle buffer right away, and every other buffer
+     * as soon as it is released. Returns the epoch of this attachment, which is passed to the listener so that hand-offs
+     * from an earlier attachment can be recognised and ignored.
+     */
+    int attach(OnBufferRecycledListener listener) {
+        int epoch;
+        FrameBuffer[] handOff;
+        synchronized (this) {
+            this.listener = listener;
+            attachEpoch += 1;
+            epoch = attachEpoch;
+            handOff = new FrameBuffer[countInState(IDLE)];
+            int n = 0;
+            for (int i = 0; i < buffers.length; i++) {
+                if (states[i] == IDLE) {
+                    states[i] = WITH_CAMERA;
+                    handOff[n++] = buffers[i];
+                }
+            }
+        }
+        for (FrameBuffer buffer : handOff) {
+            listener.onBufferRecycled(buffer, epoch);
+        }
+        return epoch;
+    }
+
+    /**
+     * Stops handing buffers to the camera. Buffers the camera was holding are considered idle again, since the camera
+     * forgets its callback buffers when its preview callback is cleared.
+     */
+    synchronized void detach() {
+        listener = null;
+        attachEpoch += 1;
+        for (int i = 0; i < buffers.length; i++) {
+            if (states[i] == WITH_CAMERA) {
+                states[i] = IDLE;
+            }
+        }
+    }
+
+    synchronized boolean isCurrentEpoch(int epoch) {
+        return listener != null && epoch == attachEpoch;
+    }
+
+    /**
+     * Called when the camera delivers a frame in one of the pool's buffers. Marks the buffer as in use and returns it
+     * holding one reference, which the caller must release. Returns null if the data does not belong to the pool.
+     */
+    synchronized FrameBuffer onFrameReceived(byte[] data) {
+        int index = indexOf(data);
+        if (index < 0) {
+            return null;
+        }
+        states[index] = IN_USE;
+        FrameBuffer buffer = buffers[index];
+        buffer.refCount.set(1);
+
+        if (countInState(WITH_CAMERA) == 0) {
+            exhaustions += 1;
+        }
+        return buffer;
+    }
+
+    /**
+     * Called by FrameBuffer when its last reference has been released.
+     */
+    void recycle(FrameBuffer buffer) {
+        OnBufferRecycledListener listenerToNotify = null;
+        int epoch;
+        synchronized (this) {
+            if (buffer.generation != generation) {
+                return; //left over from before a reallocation; let it be garbage collected
+            }
+            int index = indexOf(buffer.data);
+            if (listener != null) {
+                states[index] = WITH_CAMERA;
+                listenerToNotify = listener;
+            } else {
+                states[index] = IDLE;
+            }
+            epoch = attachEpoch;
+        }
+        if (listenerToNotify != null) {
+            listenerToNotify.onBufferRecycled(buffer, epoch);
+        }
+    }
+
+    /**
+     * Returns the number of times the buffers have been (re)allocated.
+     */
+    synchronized long getAllocationCount() {
+        return allocations;
+    }
+
+    /**
+     * Returns the number of frames after which the camera was left without a buffer to write the next frame into.
+     */
+    synchronized long getExhaustionCount() {
+        return exhaustions;
+    }
+
+    synchronized int getBuffersInUse() {
+        return countInState(IN_USE);
+    }
+
+    synchronized int getBuffersWithCamera() {
+        return countInState(WITH_CAMERA);
+    }
+
+    private int countInState(int state) {
+        int count = 0;
+        for (int s : states) {
+            if (s == state) {
+                count += 1;
+            }
+        }
+        return count;
+    }
+
+    private int indexOf(byte[] data) {
+        for (int i = 0; i < buffers.length; i++) {
+            if (buffers[i].data == data) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
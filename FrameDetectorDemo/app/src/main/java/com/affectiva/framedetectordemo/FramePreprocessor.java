@@ -0,0 +1,313 @@
+package com.affectiva.framedetectordemo;
+
+import android.graphics.PointF;
+
+import com.affectiva.android.affdex.sdk.Frame;
+import com.affectiva.android.affdex.sdk.detector.Face;
+
+import java.util.List;
+
+/**
+ * Prepares camera frames for the detector, which costs time in proportion to the number of pixels it is given:
+ * - ROI cropping (on by default) crops frames to the region around the faces found in earlier frames, as decided by a
+ *   FaceRoiTracker, which raises the frame rate the detector can sustain considerably for a face that fills only part of
+ *   the frame.
+ * - Downscaling (off by default) shrinks frames by 2x or 4x, so that a sharp preview can be shown on screen while the
+ *   detector only pays for a smaller image.
+ *
+ * Use getFrame() in place of wrapping camera buffers in Frames directly, and add the preprocessor to the
+ * AsyncFrameDetector with DETECTOR_THREAD, before any other listener: it then sees every result, in order, and maps face
+ * points back to full frame coordinates before any other listener sees them. Distances such as the interocular distance
+ * cannot be changed in the SDK's Face, so listeners scale them with getDistanceScale().
+ */
+class FramePreprocessor implements AsyncFrameDetector.OnDetectorEventListener {
+
+    /*
+     What a camera buffer has been wrapped in, kept as the buffer's attachment: a Frame over the full data, and a second
+     buffer and Frame for cropped or downscaled versions of it. The second buffer is allocated the first time it is
+     needed, as large as the full frame, which no region exceeds, so that like the camera buffers themselves it is reused
+     from then on; only its Frame is replaced when the size of the region changes, which FaceRoiTracker keeps rare.
+     transform describes the Frame most recently handed out for the buffer, and rotation the rotation it was handed out
+     with, which changes when the device is turned while the buffers are kept; the buffer is retained until the detector
+     and the listeners are done with that Frame, so none of these change while it is in flight.
+     */
+    static class RoiFrame {
+        final int width;
+        final int height;
+        Frame.ROTATE rotation;
+        int uprightWidth;
+        int uprightHeight;
+        final Frame fullFrame;
+        final FrameTransform transform = new FrameTransform();
+        byte[] scratchData;
+        Frame scratchFrame;
+        int scratchWidth;
+        int scratchHeight;
+
+        RoiFrame(Frame fullFrame, int width, int height, Frame.ROTATE rotation) {
+            this.fullFrame = fullFrame;
+            this.width = width;
+            this.height = height;
+            setRotation(rotation);
+        }
+
+        void setRotation(Frame.ROTATE rotation) {
+            boolean isSideways = (getQuarterTurns(rotation) & 1) != 0;
+            this.rotation = rotation;
+            uprightWidth = isSideways ? height : width;
+            uprightHeight = isSideways ? width : height;
+        }
+    }
+
+    final FaceRoiTracker tracker;
+    private boolean isRoiEnabled = true;
+    private int downscaleFactor = 1;
+
+    //only touched on the camera thread
+    private final int[] region = new int[4];
+
+    //the rotation of the frames being handed out; results for frames of another rotation are not reported to the tracker
+    private volatile Frame.ROTATE currentRotation;
+
+    //every RoiFrame handed out for the current frame size, looked up by the detector thread to find a result's transform
+    private volatile RoiFrame[] roiFrames = new RoiFrame[0];
+
+    //the last results mapped, and their distance scale; only touched by onImageResults(), which is always called in turn
+    private List<Face> lastMappedFaces;
+    private float lastDistanceScale = 1f;
+
+    FramePreprocessor() {
+        this(new FaceRoiTracker());
+    }
+
+    FramePreprocessor(FaceRoiTracker tracker) {
+        if (tracker == null) {
+            throw new NullPointerException("tracker must not be null");
+        }
+        this.tracker = tracker;
+    }
+
+    /**
+     * Turns ROI cropping on or off. While it is off, frames are processed in full.
+     */
+    void setRoiEnabled(boolean enabled) {
+        isRoiEnabled = enabled;
+        if (!enabled) {
+            tracker.reset();
+        }
+    }
+
+    /**
+     * Sets the factor frames are shrunk by in each direction before they reach the detector: 1 (no downscaling), 2 or 4.
+     */
+    void setDownscaleFactor(int factor) {
+        if (factor != 1 && factor != 2 && factor != 4) {
+            throw new IllegalArgumentException("factor must be 1, 2 or 4");
+        }
+        downscaleFactor = factor;
+    }
+
+    int getDownscaleFactor() {
+        return downscaleFactor;
+    }
+
+    /**
+     * Forgets where the faces were, so that the next frames are processed in full. Call along with
+     * AsyncFrameDetector.reset().
+     */
+    void reset() {
+        tracker.reset();
+    }
+
+    /**
+     * Returns the Frame to submit for a camera buffer: the full frame, or a version of it cropped to the region around
+     * the faces and/or downscaled. Must be called on the thread frames are delivered on.
+     */
+    Frame getFrame(FrameBuffer buffer, int width, int height, Frame.ROTATE rotation) {
+        RoiFrame roiFrame = getRoiFrame(buffer, width, height, rotation);
+        int factor = downscaleFactor;
+        boolean isCropped = isRoiEnabled && tracker.nextRegion(region);
+        if (!isCropped) {
+            if (factor == 1) {
+                roiFrame.transform.setIdentity();
+                roiFrame.fullFrame.setTargetRotation(rotation);
+                return roiFrame.fullFrame;
+            }
+            region[0] = 0;
+            region[1] = 0;
+            region[2] = roiFrame.uprightWidth;
+            region[3] = roiFrame.uprightHeight;
+        }
+
+        //trim the region to a size the downscale can handle; trimming right and bottom leaves its position unchanged
+        int alignment = 2 * factor;
+        region[2] -= (region[2] - region[0]) % alignment;
+        region[3] -= (region[3] - region[1]) % alignment;
+        int uprightLeft = region[0];
+        int uprightTop = region[1];
+        Nv21Image.toRawRegion(region, width, height, getQuarterTurns(rotation), region);
+        int regionWidth = region[2] - region[0];
+        int regionHeight = region[3] - region[1];
+        int scratchWidth = regionWidth / factor;
+        int scratchHeight = regionHeight / factor;
+        if (roiFrame.scratchData == null) {
+            roiFrame.scratchData = new byte[Nv21Image.bufferSize(width, height)];
+        }
+        if (roiFrame.scratchFrame == null || roiFrame.scratchWidth != scratchWidth
+                || roiFrame.scratchHeight != scratchHeight) {
+            roiFrame.scratchFrame = MainActivity.createFrameFromData(roiFrame.scratchData, scratchWidth, scratchHeight,
+                    rotation);
+            roiFrame.scratchWidth = scratchWidth;
+            roiFrame.scratchHeight = scratchHeight;
+        }
+        if (factor == 1) {
+            Nv21Image.crop(buffer.getData(), width, height, region[0], region[1], regionWidth, regionHeight,
+                    roiFrame.scratchData);
+        } else {
+            Nv21Image.downscale(buffer.getData(), width, height, region[0], region[1], regionWidth, regionHeight, factor,
+                    roiFrame.scratchData);
+        }
+        roiFrame.scratchFrame.setTargetRotation(rotation);
+        roiFrame.transform.set(uprightLeft, uprightTop, factor);
+        return roiFrame.scratchFrame;
+    }
+
+    /**
+     * Returns the Frame over a camera buffer's full data, for frames which are not going to be processed, such as those
+     * passed to AsyncFrameDetector.processUnchanged().
+     */
+    Frame getFullFrame(FrameBuffer buffer, int width, int height, Frame.ROTATE rotation) {
+        RoiFrame roiFrame = getRoiFrame(buffer, width, height, rotation);
+        roiFrame.transform.setIdentity();
+        roiFrame.fullFrame.setTargetRotation(rotation);
+        return roiFrame.fullFrame;
+    }
+
+    private RoiFrame getRoiFrame(FrameBuffer buffer, int width, int height, Frame.ROTATE rotation) {
+        if (rotation != currentRotation) {
+            //the device has been turned: regions found so far are in the coordinates of the old upright frame
+            currentRotation = rotation;
+            tracker.reset();
+        }
+        if (buffer.attachment instanceof RoiFrame) {
+            RoiFrame roiFrame = (RoiFrame) buffer.attachment;
+            if (roiFrame.rotation != rotation) {
+                roiFrame.setRotation(rotation);
+            }
+            return roiFrame;
+        }
+        RoiFrame roiFrame = new RoiFrame(MainActivity.createFrameFromData(buffer.getData(), width, height, rotation),
+                width, height, rotation);
+        buffer.attachment = roiFrame;
+
+        //the camera's buffers are reallocated whenever the preview size changes, so any of another size are gone for good
+        RoiFrame[] current = roiFrames;
+        int kept = 0;
+        for (RoiFrame existing : current) {
+            if (existing.width == width && existing.height == height) {
+                kept += 1;
+            }
+        }
+        RoiFrame[] updated = new RoiFrame[kept + 1];
+        int next = 0;
+        for (RoiFrame existing : current) {
+            if (existing.width == width && existing.height == height) {
+                updated[next++] = existing;
+            }
+        }
+        updated[next] = roiFrame;
+        roiFrames = updated;
+        return roiFrame;
+    }
+
+    static int getQuarterTurns(Frame.ROTATE rotation) {
+        switch (rotation) {
+            case BY_90_CW:
+                return 1;
+            case BY_180:
+                return 2;
+            case BY_90_CCW:
+                return 3;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Returns the factor distances measured in the given image, such as the interocular distance, must be multiplied by
+     * to be in full frame pixels. image must be a Frame from getFrame() whose result is still being delivered.
+     */
+    float getDistanceScale(Frame image) {
+        RoiFrame roiFrame = findRoiFrame(image);
+        return roiFrame != null ? roiFrame.transform.mapDistance(1f) : 1f;
+    }
+
+    /*
+        Called on a detector thread, for every result, before any other listener sees it.
+     */
+    @Override
+    public void onImageResults(List<Face> faces, Frame image, long timestampNanos) {
+        RoiFrame roiFrame = findRoiFrame(image);
+        if (roiFrame == null || faces == null) {
+            return;
+        }
+        if (faces == lastMappedFaces) {
+            //results repeated by AsyncFrameDetector.processUnchanged(): their points have been mapped already, and their
+            //distances are still in the pixels of the frame they were found in
+            roiFrame.transform.set(0f, 0f, lastDistanceScale);
+            return;
+        }
+        FrameTransform transform = roiFrame.transform;
+        lastMappedFaces = faces;
+        lastDistanceScale = transform.mapDistance(1f);
+        boolean isMapped = !transform.isIdentity();
+        float minX = Float.MAX_VALUE;
+        float minY = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE;
+        float maxY = -Float.MAX_VALUE;
+        for (int i = 0; i < faces.size(); i++) {
+            PointF[] points = faces.get(i).getFacePoints();
+            if (points == null) {
+                continue;
+            }
+            for (PointF point : points) {
+                if (isMapped) {
+                    point.x = transform.mapX(point.x);
+                    point.y = transform.mapY(point.y);
+                }
+                minX = Math.min(minX, point.x);
+                minY = Math.min(minY, point.y);
+                maxX = Math.max(maxX, point.x);
+                maxY = Math.max(maxY, point.y);
+            }
+        }
+        if (roiFrame.rotation != currentRotation) {
+            return; //found before the device was turned; the tracker has started over since
+        }
+        if (minX <= maxX) {
+            tracker.onFacesFound(minX, minY, maxX, maxY, roiFrame.uprightWidth, roiFrame.uprightHeight);
+        } else {
+            tracker.onFacesLost();
+        }
+    }
+
+    private RoiFrame findRoiFrame(Frame image) {
+        RoiFrame[] current = roiFrames;
+        for (RoiFrame roiFrame : current) {
+            if (roiFrame.fullFrame == image || roiFrame.scratchFrame == image) {
+                return roiFrame;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void onDetectorStarted() {
+
+    }
+
+    @Override
+    public void onDetectorFailed() {
+
+    }
+}
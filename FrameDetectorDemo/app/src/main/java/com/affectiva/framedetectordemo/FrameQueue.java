@@ -0,0 +1,136 @@
+package com.affectiva.framedetectordemo;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The queue of frames waiting for one worker thread. Instances are created by a BackpressurePolicy, which determines what
+ * happens when a frame is offered to a full queue.
+ *
+ * A queue is fed by a single producer thread and drained by a single consumer thread.
+ */
+abstract class FrameQueue<T> {
+
+    /**
+     * Adds an item to the queue.
+     * Returns the item that had to be dropped to respect the queue's capacity (which may be the offered item itself),
+     * or null if nothing was dropped.
+     */
+    abstract T offer(T item);
+
+    /**
+     * Removes and returns the next item to process, or null if the queue is empty.
+     */
+    abstract T poll();
+
+    abstract boolean isEmpty();
+
+    /**
+     * Makes any offer() currently blocked on this queue give up and return its item as dropped. Used when the consumer is
+     * about to go away.
+     */
+    void abandonWaiters() {
+    }
+
+    /**
+     * A single-slot queue in which each new item replaces the pending one. Lock-free, since the producer and consumer only
+     * ever swap the slot's content.
+     */
+    static class LatestOnlyQueue<T> extends FrameQueue<T> {
+        final AtomicReference<T> slot = new AtomicReference<>();
+
+        @Override
+        T offer(T item) {
+            return slot.getAndSet(item);
+        }
+
+        @Override
+        T poll() {
+            return slot.getAndSet(null);
+        }
+
+        @Override
+        boolean isEmpty() {
+            return slot.get() == null;
+        }
+    }
+
+    /**
+     * A fixed-capacity ring of items, which on overflow either drops the offered item, drops the oldest item, or blocks
+     * the producer until the consumer makes room.
+     */
+    static class BoundedQueue<T> extends FrameQueue<T> {
+        final BackpressurePolicy.Mode mode;
+        final Object[] items;
+        int head = 0; //index of the oldest item
+        int size = 0;
+        int generation = 0; //incremented by abandonWaiters()
+
+        BoundedQueue(BackpressurePolicy.Mode mode, int capacity) {
+            this.mode = mode;
+            items = new Object[capacity];
+        }
+
+        @Override
+        synchronized T offer(T item) {
+            T dropped = null;
+            if (size == items.length) {
+                switch (mode) {
+                    case DROP_NEWEST:
+                        return item;
+                    case DROP_OLDEST:
+                        dropped = removeOldest();
+                        break;
+                    case BOUNDED_BLOCKING:
+                        int startGeneration = generation;
+                        try {
+                            while (size == items.length && generation == startGeneration) {
+                                wait();
+                            }
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return item;
+                        }
+                        if (generation != startGeneration) {
+                            return item;
+                        }
+                        break;
+                    default:
+                        throw new IllegalStateException("Unsupported mode " + mode);
+                }
+            }
+            items[(head + size) % items.length] = item;
+            size += 1;
+            return dropped;
+        }
+
+        @Override
+        synchronized T poll() {
+            if (size == 0) {
+                return null;
+            }
+            T item = removeOldest();
+            notifyAll();
+            return item;
+        }
+
+        @Override
+        synchronized boolean isEmpty() {
+            return size == 0;
+        }
+
+        @Override
+        synchronized void abandonWaiters() {
+            generation += 1;
+            notifyAll();
+        }
+
+        @SuppressWarnings("unchecked")
+        private T removeOldest() {
+            T item = (T) items[head];
+            items[head] = null;
+            head = (head + 1) % items.length;
+            size -= 1;
+            return item;
+        }
+    }
+}
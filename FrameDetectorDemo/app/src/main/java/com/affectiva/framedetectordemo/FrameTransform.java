@@ -0,0 +1,45 @@
+package com.affectiva.framedetectordemo;
+
+/**
+ * Maps points and distances found in the image FrameDetector was given, which may be only a region of the camera frame
+ * and may have been scaled down, back to the coordinates of the full, upright camera frame.
+ */
+class FrameTransform {
+
+    //position of the detector image's top left corner in the full upright frame
+    private float left = 0f;
+    private float top = 0f;
+
+    //full frame pixels per detector image pixel
+    private float scale = 1f;
+
+    void setIdentity() {
+        set(0f, 0f, 1f);
+    }
+
+    /**
+     * Sets the transform for a detector image made from the region of the full frame whose top left corner is at
+     * (left, top), shrunk by scale in each direction.
+     */
+    void set(float left, float top, float scale) {
+        this.left = left;
+        this.top = top;
+        this.scale = scale;
+    }
+
+    boolean isIdentity() {
+        return left == 0f && top == 0f && scale == 1f;
+    }
+
+    float mapX(float x) {
+        return left + x * scale;
+    }
+
+    float mapY(float y) {
+        return top + y * scale;
+    }
+
+    float mapDistance(float distance) {
+        return distance * scale;
+    }
+}
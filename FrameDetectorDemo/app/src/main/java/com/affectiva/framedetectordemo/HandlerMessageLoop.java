@@ -0,0 +1,118 @@
+package com.affectiva.framedetectordemo;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Process;
+import android.util.SparseArray;
+import android.view.Choreographer;
+
+/**
+ * The MessageLoop AsyncFrameDetector runs on: a Handler on a HandlerThread for each worker, and on the main Looper for the
+ * main thread. Messages come from Handler's Message pool, so sending one allocates nothing.
+ *
+ * Choreographer is only available from API 16, and must be obtained on the main thread; so if the main loop was created
+ * on the main thread of a device that has it, sendMessageAtNextFrame() waits for the next display frame, and otherwise
+ * it sends the message right away.
+ */
+class HandlerMessageLoop implements MessageLoop {
+
+    static final Factory FACTORY = new Factory() {
+        @Override
+        public MessageLoop startLoop(String name, Callback callback) {
+            HandlerThread thread = new HandlerThread(name, Process.THREAD_PRIORITY_URGENT_DISPLAY);
+            thread.start();
+            //getLooper() blocks until the thread is ready to receive messages
+            return new HandlerMessageLoop(thread.getLooper(), callback);
+        }
+
+        @Override
+        public MessageLoop mainLoop(Callback callback) {
+            HandlerMessageLoop loop = new HandlerMessageLoop(Looper.getMainLooper(), callback);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN && Looper.myLooper() == Looper.getMainLooper()) {
+                loop.initChoreographer();
+            }
+            return loop;
+        }
+    };
+
+    private final Handler handler;
+    private final Callback callback;
+    private Choreographer choreographer;
+    //one frame callback per message code, created the first time a code is sent at a frame
+    private final SparseArray<Choreographer.FrameCallback> frameCallbacks = new SparseArray<>();
+
+    HandlerMessageLoop(Looper looper, final Callback callback) {
+        this.callback = callback;
+        handler = new Handler(looper, new Handler.Callback() {
+            @Override
+            public boolean handleMessage(Message msg) {
+                callback.handleMessage(msg.what, msg.obj);
+                return true;
+            }
+        });
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void initChoreographer() {
+        choreographer = Choreographer.getInstance();
+    }
+
+    @Override
+    public void sendMessage(int what, Object obj) {
+        handler.obtainMessage(what, obj).sendToTarget();
+    }
+
+    @Override
+    public void sendMessageAtNextFrame(int what) {
+        if (choreographer != null) {
+            postFrameCallback(what);
+        } else {
+            sendMessage(what, null);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void postFrameCallback(final int what) {
+        Choreographer.FrameCallback frameCallback;
+        synchronized (frameCallbacks) {
+            frameCallback = frameCallbacks.get(what);
+            if (frameCallback == null) {
+                frameCallback = new Choreographer.FrameCallback() {
+                    @Override
+                    public void doFrame(long frameTimeNanos) {
+                        callback.handleMessage(what, null);
+                    }
+                };
+                frameCallbacks.put(what, frameCallback);
+            }
+        }
+        choreographer.postFrameCallback(frameCallback);
+    }
+
+    @Override
+    public void removeMessages(int what) {
+        handler.removeMessages(what);
+    }
+
+    @Override
+    public void postDelayed(Runnable task, long delayMillis) {
+        handler.postDelayed(task, delayMillis);
+    }
+
+    @Override
+    public void removeCallbacks(Runnable task) {
+        handler.removeCallbacks(task);
+    }
+
+    @Override
+    public void quit() {
+        Looper looper = handler.getLooper();
+        if (looper != Looper.getMainLooper()) {
+            looper.quit();
+        }
+    }
+}
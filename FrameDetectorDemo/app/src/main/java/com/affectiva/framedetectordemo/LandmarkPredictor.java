@@ -0,0 +1,113 @@
+package com.affectiva.framedetectordemo;
+
+/**
+ * Predicts where a face's landmarks are between detector results, so that an overlay can be redrawn at display rate
+ * rather than jumping from one result to the next and freezing in between.
+ *
+ * Each coordinate is tracked by an alpha-beta filter, the steady state form of a constant velocity Kalman filter: a new
+ * result corrects the predicted position by alpha of the error, and the velocity by beta of the error per second.
+ * Predictions extrapolate from the capture time of the latest result, which also makes up for the time the detector took,
+ * but never by more than maxExtrapolationNanos, so that a face which stopped being detected does not drift off. Once no
+ * result has arrived for staleNanos, there is no prediction at all.
+ *
+ * Results are reported on one thread and predictions made on another, typically the drawing thread; all methods are
+ * synchronized.
+ */
+class LandmarkPredictor {
+
+    static final float DEFAULT_ALPHA = 0.75f;
+    static final float DEFAULT_BETA = 0.35f;
+    static final long DEFAULT_MAX_EXTRAPOLATION_NANOS = 150000000L;
+    static final long DEFAULT_STALE_NANOS = 500000000L;
+
+    private final float alpha;
+    private final float beta;
+    private final long maxExtrapolationNanos;
+    private final long staleNanos;
+
+    //interleaved x, y of each point, and their velocities in pixels per second
+    private float[] positions = new float[0];
+    private float[] velocities = new float[0];
+    private int pointCount = 0;
+    private long lastTimestampNanos;
+    private boolean hasPoints = false;
+
+    LandmarkPredictor() {
+        this(DEFAULT_ALPHA, DEFAULT_BETA, DEFAULT_MAX_EXTRAPOLATION_NANOS, DEFAULT_STALE_NANOS);
+    }
+
+    LandmarkPredictor(float alpha, float beta, long maxExtrapolationNanos, long staleNanos) {
+        if (alpha <= 0f || alpha > 1f) {
+            throw new IllegalArgumentException("alpha must be in (0, 1]");
+        }
+        if (beta < 0f || beta > 2f || 4f - 2f * alpha - beta <= 0f) {
+            throw new IllegalArgumentException("beta must be in [0, 2] and 4 - 2 * alpha - beta positive");
+        }
+        if (maxExtrapolationNanos < 0 || staleNanos < 0) {
+            throw new IllegalArgumentException("times must not be negative");
+        }
+        this.alpha = alpha;
+        this.beta = beta;
+        this.maxExtrapolationNanos = maxExtrapolationNanos;
+        this.staleNanos = staleNanos;
+    }
+
+    /**
+     * Reports the points of a new result: count points, as interleaved x, y coordinates in xy, for a frame captured at
+     * timestampNanos. A result with a different number of points than the last, or after the last one has gone stale,
+     * starts the filter over.
+     */
+    synchronized void update(float[] xy, int count, long timestampNanos) {
+        long elapsedNanos = timestampNanos - lastTimestampNanos;
+        if (!hasPoints || count != pointCount || elapsedNanos <= 0 || elapsedNanos > staleNanos) {
+            if (positions.length < 2 * count) {
+                positions = new float[2 * count];
+                velocities = new float[2 * count];
+            }
+            System.arraycopy(xy, 0, positions, 0, 2 * count);
+            for (int i = 0; i < 2 * count; i++) {
+                velocities[i] = 0f;
+            }
+            pointCount = count;
+            lastTimestampNanos = timestampNanos;
+            hasPoints = true;
+            return;
+        }
+        float dt = elapsedNanos / 1e9f;
+        float velocityGain = beta / dt;
+        for (int i = 0; i < 2 * count; i++) {
+            float predicted = positions[i] + velocities[i] * dt;
+            float error = xy[i] - predicted;
+            positions[i] = predicted + alpha * error;
+            velocities[i] += velocityGain * error;
+        }
+        lastTimestampNanos = timestampNanos;
+    }
+
+    /**
+     * Writes the predicted points at nowNanos to out, as interleaved x, y coordinates, and returns their number, or 0 if
+     * there is no current prediction or out has no room for 2 * getPointCount() values.
+     */
+    synchronized int predict(long nowNanos, float[] out) {
+        if (!hasPoints || nowNanos - lastTimestampNanos > staleNanos || out.length < 2 * pointCount) {
+            return 0;
+        }
+        long aheadNanos = Math.max(0L, Math.min(nowNanos - lastTimestampNanos, maxExtrapolationNanos));
+        float ahead = aheadNanos / 1e9f;
+        for (int i = 0; i < 2 * pointCount; i++) {
+            out[i] = positions[i] + velocities[i] * ahead;
+        }
+        return pointCount;
+    }
+
+    synchronized int getPointCount() {
+        return hasPoints ? pointCount : 0;
+    }
+
+    /**
+     * Forgets the face, for example because detection has stopped.
+     */
+    synchronized void reset() {
+        hasPoints = false;
+    }
+}
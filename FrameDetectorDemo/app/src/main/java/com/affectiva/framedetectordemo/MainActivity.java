@@ -46,12 +46,73 @@ public class MainActivity extends Activity implements CameraView.OnCameraViewEve
     long numberSDKFramesReceived = 0;
     long lastSDKFPSResetTime = -1L;
 
-    //floats to ensure the timestamps we send to FrameDetector are sequentially increasing
-    float lastTimestamp = -1f;
-    final float epsilon = .01f;
+    //SDK frame rate the admission controller aims for; it will settle lower if the detector cannot keep up
+    static final float TARGET_SDK_FPS = 30f;
+
+    //a frame which has waited this long since capture is too stale to be worth the detector's time
+    static final long MAX_FRAME_AGE_MILLIS = 200;
 
     CameraView cameraView; // controls the camera
-    AsyncFrameDetector asyncDetector; // runs FrameDetector on a background thread
+    DrawingView drawingView; // draws the tracking dots of the displayed face over the preview
+    AsyncFrameDetector asyncDetector; // runs FrameDetector on background threads
+    final FramePreprocessor framePreprocessor = new FramePreprocessor(); // crops and downscales frames for the detector
+
+    //faces keep their IDs across results, and the panel follows one face, switching only once that face is gone
+    final FaceTracker faceTracker = new FaceTracker();
+    final int[] faceIds = new int[faceTracker.getMaxFaces()];
+    int displayedFaceId = FaceTracker.NO_FACE;
+
+    //per-frame scores flicker, so the panel shows them smoothed; the raw scores are published by metricStream as well
+    final MetricStream metricStream = new MetricStream();
+    final MetricStream.OnMetricsListener metricsPanelUpdater = new MetricStream.OnMetricsListener() {
+        @Override
+        public void onMetrics(int faceId, float[] scores, long timestampNanos) {
+            if (faceId != displayedFaceId) {
+                return;
+            }
+            for (Metrics metric : ALL_METRICS) {
+                float score = scores[metric.ordinal()];
+                if (Float.isNaN(score)) {
+                    metricsPanel.setMetricNA(metric);
+                } else {
+                    metricsPanel.setMetricValue(metric, score);
+                }
+            }
+        }
+    };
+
+    //frames of a scene that has not changed are not analyzed; the last results are repeated for them instead, for at most
+    //this long before a frame is analyzed regardless
+    static final long MOTION_GATE_MAX_SKIP_MILLIS = 1000;
+    final MotionGate motionGate = new MotionGate(MotionGate.DEFAULT_SAMPLE_STEP, MotionGate.DEFAULT_THRESHOLD,
+            MOTION_GATE_MAX_SKIP_MILLIS * 1000000L);
+
+    //reusable text buffers for the frame rate TextViews, and the metrics in display order, so per-frame updates don't allocate
+    final CharTextBuffer cameraFPSText = new CharTextBuffer(32);
+    final CharTextBuffer processorFPSText = new CharTextBuffer(32);
+    static final Metrics[] ALL_METRICS = Metrics.values();
+
+    //counts allocations made by the per-frame callbacks on the main thread; only enabled in debug builds
+    final AllocationCounter cameraFrameAllocations = new AllocationCounter("onCameraFrameAvailable", 300);
+    final AllocationCounter resultAllocations = new AllocationCounter("onImageResults", 300);
+
+    //upper limit on the number of FrameDetector instances we run in parallel, each of which costs memory and start-up time
+    static final int MAX_DETECTOR_WORKERS = 3;
+
+    //frames are downscaled for the detector as far as they can be while keeping at least this many pixels on the short side
+    static final int MIN_DETECTOR_FRAME_SIZE = 240;
+
+    //how long the detector is kept loaded after the activity is paused, so that switching back to the app is fast
+    static final long DETECTOR_SUSPEND_GRACE_MILLIS = 30000;
+
+    //picks the preview resolution the detector can keep up with, and changes it as the detector's capacity changes
+    final ResolutionGovernor resolutionGovernor = new ResolutionGovernor(TARGET_SDK_FPS);
+
+    //size and orientation of the last camera frame, to notice when the preview resolution or the device's orientation has
+    //been changed under us
+    int lastFrameWidth = 0;
+    int lastFrameHeight = 0;
+    boolean wasLastFrameSideways = false;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -69,6 +130,9 @@ public class MainActivity extends Activity implements CameraView.OnCameraViewEve
         //set up CameraView
         cameraView = (CameraView) findViewById(R.id.camera_view);
         cameraView.setOnCameraViewEventListener(this);
+        cameraView.setPreviewPixelBudget(resolutionGovernor.getPixelBudget());
+
+        drawingView = (DrawingView) findViewById(R.id.drawing_view);
 
         //set up CameraButton
         cameraButton = (Button) findViewById(R.id.camera_button);
@@ -100,8 +164,26 @@ public class MainActivity extends Activity implements CameraView.OnCameraViewEve
             }
         });
 
-        asyncDetector = new AsyncFrameDetector(this);
+        //leave roughly half of the cores to the camera, the UI, and the rest of the system
+        int detectorWorkers = Math.max(1, Math.min(MAX_DETECTOR_WORKERS, Runtime.getRuntime().availableProcessors() / 2));
+        //for live camera input we only ever want the detector to work on the freshest frame
+        asyncDetector = new AsyncFrameDetector(this, detectorWorkers, BackpressurePolicy.latestOnly());
+
+        //each worker may hold one frame queued and one being processed, and the camera needs one to write into and one in
+        //the callback we are handed; anything less and the camera would drop frames while the workers are busy
+        cameraView.setCallbackBufferCount(2 * detectorWorkers + 2);
+
+        //we only update views with the results, so there is no point in handling more than one per display frame
+        asyncDetector.setDeliveryMode(AsyncFrameDetector.DeliveryMode.COALESCED_VSYNC);
+        asyncDetector.getAdmissionController().setTargetFps(TARGET_SDK_FPS);
+        asyncDetector.setMaxFrameAge(MAX_FRAME_AGE_MILLIS);
+        //must come before any other listener, so they all see face points in full frame coordinates
+        asyncDetector.addOnDetectorEventListener(framePreprocessor, AsyncFrameDetector.DETECTOR_THREAD);
         asyncDetector.setOnDetectorEventListener(this);
+        metricStream.addSmoothedListener(metricsPanelUpdater);
+
+        cameraFrameAllocations.setEnabled(BuildConfig.DEBUG);
+        resultAllocations.setEnabled(BuildConfig.DEBUG);
 
         //Set up SDK Button
         sdkButton = (Button) findViewById(R.id.start_sdk_button);
@@ -110,11 +192,25 @@ public class MainActivity extends Activity implements CameraView.OnCameraViewEve
             public void onClick(View v) {
                 if (isSDKRunning) {
                     isSDKRunning = false;
+                    Log.i(LOG_TAG, "Pipeline latency (ms):\n" + asyncDetector.getLatencyStats().getSummary());
+                    Log.i(LOG_TAG, "Frames submitted " + asyncDetector.getFramesSubmitted() + ", dropped "
+                            + asyncDetector.getFramesDropped() + " (expired " + asyncDetector.getFramesExpired() + ")");
+                    Log.i(LOG_TAG, "Time to first result (ms): cold " + asyncDetector.getColdTimeToFirstResult()
+                            + ", warm " + asyncDetector.getWarmTimeToFirstResult());
+                    Log.i(LOG_TAG, "Frames skipped as unchanged " + motionGate.getFramesSkipped() + ", of which "
+                            + asyncDetector.getFramesRepeated() + " got the previous results again");
+                    Log.i(LOG_TAG, "Detector worker restarts: " + asyncDetector.getWorkerRestarts()
+                            + ", downtime (ms): " + asyncDetector.getWorkerDowntime());
+                    Log.i(LOG_TAG, "Camera callback buffers: " + cameraView.getCallbackRingMonitor().getSummary());
+                    Log.i(LOG_TAG, "Preview pixel budget " + resolutionGovernor.getPixelBudget() + ", downshifts "
+                            + resolutionGovernor.getDownshifts() + ", upshifts " + resolutionGovernor.getUpshifts());
                     asyncDetector.stop();
+                    drawingView.invalidatePoints();
                     sdkButton.setText("Start SDK");
                 } else {
                     isSDKRunning = true;
                     asyncDetector.start();
+                    resolutionGovernor.restart();
                     sdkButton.setText("Stop SDK");
                 }
                 resetFPS();
@@ -132,9 +228,16 @@ public class MainActivity extends Activity implements CameraView.OnCameraViewEve
         if (isCameraStarted) {
             cameraView.stopCamera();
         }
-        cameraView.startCamera(isCameraFront ? CameraHelper.CameraType.CAMERA_FRONT : CameraHelper.CameraType.CAMERA_BACK);
+        cameraView.startCamera(isCameraFront ? CameraSource.CameraType.CAMERA_FRONT : CameraSource.CameraType.CAMERA_BACK);
         isCameraStarted = true;
+        drawingView.setMirrored(isCameraFront);
+        drawingView.invalidatePoints();
+        resolutionGovernor.restart();
         asyncDetector.reset();
+        framePreprocessor.reset();
+        motionGate.reset();
+        faceTracker.reset();
+        metricStream.reset();
     }
 
     void stopCamera() {
@@ -143,6 +246,7 @@ public class MainActivity extends Activity implements CameraView.OnCameraViewEve
 
         cameraView.stopCamera();
         isCameraStarted = false;
+        drawingView.invalidatePoints();
     }
 
 
@@ -163,117 +267,53 @@ public class MainActivity extends Activity implements CameraView.OnCameraViewEve
     public void onPause() {
         super.onPause();
         if (asyncDetector.isRunning()) {
-            asyncDetector.stop();
+            asyncDetector.suspend(DETECTOR_SUSPEND_GRACE_MILLIS);
         }
         stopCamera();
     }
 
-    float getScore(Metrics metric, Face face) {
-
-        float score;
-
-        switch (metric) {
-            case ANGER:
-                score = face.emotions.getAnger();
-                break;
-            case CONTEMPT:
-                score = face.emotions.getContempt();
-                break;
-            case DISGUST:
-                score = face.emotions.getDisgust();
-                break;
-            case FEAR:
-                score = face.emotions.getFear();
-                break;
-            case JOY:
-                score = face.emotions.getJoy();
-                break;
-            case SADNESS:
-                score = face.emotions.getSadness();
-                break;
-            case SURPRISE:
-                score = face.emotions.getSurprise();
-                break;
-            case ATTENTION:
-                score = face.expressions.getAttention();
-                break;
-            case BROW_FURROW:
-                score = face.expressions.getBrowFurrow();
-                break;
-            case BROW_RAISE:
-                score = face.expressions.getBrowRaise();
-                break;
-            case CHIN_RAISER:
-                score = face.expressions.getChinRaise();
-                break;
-            case ENGAGEMENT:
-                score = face.emotions.getEngagement();
-                break;
-            case EYE_CLOSURE:
-                score = face.expressions.getEyeClosure();
-                break;
-            case INNER_BROW_RAISER:
-                score = face.expressions.getInnerBrowRaise();
-                break;
-            case LIP_DEPRESSOR:
-                score = face.expressions.getLipCornerDepressor();
-                break;
-            case LIP_PRESS:
-                score = face.expressions.getLipPress();
-                break;
-            case LIP_PUCKER:
-                score = face.expressions.getLipPucker();
-                break;
-            case LIP_SUCK:
-                score = face.expressions.getLipSuck();
-                break;
-            case MOUTH_OPEN:
-                score = face.expressions.getMouthOpen();
-                break;
-            case NOSE_WRINKLER:
-                score = face.expressions.getNoseWrinkle();
-                break;
-            case SMILE:
-                score = face.expressions.getSmile();
-                break;
-            case SMIRK:
-                score = face.expressions.getSmirk();
-                break;
-            case UPPER_LIP_RAISER:
-                score = face.expressions.getUpperLipRaise();
-                break;
-            case VALENCE:
-                score = face.emotions.getValence();
-                break;
-            case YAW:
-                score = face.measurements.orientation.getYaw();
-                break;
-            case ROLL:
-                score = face.measurements.orientation.getRoll();
-                break;
-            case PITCH:
-                score = face.measurements.orientation.getPitch();
-                break;
-            case INTER_OCULAR_DISTANCE:
-                score = face.measurements.getInterocularDistance();
-                break;
-            default:
-                score = Float.NaN;
-                break;
-        }
-        return score;
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        asyncDetector.releaseSuspendedWorkers();
     }
 
     @Override
-    public void onCameraFrameAvailable(byte[] frame, int width, int height, Frame.ROTATE rotation) {
+    public void onCameraFrameAvailable(FrameBuffer frame, int width, int height, Frame.ROTATE rotation, long captureNanos) {
+        cameraFrameAllocations.begin();
         numberCameraFramesReceived += 1;
-        cameraFPS.setText(String.format("CAM: %.3f", 1000f * (float) numberCameraFramesReceived / (SystemClock.elapsedRealtime() - lastCameraFPSResetTime)));
+        cameraFPSText.clear().append("CAM: ").append(1000f * (float) numberCameraFramesReceived / (SystemClock.elapsedRealtime() - lastCameraFPSResetTime), 3);
+        cameraFPS.setText(cameraFPSText.getChars(), 0, cameraFPSText.length());
+
+        boolean isSideways = (FramePreprocessor.getQuarterTurns(rotation) & 1) != 0;
+        if (width != lastFrameWidth || height != lastFrameHeight || isSideways != wasLastFrameSideways) {
+            if (lastFrameWidth != 0) {
+                onFrameSizeChanged();
+            }
+            lastFrameWidth = width;
+            lastFrameHeight = height;
+            wasLastFrameSideways = isSideways;
+            //face points reach listeners in upright full frame coordinates
+            if (isSideways) {
+                drawingView.updateImageDimensions(height, width);
+            } else {
+                drawingView.updateImageDimensions(width, height);
+            }
+        }
 
-        float timeStamp = (float)SystemClock.elapsedRealtime()/1000f;
-        if (timeStamp > (lastTimestamp + epsilon)) {
-            lastTimestamp = timeStamp;
-            asyncDetector.process(createFrameFromData(frame,width,height,rotation),timeStamp);
+        if (motionGate.hasChanged(frame.getData(), width, height, captureNanos)) {
+            framePreprocessor.setDownscaleFactor(getDownscaleFactor(width, height));
+            Frame detectorFrame = framePreprocessor.getFrame(frame,width,height,rotation);
+            if (asyncDetector.process(detectorFrame,captureNanos,frame)) {
+                //only a frame the detector took may stand in for the ones that follow
+                motionGate.commitReference(frame.getData(), width, height, captureNanos);
+                //the detector's cost follows the frames it is given, downscaled and cropped, rather than the preview size
+                resolutionGovernor.recordDetectorFrame(captureNanos, detectorFrame.getWidth() * detectorFrame.getHeight());
+            }
+        } else {
+            asyncDetector.processUnchanged(framePreprocessor.getFullFrame(frame,width,height,rotation),captureNanos,frame);
         }
+        cameraFrameAllocations.end();
     }
 
     @Override
@@ -284,34 +324,67 @@ public class MainActivity extends Activity implements CameraView.OnCameraViewEve
     @Override
     public void onSurfaceViewSizeChanged() {
         asyncDetector.reset();
+        framePreprocessor.reset();
+        motionGate.reset();
+        faceTracker.reset();
+        metricStream.reset();
     }
 
-    float lastReceivedTimestamp = -1f;
+    /*
+        The preview resolution changed while the camera kept running, as when resolutionGovernor switches it, or the device
+        was turned between portrait and landscape. Face positions from before are in the coordinates of the old upright
+        frame, so the ROI and the face identities start over. FrameDetector
+        itself is left alone: it is handed frames of varying size all the time, as the ROI moves, and resetting it would
+        make it search for faces from scratch and throw away the frames in flight. The MotionGate notices the new size on
+        its own.
+     */
+    void onFrameSizeChanged() {
+        framePreprocessor.reset();
+        faceTracker.reset();
+    }
+
+    long lastReceivedTimestamp = Long.MIN_VALUE;
 
     @Override
-    public void onImageResults(List<Face> faces, Frame image, float timeStamp) {
-        //statusTextView.setText(String.format("Most recent time stamp: %.4f",timeStamp));
-        if (timeStamp < lastReceivedTimestamp)
+    public void onImageResults(List<Face> faces, Frame image, long timestampNanos) {
+        if (timestampNanos < lastReceivedTimestamp)
             throw new RuntimeException("Got a timestamp out of order!");
-        lastReceivedTimestamp = timeStamp;
-        Log.e("MainActivity", String.valueOf(timeStamp));
+        lastReceivedTimestamp = timestampNanos;
 
-        if (faces == null)
+        if (resolutionGovernor.update(timestampNanos, asyncDetector.getAdmissionController().getCapacity())) {
+            cameraView.setPreviewPixelBudget(resolutionGovernor.getPixelBudget());
+        }
+
+        if (faces == null) {
+            drawingView.invalidatePoints();
             return; //No Face Detected
-        if (faces.size() ==0) {
-            for (Metrics metric : Metrics.values()) {
-                metricsPanel.setMetricNA(metric);
-            }
+        }
+        resultAllocations.begin();
+        faceTracker.beginFrame();
+        for (int i = 0; i < faces.size(); i++) {
+            faceTracker.addFace(faces.get(i).getFacePoints());
+        }
+        int faceCount = faceTracker.endFrame(timestampNanos, faceIds);
+        displayedFaceId = FaceTracker.chooseFace(displayedFaceId, faceIds, faceCount);
+        if (displayedFaceId == FaceTracker.NO_FACE) {
+            metricStream.onNoFace(timestampNanos);
+            drawingView.invalidatePoints();
         } else {
-            Face face = faces.get(0);
-            for (Metrics metric : Metrics.values()) {
-                metricsPanel.setMetricValue(metric,getScore(metric,face));
+            float distanceScale = framePreprocessor.getDistanceScale(image);
+            for (int i = 0; i < faceCount; i++) {
+                if (faceIds[i] != FaceTracker.NO_FACE) {
+                    metricStream.onFace(faceIds[i], faces.get(i), distanceScale, timestampNanos);
+                }
+                if (faceIds[i] == displayedFaceId) {
+                    drawingView.updatePoints(faces.get(i).getFacePoints(), timestampNanos);
+                }
             }
         }
 
         numberSDKFramesReceived += 1;
-        processorFPS.setText(String.format("SDK: %.3f", 1000f * (float) numberSDKFramesReceived / (SystemClock.elapsedRealtime() - lastSDKFPSResetTime)));
-
+        processorFPSText.clear().append("SDK: ").append(1000f * (float) numberSDKFramesReceived / (SystemClock.elapsedRealtime() - lastSDKFPSResetTime), 3);
+        processorFPS.setText(processorFPSText.getChars(), 0, processorFPSText.length());
+        resultAllocations.end();
     }
 
     @Override
@@ -319,6 +392,27 @@ public class MainActivity extends Activity implements CameraView.OnCameraViewEve
 
     }
 
+    @Override
+    public void onDetectorFailed() {
+        //the pipeline has already logged why; leave it to the user to try again
+        if (isSDKRunning) {
+            isSDKRunning = false;
+            asyncDetector.stop();
+            drawingView.invalidatePoints();
+            sdkButton.setText("Start SDK");
+            resetFPS();
+        }
+    }
+
+    static int getDownscaleFactor(int width, int height) {
+        int shortSide = Math.min(width, height);
+        int factor = 1;
+        while (factor < 4 && shortSide / (factor * 2) >= MIN_DETECTOR_FRAME_SIZE) {
+            factor *= 2;
+        }
+        return factor;
+    }
+
     static Frame createFrameFromData(byte[] frameData, int width, int height, Frame.ROTATE rotation) {
         Frame.ByteArrayFrame frame = new Frame.ByteArrayFrame(frameData, width, height, Frame.COLOR_FORMAT.YUV_NV21);
         frame.setTargetRotation(rotation);
@@ -0,0 +1,51 @@
+package com.affectiva.framedetectordemo;
+
+/**
+ * A thread which handles messages one at a time, in the order they were sent: how DetectorPipeline talks to its workers,
+ * and its workers to the main thread. On Android this is a Handler on a Looper (HandlerMessageLoop); where the pipeline
+ * runs on a plain JVM, in unit tests and benchmarks, it is a ThreadMessageLoop.
+ *
+ * Like android.os.Message, a message is a code plus an optional object, so that sending one need not allocate.
+ */
+interface MessageLoop {
+
+    interface Callback {
+        void handleMessage(int what, Object obj);
+    }
+
+    interface Factory {
+        /**
+         * Starts a new thread whose loop hands every message to callback. Returns once the loop can take messages.
+         */
+        MessageLoop startLoop(String name, Callback callback);
+
+        /**
+         * Returns a loop on the thread results are delivered on, the main thread on Android, which hands every message
+         * to callback.
+         */
+        MessageLoop mainLoop(Callback callback);
+    }
+
+    void sendMessage(int what, Object obj);
+
+    /**
+     * Sends a message to be handled when the next display frame starts, if the loop's thread draws frames. Otherwise this
+     * is the same as sendMessage(what, null).
+     */
+    void sendMessageAtNextFrame(int what);
+
+    /**
+     * Removes the messages with the given code which have not been handled yet.
+     */
+    void removeMessages(int what);
+
+    void postDelayed(Runnable task, long delayMillis);
+
+    void removeCallbacks(Runnable task);
+
+    /**
+     * Stops the loop's thread once the message being handled, if any, is done. Messages not handled yet are dropped, and
+     * those sent from now on are ignored. Does nothing for the main loop.
+     */
+    void quit();
+}
@@ -0,0 +1,116 @@
+package com.affectiva.framedetectordemo;
+
+import com.affectiva.android.affdex.sdk.detector.Face;
+
+/**
+ * Reads the score of a metric from a Face reported by the SDK.
+ */
+class MetricScores {
+
+    private MetricScores() {
+    }
+
+    static float getScore(Metrics metric, Face face) {
+        return getScore(metric, face, 1f);
+    }
+
+    /**
+     * Returns the score of a metric, with distances multiplied by distanceScale, which converts them from the pixels of the
+     * image the detector was given to those of the camera frame. See FramePreprocessor.getDistanceScale().
+     */
+    static float getScore(Metrics metric, Face face, float distanceScale) {
+
+        float score;
+
+        switch (metric) {
+            case ANGER:
+                score = face.emotions.getAnger();
+                break;
+            case CONTEMPT:
+                score = face.emotions.getContempt();
+                break;
+            case DISGUST:
+                score = face.emotions.getDisgust();
+                break;
+            case FEAR:
+                score = face.emotions.getFear();
+                break;
+            case JOY:
+                score = face.emotions.getJoy();
+                break;
+            case SADNESS:
+                score = face.emotions.getSadness();
+                break;
+            case SURPRISE:
+                score = face.emotions.getSurprise();
+                break;
+            case ATTENTION:
+                score = face.expressions.getAttention();
+                break;
+            case BROW_FURROW:
+                score = face.expressions.getBrowFurrow();
+                break;
+            case BROW_RAISE:
+                score = face.expressions.getBrowRaise();
+                break;
+            case CHIN_RAISER:
+                score = face.expressions.getChinRaise();
+                break;
+            case ENGAGEMENT:
+                score = face.emotions.getEngagement();
+                break;
+            case EYE_CLOSURE:
+                score = face.expressions.getEyeClosure();
+                break;
+            case INNER_BROW_RAISER:
+                score = face.expressions.getInnerBrowRaise();
+                break;
+            case LIP_DEPRESSOR:
+                score = face.expressions.getLipCornerDepressor();
+                break;
+            case LIP_PRESS:
+                score = face.expressions.getLipPress();
+                break;
+            case LIP_PUCKER:
+                score = face.expressions.getLipPucker();
+                break;
+            case LIP_SUCK:
+                score = face.expressions.getLipSuck();
+                break;
+            case MOUTH_OPEN:
+                score = face.expressions.getMouthOpen();
+                break;
+            case NOSE_WRINKLER:
+                score = face.expressions.getNoseWrinkle();
+                break;
+            case SMILE:
+                score = face.expressions.getSmile();
+                break;
+            case SMIRK:
+                score = face.expressions.getSmirk();
+                break;
+            case UPPER_LIP_RAISER:
+                score = face.expressions.getUpperLipRaise();
+                break;
+            case VALENCE:
+                score = face.emotions.getValence();
+                break;
+            case YAW:
+                score = face.measurements.orientation.getYaw();
+                break;
+            case ROLL:
+                score = face.measurements.orientation.getRoll();
+                break;
+            case PITCH:
+                score = face.measurements.orientation.getPitch();
+                break;
+            case INTER_OCULAR_DISTANCE:
+                score = face.measurements.getInterocularDistance() * distanceScale;
+                break;
+            default:
+                score = Float.NaN;
+                break;
+        }
+        return score;
+    }
+}
@@ -0,0 +1,205 @@
+package com.affectiva.framedetectordemo;
+
+/**
+ * Smooths the per-frame scores of each metric over time, with a filter chosen per metric:
+ * NONE        - scores pass through unchanged.
+ * EMA         - exponential moving average: each score moves the output by alpha of the difference.
+ * ONE_EURO    - the One Euro filter (Casiez et al., CHI 2012), a low-pass filter whose cutoff frequency rises with the
+ *               speed of change, so that a steady score is smoothed heavily but a real change is followed with little lag.
+ * MEDIAN      - median of the last n scores, which removes isolated spikes without blurring steps.
+ *
+ * All state is kept in flat arrays indexed by metric ordinal, allocated up front, so smoothing adds no allocation per
+ * result. NaN scores (metric not available) pass through without affecting the state. Not thread safe.
+ */
+class MetricSmoother {
+
+    enum Filter {
+        NONE, EMA, ONE_EURO, MEDIAN
+    }
+
+    static final float DEFAULT_EMA_ALPHA = 0.3f;
+    static final float DEFAULT_MIN_CUTOFF_HZ = 1f;
+    static final float DEFAULT_BETA = 0.01f;
+    static final float DERIVATIVE_CUTOFF_HZ = 1f;
+    static final int DEFAULT_MEDIAN_SIZE = 5;
+    static final int MAX_MEDIAN_SIZE = 9;
+
+    private static final int METRIC_COUNT = Metrics.values().length;
+
+    //configuration, which may be shared with other smoothers
+    private final Filter[] filters;
+    private final float[] emaAlphas;
+    private final float[] minCutoffs;
+    private final float[] betas;
+    private final int[] medianSizes;
+
+    //state
+    private final boolean[] hasValue = new boolean[METRIC_COUNT];
+    private final float[] values = new float[METRIC_COUNT];
+    private final float[] derivatives = new float[METRIC_COUNT];
+    private final long[] lastNanos = new long[METRIC_COUNT];
+    private final float[] windows = new float[METRIC_COUNT * MAX_MEDIAN_SIZE];
+    private final int[] windowCounts = new int[METRIC_COUNT];
+    private final int[] windowNext = new int[METRIC_COUNT];
+    private final float[] sortScratch = new float[MAX_MEDIAN_SIZE];
+
+    /**
+     * Creates a smoother which applies a One Euro filter with the default parameters to every metric.
+     */
+    MetricSmoother() {
+        filters = new Filter[METRIC_COUNT];
+        emaAlphas = new float[METRIC_COUNT];
+        minCutoffs = new float[METRIC_COUNT];
+        betas = new float[METRIC_COUNT];
+        medianSizes = new int[METRIC_COUNT];
+        for (Metrics metric : Metrics.values()) {
+            setOneEuro(metric, DEFAULT_MIN_CUTOFF_HZ, DEFAULT_BETA);
+        }
+    }
+
+    /**
+     * Creates a smoother with state of its own, for another face, which filters each metric the way configuration does,
+     * including as it is changed later. Smoothers sharing a configuration must be reset when it changes, as only the one
+     * changed is reset by the setters.
+     */
+    MetricSmoother(MetricSmoother configuration) {
+        if (configuration == null) {
+            throw new NullPointerException("configuration must not be null");
+        }
+        filters = configuration.filters;
+        emaAlphas = configuration.emaAlphas;
+        minCutoffs = configuration.minCutoffs;
+        betas = configuration.betas;
+        medianSizes = configuration.medianSizes;
+    }
+
+    void setNone(Metrics metric) {
+        configure(metric, Filter.NONE);
+    }
+
+    void setEma(Metrics metric, float alpha) {
+        if (alpha <= 0f || alpha > 1f) {
+            throw new IllegalArgumentException("alpha must be in (0, 1]");
+        }
+        emaAlphas[metric.ordinal()] = alpha;
+        configure(metric, Filter.EMA);
+    }
+
+    /**
+     * minCutoffHz is the cutoff frequency while the score is steady; lower means smoother. beta is how fast the cutoff
+     * rises with the speed of change, in Hz per score unit per second; higher means less lag on changes.
+     */
+    void setOneEuro(Metrics metric, float minCutoffHz, float beta) {
+        if (minCutoffHz <= 0f) {
+            throw new IllegalArgumentException("minCutoffHz must be positive");
+        }
+        if (beta < 0f) {
+            throw new IllegalArgumentException("beta must not be negative");
+        }
+        minCutoffs[metric.ordinal()] = minCutoffHz;
+        betas[metric.ordinal()] = beta;
+        configure(metric, Filter.ONE_EURO);
+    }
+
+    void setMedian(Metrics metric, int size) {
+        if (size < 1 || size > MAX_MEDIAN_SIZE) {
+            throw new IllegalArgumentException("size must be between 1 and " + MAX_MEDIAN_SIZE);
+        }
+        medianSizes[metric.ordinal()] = size;
+        configure(metric, Filter.MEDIAN);
+    }
+
+    Filter getFilter(Metrics metric) {
+        return filters[metric.ordinal()];
+    }
+
+    private void configure(Metrics metric, Filter filter) {
+        filters[metric.ordinal()] = filter;
+        reset(metric);
+    }
+
+    /**
+     * Returns the smoothed value of a metric, given its raw score for a frame captured at timestampNanos.
+     */
+    float smooth(Metrics metric, float raw, long timestampNanos) {
+        if (Float.isNaN(raw)) {
+            return raw;
+        }
+        int i = metric.ordinal();
+        Filter filter = filters[i];
+        if (filter == Filter.NONE) {
+            return raw;
+        }
+        if (filter == Filter.MEDIAN) {
+            return median(i, raw);
+        }
+        if (!hasValue[i]) {
+            hasValue[i] = true;
+            values[i] = raw;
+            derivatives[i] = 0f;
+            lastNanos[i] = timestampNanos;
+            return raw;
+        }
+        if (filter == Filter.EMA) {
+            values[i] += emaAlphas[i] * (raw - values[i]);
+        } else {
+            float dt = (timestampNanos - lastNanos[i]) / 1e9f;
+            if (dt <= 0f) {
+                return values[i];
+            }
+            float derivative = (raw - values[i]) / dt;
+            derivatives[i] += smoothingFactor(DERIVATIVE_CUTOFF_HZ, dt) * (derivative - derivatives[i]);
+            float cutoff = minCutoffs[i] + betas[i] * Math.abs(derivatives[i]);
+            values[i] += smoothingFactor(cutoff, dt) * (raw - values[i]);
+        }
+        lastNanos[i] = timestampNanos;
+        return values[i];
+    }
+
+    /**
+     * Forgets the history of every metric, for example when the face is lost.
+     */
+    void reset() {
+        for (Metrics metric : Metrics.values()) {
+            reset(metric);
+        }
+    }
+
+    void reset(Metrics metric) {
+        int i = metric.ordinal();
+        hasValue[i] = false;
+        windowCounts[i] = 0;
+        windowNext[i] = 0;
+    }
+
+    //the weight of a new sample in a first order low-pass filter with the given cutoff, sampled dt seconds apart
+    private static float smoothingFactor(float cutoffHz, float dt) {
+        float tau = 1f / (2f * (float) Math.PI * cutoffHz);
+        return 1f / (1f + tau / dt);
+    }
+
+    private float median(int i, float raw) {
+        int size = medianSizes[i];
+        int base = i * MAX_MEDIAN_SIZE;
+        windows[base + windowNext[i]] = raw;
+        windowNext[i] = (windowNext[i] + 1) % size;
+        if (windowCounts[i] < size) {
+            windowCounts[i] += 1;
+        }
+        int count = windowCounts[i];
+        //insertion sort; the window is at most MAX_MEDIAN_SIZE long
+        for (int k = 0; k < count; k++) {
+            float value = windows[base + k];
+            int j = k - 1;
+            while (j >= 0 && sortScratch[j] > value) {
+                sortScratch[j + 1] = sortScratch[j];
+                j--;
+            }
+            sortScratch[j + 1] = value;
+        }
+        if ((count & 1) == 1) {
+            return sortScratch[count / 2];
+        }
+        return (sortScratch[count / 2 - 1] + sortScratch[count / 2]) / 2f;
+    }
+}
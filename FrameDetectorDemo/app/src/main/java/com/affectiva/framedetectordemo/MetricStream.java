@@ -0,0 +1,151 @@
+package com.affectiva.framedetectordemo;
+
+import com.affectiva.android.affdex.sdk.detector.Face;
+
+import java.util.ArrayList;
+
+/**
+ * Turns detector results into streams of metric scores, raw and smoothed by a MetricSmoother, which consumers subscribe
+ * to separately: a display wants smoothed scores, while logging or analysis may want the raw ones.
+ *
+ * Scores are published per face, under the face's ID from a FaceTracker, and each face is smoothed separately, so that
+ * one person's scores are never blended into another's. Smoothing state is allocated up front for maxFaces faces; a new
+ * face takes over the state of the face seen longest ago.
+ *
+ * Scores are handed to listeners in arrays indexed by metric ordinal, with NaN for metrics that are not available. The
+ * arrays are reused for every result, so listeners which keep scores must copy them. Must be used on a single thread,
+ * normally the main thread.
+ */
+class MetricStream {
+
+    interface OnMetricsListener {
+        /**
+         * faceId is the ID of the face the scores are for, or FaceTracker.NO_FACE, with every score NaN, for a result
+         * without faces.
+         */
+        void onMetrics(int faceId, float[] scores, long timestampNanos);
+    }
+
+    private static final Metrics[] ALL_METRICS = Metrics.values();
+
+    //the configuration every face is smoothed with; reset() the stream after changing it
+    final MetricSmoother smoother;
+
+    //per face state: the face's ID, or NO_FACE if free, its smoother, and when it was last seen
+    private final int[] faceIds;
+    private final MetricSmoother[] faceSmoothers;
+    private final long[] faceLastSeenNanos;
+
+    private final float[] rawScores = new float[ALL_METRICS.length];
+    private final float[] smoothedScores = new float[ALL_METRICS.length];
+    private final ArrayList<OnMetricsListener> rawListeners = new ArrayList<>();
+    private final ArrayList<OnMetricsListener> smoothedListeners = new ArrayList<>();
+
+    MetricStream() {
+        this(new MetricSmoother(), FaceTracker.DEFAULT_MAX_FACES);
+    }
+
+    MetricStream(MetricSmoother smoother, int maxFaces) {
+        if (smoother == null) {
+            throw new NullPointerException("smoother must not be null");
+        }
+        if (maxFaces < 1) {
+            throw new IllegalArgumentException("maxFaces must be at least 1");
+        }
+        this.smoother = smoother;
+        faceIds = new int[maxFaces];
+        faceSmoothers = new MetricSmoother[maxFaces];
+        faceLastSeenNanos = new long[maxFaces];
+        for (int i = 0; i < maxFaces; i++) {
+            faceIds[i] = FaceTracker.NO_FACE;
+            faceSmoothers[i] = new MetricSmoother(smoother);
+        }
+    }
+
+    void addRawListener(OnMetricsListener listener) {
+        if (listener == null) {
+            throw new NullPointerException("listener must not be null");
+        }
+        rawListeners.add(listener);
+    }
+
+    void addSmoothedListener(OnMetricsListener listener) {
+        if (listener == null) {
+            throw new NullPointerException("listener must not be null");
+        }
+        smoothedListeners.add(listener);
+    }
+
+    void removeListener(OnMetricsListener listener) {
+        rawListeners.remove(listener);
+        smoothedListeners.remove(listener);
+    }
+
+    /**
+     * Publishes the scores of the face with ID faceId, found in a frame captured at timestampNanos. distanceScale is
+     * passed on to MetricScores.getScore().
+     */
+    void onFace(int faceId, Face face, float distanceScale, long timestampNanos) {
+        if (faceId == FaceTracker.NO_FACE) {
+            throw new IllegalArgumentException("faceId must be a tracked face's ID");
+        }
+        MetricSmoother faceSmoother = faceSmoothers[findFace(faceId, timestampNanos)];
+        for (int i = 0; i < ALL_METRICS.length; i++) {
+            float raw = MetricScores.getScore(ALL_METRICS[i], face, distanceScale);
+            rawScores[i] = raw;
+            smoothedScores[i] = faceSmoother.smooth(ALL_METRICS[i], raw, timestampNanos);
+        }
+        publish(faceId, timestampNanos);
+    }
+
+    /**
+     * Publishes a frame without a face: every score is NaN. The faces seen last are smoothed as before if they come
+     * back with the same IDs.
+     */
+    void onNoFace(long timestampNanos) {
+        for (int i = 0; i < ALL_METRICS.length; i++) {
+            rawScores[i] = Float.NaN;
+            smoothedScores[i] = Float.NaN;
+        }
+        publish(FaceTracker.NO_FACE, timestampNanos);
+    }
+
+    /**
+     * Forgets every face, so that smoothing starts over; call along with FaceTracker.reset(), or after changing the
+     * configuration of smoother.
+     */
+    void reset() {
+        for (int i = 0; i < faceIds.length; i++) {
+            faceIds[i] = FaceTracker.NO_FACE;
+            faceSmoothers[i].reset();
+        }
+    }
+
+    //returns the state kept for a face, taking over that of an unused slot or else of the face seen longest ago
+    private int findFace(int faceId, long timestampNanos) {
+        int oldest = 0;
+        for (int i = 0; i < faceIds.length; i++) {
+            if (faceIds[i] == faceId) {
+                faceLastSeenNanos[i] = timestampNanos;
+                return i;
+            }
+            if (faceIds[oldest] != FaceTracker.NO_FACE
+                    && (faceIds[i] == FaceTracker.NO_FACE || faceLastSeenNanos[i] < faceLastSeenNanos[oldest])) {
+                oldest = i;
+            }
+        }
+        faceIds[oldest] = faceId;
+        faceLastSeenNanos[oldest] = timestampNanos;
+        faceSmoothers[oldest].reset();
+        return oldest;
+    }
+
+    private void publish(int faceId, long timestampNanos) {
+        for (int i = 0; i < rawListeners.size(); i++) {
+            rawListeners.get(i).onMetrics(faceId, rawScores, timestampNanos);
+        }
+        for (int i = 0; i < smoothedListeners.size(); i++) {
+            smoothedListeners.get(i).onMetrics(faceId, smoothedScores, timestampNanos);
+        }
+    }
+}
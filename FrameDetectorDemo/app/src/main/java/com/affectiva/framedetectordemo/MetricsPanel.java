@@ -17,6 +17,8 @@ import java.util.EnumMap;
 public class MetricsPanel extends Fragment {
 
     EnumMap<Metrics,TextView> metricsTextViews = new EnumMap<>(Metrics.class);
+    //one text buffer per score TextView, indexed by metric ordinal, so that updating scores does not allocate Strings
+    CharTextBuffer[] scoreTexts = new CharTextBuffer[Metrics.numberOfMetrics()];
     int headerColor;
     int metricColor1;
     int metricColor2;
@@ -29,7 +31,9 @@ public class MetricsPanel extends Fragment {
     }
 
     public void setMetricValue(Metrics metric, float value) {
-        metricsTextViews.get(metric).setText(String.format("%.3f", value));
+        CharTextBuffer text = scoreTexts[metric.ordinal()];
+        text.clear().append(value, 3);
+        metricsTextViews.get(metric).setText(text.getChars(), 0, text.length());
     }
 
     public void setMetricNA(Metrics metric) {
@@ -77,6 +81,7 @@ public class MetricsPanel extends Fragment {
             TextView metricTextView = createScoreTextView(metric,context,metricColor);
             metricTextView.setBackgroundColor(metricColor);
             metricsTextViews.put(metric, metricTextView);
+            scoreTexts[metric.ordinal()] = new CharTextBuffer(16);
             container.addView(metricTextView);
         }
     }
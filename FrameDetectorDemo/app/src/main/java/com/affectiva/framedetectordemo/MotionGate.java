@@ -0,0 +1,145 @@
+package com.affectiva.framedetectordemo;
+
+/**
+ * A cheap test of whether a camera frame differs enough from the last one the detector analyzed to be worth analyzing.
+ *
+ * The luma plane is sampled on a sparse grid, and the samples compared with those of the last analyzed frame. The grid is
+ * divided into cells, and a frame counts as changed as soon as the mean absolute difference in any one cell exceeds the
+ * threshold, so that a small moving object is not averaged away by a large still background, while sensor noise spread
+ * over the whole frame is. Frames are compared with the last analyzed frame rather than the previous one, so slow changes
+ * add up until they are noticed. However still the scene, a frame is analyzed at least once every maxSkipNanos.
+ *
+ * Asking whether a frame has changed and making it the new reference are separate steps, since a changed frame may still
+ * be turned away by the detector, and a frame which was never analyzed must not become the one later frames are
+ * compared with.
+ *
+ * Not thread safe; meant to be used on the thread frames are delivered on.
+ */
+class MotionGate {
+
+    //distance in pixels between samples, in both directions
+    static final int DEFAULT_SAMPLE_STEP = 16;
+
+    //mean absolute luma difference, out of 255, above which a cell counts as changed
+    static final int DEFAULT_THRESHOLD = 6;
+
+    static final long DEFAULT_MAX_SKIP_NANOS = 1000000000L;
+
+    static final int CELLS_X = 8;
+    static final int CELLS_Y = 6;
+
+    private final int sampleStep;
+    private final int threshold;
+    private final long maxSkipNanos;
+
+    private byte[] reference;
+    private int referenceWidth;
+    private int referenceHeight;
+    private long lastAnalyzedNanos;
+    private final int[] cellSums = new int[CELLS_X * CELLS_Y];
+    private final int[] cellCounts = new int[CELLS_X * CELLS_Y];
+
+    private long framesAnalyzed = 0;
+    private long framesSkipped = 0;
+
+    MotionGate() {
+        this(DEFAULT_SAMPLE_STEP, DEFAULT_THRESHOLD, DEFAULT_MAX_SKIP_NANOS);
+    }
+
+    MotionGate(int sampleStep, int threshold, long maxSkipNanos) {
+        if (sampleStep < 1) {
+            throw new IllegalArgumentException("sampleStep must be at least 1");
+        }
+        if (threshold < 0) {
+            throw new IllegalArgumentException("threshold must not be negative");
+        }
+        if (maxSkipNanos < 0) {
+            throw new IllegalArgumentException("maxSkipNanos must not be negative");
+        }
+        this.sampleStep = sampleStep;
+        this.threshold = threshold;
+        this.maxSkipNanos = maxSkipNanos;
+    }
+
+    /**
+     * Returns true if the frame should be analyzed, and false if it is so like the last analyzed frame that the detector's
+     * results for that one still hold. data holds the frame in NV21 (or any format starting with a full resolution luma
+     * plane), and captureNanos is its capture time. A frame found to have changed only becomes the frame later ones are
+     * compared with once it is passed to commitReference(), which should be done when the detector has taken it.
+     */
+    boolean hasChanged(byte[] data, int width, int height, long captureNanos) {
+        if (reference == null || width != referenceWidth || height != referenceHeight
+                || captureNanos - lastAnalyzedNanos >= maxSkipNanos
+                || differsFromReference(data, width, Math.max(1, width / sampleStep), Math.max(1, height / sampleStep))) {
+            return true;
+        }
+        framesSkipped += 1;
+        return false;
+    }
+
+    /**
+     * Makes the frame, which hasChanged() found worth analyzing and the detector has taken, the one later frames are
+     * compared with.
+     */
+    void commitReference(byte[] data, int width, int height, long captureNanos) {
+        takeReference(data, width, height, Math.max(1, width / sampleStep), Math.max(1, height / sampleStep));
+        lastAnalyzedNanos = captureNanos;
+        framesAnalyzed += 1;
+    }
+
+    /**
+     * Forgets the last analyzed frame, so that the next frame is analyzed.
+     */
+    void reset() {
+        reference = null;
+    }
+
+    long getFramesAnalyzed() {
+        return framesAnalyzed;
+    }
+
+    long getFramesSkipped() {
+        return framesSkipped;
+    }
+
+    private boolean differsFromReference(byte[] data, int width, int samplesX, int samplesY) {
+        for (int i = 0; i < cellSums.length; i++) {
+            cellSums[i] = 0;
+            cellCounts[i] = 0;
+        }
+        int offset = sampleStep / 2;
+        int sample = 0;
+        for (int y = 0; y < samplesY; y++) {
+            int row = (offset + y * sampleStep) * width + offset;
+            int cellRow = (y * CELLS_Y / samplesY) * CELLS_X;
+            for (int x = 0; x < samplesX; x++) {
+                int difference = (data[row + x * sampleStep] & 0xFF) - (reference[sample++] & 0xFF);
+                int cell = cellRow + x * CELLS_X / samplesX;
+                cellSums[cell] += difference < 0 ? -difference : difference;
+                cellCounts[cell] += 1;
+            }
+        }
+        for (int i = 0; i < cellSums.length; i++) {
+            if (cellSums[i] > threshold * cellCounts[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void takeReference(byte[] data, int width, int height, int samplesX, int samplesY) {
+        if (reference == null || width != referenceWidth || height != referenceHeight) {
+            reference = new byte[samplesX * samplesY];
+            referenceWidth = width;
+            referenceHeight = height;
+        }
+        int offset = sampleStep / 2;
+        int sample = 0;
+        for (int y = 0; y < samplesY; y++) {
+            int row = (offset + y * sampleStep) * width + offset;
+            for (int x = 0; x < samplesX; x++) {
+                reference[sample++] = data[row + x * sampleStep];
+            }
+        }
+    }
+}
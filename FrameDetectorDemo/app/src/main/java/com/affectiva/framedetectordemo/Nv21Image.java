@@ -0,0 +1,177 @@
+package com.affectiva.framedetectordemo;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Operations on NV21 images, as delivered by the camera preview: a full resolution Y plane, followed by a half resolution
+ * plane of interleaved V and U samples, each pair of which covers 2x2 pixels.
+ */
+final class Nv21Image {
+
+    private Nv21Image() {
+    }
+
+    static int bufferSize(int width, int height) {
+        return width * height * 3 / 2;
+    }
+
+    /**
+     * Copies the width x height region of src whose top left corner is at (left, top) into dst, as an NV21 image of its
+     * own. The region's position and size must be even, so that it does not split the V/U samples.
+     */
+    static void crop(byte[] src, int srcWidth, int srcHeight, int left, int top, int width, int height, byte[] dst) {
+        if (((left | top | width | height) & 1) != 0) {
+            throw new IllegalArgumentException("region position and size must be even");
+        }
+        if (left < 0 || top < 0 || width <= 0 || height <= 0 || left + width > srcWidth || top + height > srcHeight) {
+            throw new IllegalArgumentException("region must lie within the image");
+        }
+        if (src.length < bufferSize(srcWidth, srcHeight) || dst.length < bufferSize(width, height)) {
+            throw new IllegalArgumentException("buffer too small for the image");
+        }
+        for (int row = 0; row < height; row++) {
+            System.arraycopy(src, (top + row) * srcWidth + left, dst, row * width, width);
+        }
+        int srcChroma = srcWidth * srcHeight;
+        int dstChroma = width * height;
+        for (int row = 0; row < height / 2; row++) {
+            System.arraycopy(src, srcChroma + (top / 2 + row) * srcWidth + left, dst, dstChroma + row * width, width);
+        }
+    }
+
+    /**
+     * Copies a width x height YUV_420_888 image, as camera2's ImageReader delivers it, into dst as NV21. The samples are
+     * read straight from the planes' buffers, which the camera fills and are normally direct, so this is the only copy
+     * of the data on its way to the detector. The U and V planes share their row and pixel strides, as YUV_420_888
+     * guarantees. Moves the position of the Y plane's buffer.
+     */
+    static void fromYuv420(ByteBuffer y, int yRowStride, ByteBuffer u, ByteBuffer v, int chromaRowStride,
+                           int chromaPixelStride, int width, int height, byte[] dst) {
+        if (((width | height) & 1) != 0) {
+            throw new IllegalArgumentException("size must be even");
+        }
+        if (dst.length < bufferSize(width, height)) {
+            throw new IllegalArgumentException("buffer too small for the image");
+        }
+        if (yRowStride == width) {
+            y.position(0);
+            y.get(dst, 0, width * height);
+        } else {
+            for (int row = 0; row < height; row++) {
+                y.position(row * yRowStride);
+                y.get(dst, row * width, width);
+            }
+        }
+        int out = width * height;
+        for (int row = 0; row < height / 2; row++) {
+            int in = row * chromaRowStride;
+            for (int column = 0; column < width / 2; column++) {
+                dst[out++] = v.get(in);
+                dst[out++] = u.get(in);
+                in += chromaPixelStride;
+            }
+        }
+    }
+
+    /**
+     * Shrinks the width x height region of src whose top left corner is at (left, top) by factor in each direction, into
+     * dst, as an NV21 image of its own. Each output sample is the average of the factor x factor input samples it covers,
+     * which keeps the detail a plain subsample would alias away. The region's position must be even, and its size a
+     * multiple of 2 * factor, so that the output's size is even too.
+     */
+    static void downscale(byte[] src, int srcWidth, int srcHeight, int left, int top, int width, int height, int factor,
+                          byte[] dst) {
+        if (factor < 1) {
+            throw new IllegalArgumentException("factor must be at least 1");
+        }
+        if (((left | top) & 1) != 0 || width % (2 * factor) != 0 || height % (2 * factor) != 0) {
+            throw new IllegalArgumentException("region position must be even and size a multiple of 2 * factor");
+        }
+        if (left < 0 || top < 0 || width <= 0 || height <= 0 || left + width > srcWidth || top + height > srcHeight) {
+            throw new IllegalArgumentException("region must lie within the image");
+        }
+        int outWidth = width / factor;
+        int outHeight = height / factor;
+        if (src.length < bufferSize(srcWidth, srcHeight) || dst.length < bufferSize(outWidth, outHeight)) {
+            throw new IllegalArgumentException("buffer too small for the image");
+        }
+        int area = factor * factor;
+        int rounding = area / 2;
+
+        for (int y = 0; y < outHeight; y++) {
+            int rowStart = (top + y * factor) * srcWidth + left;
+            int out = y * outWidth;
+            for (int x = 0; x < outWidth; x++) {
+                int sum = 0;
+                int blockStart = rowStart + x * factor;
+                for (int dy = 0; dy < factor; dy++) {
+                    int i = blockStart + dy * srcWidth;
+                    for (int dx = 0; dx < factor; dx++) {
+                        sum += src[i + dx] & 0xFF;
+                    }
+                }
+                dst[out + x] = (byte) ((sum + rounding) / area);
+            }
+        }
+
+        //the V/U plane: one row of interleaved pairs per two image rows, averaged pair by pair
+        int srcChroma = srcWidth * srcHeight;
+        int dstChroma = outWidth * outHeight;
+        for (int y = 0; y < outHeight / 2; y++) {
+            int rowStart = srcChroma + (top / 2 + y * factor) * srcWidth + left;
+            int out = dstChroma + y * outWidth;
+            for (int x = 0; x < outWidth; x += 2) {
+                int sumV = 0;
+                int sumU = 0;
+                int blockStart = rowStart + x * factor;
+                for (int dy = 0; dy < factor; dy++) {
+                    int i = blockStart + dy * srcWidth;
+                    for (int dx = 0; dx < 2 * factor; dx += 2) {
+                        sumV += src[i + dx] & 0xFF;
+                        sumU += src[i + dx + 1] & 0xFF;
+                    }
+                }
+                dst[out + x] = (byte) ((sumV + rounding) / area);
+                dst[out + x + 1] = (byte) ((sumU + rounding) / area);
+            }
+        }
+    }
+
+    /**
+     * Maps a region of the upright image, given as {left, top, right, bottom}, to the same region of the camera image the
+     * upright image is rotated from by quarterTurns clockwise quarter turns, written to out in the same form. rawWidth
+     * and rawHeight are the size of the camera image. region and out may be the same array.
+     */
+    static void toRawRegion(int[] region, int rawWidth, int rawHeight, int quarterTurns, int[] out) {
+        int left = region[0];
+        int top = region[1];
+        int right = region[2];
+        int bottom = region[3];
+        switch (quarterTurns & 3) {
+            case 0:
+                out[0] = left;
+                out[1] = top;
+                out[2] = right;
+                out[3] = bottom;
+                break;
+            case 1:
+                out[0] = top;
+                out[1] = rawHeight - right;
+                out[2] = bottom;
+                out[3] = rawHeight - left;
+                break;
+            case 2:
+                out[0] = rawWidth - right;
+                out[1] = rawHeight - bottom;
+                out[2] = rawWidth - left;
+                out[3] = rawHeight - top;
+                break;
+            default:
+                out[0] = rawWidth - bottom;
+                out[1] = left;
+                out[2] = rawWidth - top;
+                out[3] = right;
+                break;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.affectiva.framedetectordemo;
+
+/**
+ * A bounded free list of reusable objects, so that objects needed once per frame are allocated only until the pipeline
+ * reaches its steady state rather than on every frame.
+ *
+ * acquire() hands out a recycled object if one is available and creates a new one otherwise. Objects recycled while the
+ * free list is full are simply let go. Callers are responsible for clearing whatever state a recycled object must not
+ * carry over. All methods are synchronized, so objects may be acquired and recycled on different threads.
+ */
+abstract class ObjectPool<T> {
+
+    private final Object[] free;
+    private int freeCount = 0;
+    private long created = 0;
+
+    ObjectPool(int maxFree) {
+        if (maxFree < 1) {
+            throw new IllegalArgumentException("maxFree must be at least 1");
+        }
+        free = new Object[maxFree];
+    }
+
+    /**
+     * Creates a new object when the free list is empty. Called with the pool's lock held.
+     */
+    protected abstract T create();
+
+    @SuppressWarnings("unchecked")
+    synchronized T acquire() {
+        if (freeCount > 0) {
+            freeCount -= 1;
+            T item = (T) free[freeCount];
+            free[freeCount] = null;
+            return item;
+        }
+        created += 1;
+        return create();
+    }
+
+    synchronized void recycle(T item) {
+        if (item != null && freeCount < free.length) {
+            free[freeCount++] = item;
+        }
+    }
+
+    /**
+     * Returns the number of objects created so far. Once the pipeline has reached its steady state, this should stop
+     * growing.
+     */
+    synchronized long getCreatedCount() {
+        return created;
+    }
+}
@@ -0,0 +1,72 @@
+package com.affectiva.framedetectordemo;
+
+import java.util.Locale;
+
+/**
+ * Latency histograms for each stage a frame goes through between the camera and the listener of AsyncFrameDetector.
+ *
+ * Frames are timestamped when the camera hands them over (CameraHelper.onPreviewFrame), when they are submitted
+ * (AsyncFrameDetector.process), when FrameDetector starts and finishes processing them, and when their results are
+ * delivered on the main thread. Each stage records the time between two of those points.
+ */
+class PipelineLatencyStats {
+
+    enum Stage {
+        CAMERA_TO_SUBMIT, //camera callback until AsyncFrameDetector.process
+        QUEUE_WAIT, //AsyncFrameDetector.process until a worker starts FrameDetector on the frame
+        DETECT, //FrameDetector.process
+        DELIVERY, //FrameDetector finished until the result is delivered to the listener
+        END_TO_END //camera callback until the result is delivered to the listener
+    }
+
+    private final LatencyHistogram[] histograms;
+
+    PipelineLatencyStats() {
+        histograms = new LatencyHistogram[Stage.values().length];
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    void record(Stage stage, long startNanos, long endNanos) {
+        histograms[stage.ordinal()].recordNanos(endNanos - startNanos);
+    }
+
+    LatencyHistogram getHistogram(Stage stage) {
+        return histograms[stage.ordinal()];
+    }
+
+    /**
+     * Returns the given percentile (between 0 and 100) of a stage's latency, in milliseconds.
+     */
+    float getPercentile(Stage stage, float percentile) {
+        return histograms[stage.ordinal()].getPercentileMicros(percentile / 100.0) / 1000f;
+    }
+
+    /**
+     * Returns the largest latency recorded for a stage, in milliseconds.
+     */
+    float getMax(Stage stage) {
+        return histograms[stage.ordinal()].getMaxMicros() / 1000f;
+    }
+
+    void reset() {
+        for (LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * Returns a multi-line, human readable summary of p50/p90/p99/max per stage, in milliseconds. Intended for logging,
+     * so unlike the rest of this class it allocates.
+     */
+    String getSummary() {
+        StringBuilder builder = new StringBuilder();
+        for (Stage stage : Stage.values()) {
+            builder.append(String.format(Locale.US, "%-16s n=%-7d p50=%7.2f p90=%7.2f p99=%7.2f max=%7.2f%n",
+                    stage, getHistogram(stage).getCount(), getPercentile(stage, 50), getPercentile(stage, 90),
+                    getPercentile(stage, 99), getMax(stage)));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,75 @@
+package com.affectiva.framedetectordemo;
+
+import java.util.ArrayDeque;
+
+/**
+ * The free buffers of a FrameBufferPool, for sources which take a buffer to fill for each frame themselves, rather than
+ * queueing buffers with the camera the way the old camera API's callback buffers work. While attached, every buffer the
+ * consumers have released ends up here; a source that finds the queue empty drops the frame, just as the old camera does.
+ *
+ * Buffers count as being with the camera while they are queued here, so the pool's exhaustion count and the
+ * CallbackRingMonitor work the same for every source. Thread safe.
+ */
+class PooledBufferQueue implements FrameBufferPool.OnBufferRecycledListener {
+
+    private final FrameBufferPool pool;
+    private final ArrayDeque<FrameBuffer> buffers = new ArrayDeque<>();
+
+    PooledBufferQueue(FrameBufferPool pool) {
+        if (pool == null) {
+            throw new NullPointerException("pool must not be null");
+        }
+        this.pool = pool;
+    }
+
+    /**
+     * Starts collecting the pool's free buffers; call once the pool holds buffers of the right size.
+     */
+    void attach() {
+        synchronized (this) {
+            buffers.clear();
+        }
+        pool.attach(this);
+    }
+
+    /**
+     * Stops collecting buffers, and forgets those collected so far, which the pool considers idle again.
+     */
+    void detach() {
+        pool.detach();
+        synchronized (this) {
+            buffers.clear();
+        }
+    }
+
+    /**
+     * Takes a free buffer for the next frame, marked in use in the pool and holding one reference, which the caller must
+     * release. Returns null if consumers hold every buffer.
+     *
+     * The buffer is taken and marked in use under the pool's lock, so the pool cannot be detached or reallocated in
+     * between. Buffers queued before a reallocation no longer belong to the pool, and are dropped here.
+     */
+    FrameBuffer take() {
+        synchronized (pool) {
+            synchronized (this) {
+                FrameBuffer buffer;
+                while ((buffer = buffers.pollFirst()) != null) {
+                    if (pool.onFrameReceived(buffer.getData()) != null) {
+                        return buffer;
+                    }
+                }
+                return null;
+            }
+        }
+    }
+
+    @Override
+    public void onBufferRecycled(FrameBuffer buffer, int attachEpoch) {
+        //ignore hand-offs from before the last detach(), as those buffers have since been handed over again
+        if (pool.isCurrentEpoch(attachEpoch)) {
+            synchronized (this) {
+                buffers.addLast(buffer);
+            }
+        }
+    }
+}
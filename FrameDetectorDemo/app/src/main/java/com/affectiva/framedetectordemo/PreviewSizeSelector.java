@@ -0,0 +1,14 @@
+package com.affectiva.framedetectordemo;
+
+/**
+ * Chooses the preview size of a camera among those it supports. Sizes are passed as plain ints rather than as the camera
+ * APIs' Size classes, so that selectors do not depend on either API and can be tested on the JVM.
+ */
+interface PreviewSizeSelector {
+
+    /**
+     * Returns the index of the chosen size among count sizes, whose widths and heights, in the camera's own orientation,
+     * are at the same index in widths and heights. count is at least 1.
+     */
+    int select(int[] widths, int[] heights, int count);
+}
@@ -0,0 +1,250 @@
+package com.affectiva.framedetectordemo;
+
+/**
+ * Moves the camera preview along a ladder of pixel budgets according to the frame rate the detector can sustain, so that
+ * a slow device gets a smaller preview and a fast one a larger one, rather than every device getting the same size.
+ *
+ * The governor is fed the detector's capacity, the frame rate its workers could sustain at their measured service time
+ * (FrameAdmissionController.getCapacity()), which unlike the rate of results does not drop when the camera slows down in
+ * low light or the MotionGate skips frames. It steps down a budget once capacity has stayed below DOWNSHIFT_FRACTION of
+ * the target frame rate for downshiftHoldNanos. It steps up once capacity has stayed high enough for upshiftHoldNanos
+ * that the next budget would still leave UPSHIFT_MARGIN over the target.
+ *
+ * The detector's cost grows with the pixels it is actually given, not with the preview's: frames are downscaled and
+ * cropped to the faces before they reach it, so two preview sizes may well cost it the same. The governor is therefore
+ * also fed the size of every frame the detector takes (recordDetectorFrame()), and remembers the average for each level
+ * it has been on. The capacity on the next level is predicted from the ratio of the detector pixels there to those here,
+ * and a level that costs the detector about the same as the current one, within SAME_COST_TOLERANCE, is not stepped down
+ * to, since it would only make the preview worse, while stepping up to one is free. Until a level has been measured, or
+ * if no frame sizes are recorded at all, the detector pixels are taken to grow with the budget.
+ *
+ * The gap between the two thresholds is the hysteresis. On top of it, samples are ignored for SETTLE_NANOS after every
+ * step and restart(), while the service time average catches up with the new frame size. And since the prediction can be
+ * wrong, an upshift can still fail: when it is undone within FAILED_UPSHIFT_WINDOW_NANOS, the capacity required on the
+ * next level to upshift from that budget is raised to FAILED_UPSHIFT_RAISE times what was predicted when the upshift was
+ * made, so that a device on the edge between two budgets settles on the lower one instead of switching back and forth,
+ * and only tries again if it gets markedly faster.
+ *
+ * Not thread safe; call it from one thread.
+ */
+class ResolutionGovernor {
+
+    //from the smallest preview the face size requirements allow, through the size the SDK was tuned for, up to HD
+    static final int[] DEFAULT_PIXEL_BUDGETS = {320 * 240, 640 * 480, 1280 * 720};
+    static final int DEFAULT_LEVEL = 1;
+
+    static final float DOWNSHIFT_FRACTION = 0.8f;
+    static final float UPSHIFT_MARGIN = 1.2f;
+    static final float SAME_COST_TOLERANCE = 0.1f;
+    static final long DEFAULT_DOWNSHIFT_HOLD_NANOS = 2000000000L;
+    static final long DEFAULT_UPSHIFT_HOLD_NANOS = 5000000000L;
+    static final long SETTLE_NANOS = 2000000000L;
+    static final long FAILED_UPSHIFT_WINDOW_NANOS = 20000000000L;
+    static final float FAILED_UPSHIFT_RAISE = 1.25f;
+
+    private static final long NONE = -1L;
+
+    private final float targetFps;
+    private final int[] pixelBudgets;
+    private final float[] upshiftCapacities; //capacity needed on the next level to upshift from each level
+    private final float[] detectorPixels; //average detector frame size on each level, 0 until measured
+    private int level;
+
+    private long downshiftHoldNanos = DEFAULT_DOWNSHIFT_HOLD_NANOS;
+    private long upshiftHoldNanos = DEFAULT_UPSHIFT_HOLD_NANOS;
+
+    private boolean isSettlePending = true;
+    private long settleEndNanos = NONE;
+    private long lowSinceNanos = NONE;
+    private long highSinceNanos = NONE;
+    private long lastUpshiftNanos = NONE;
+    private float lastUpshiftCapacity;
+
+    //detector frames recorded since the current level settled
+    private long pixelSum = 0;
+    private int pixelCount = 0;
+
+    private long downshifts = 0;
+    private long upshifts = 0;
+
+    ResolutionGovernor(float targetFps) {
+        this(targetFps, DEFAULT_PIXEL_BUDGETS, DEFAULT_LEVEL);
+    }
+
+    /**
+     * pixelBudgets must be in increasing order; the governor starts at pixelBudgets[initialLevel].
+     */
+    ResolutionGovernor(float targetFps, int[] pixelBudgets, int initialLevel) {
+        if (targetFps <= 0f) {
+            throw new IllegalArgumentException("targetFps must be positive");
+        }
+        if (pixelBudgets == null) {
+            throw new NullPointerException("pixelBudgets must not be null");
+        }
+        if (pixelBudgets.length == 0 || pixelBudgets[0] <= 0) {
+            throw new IllegalArgumentException("pixelBudgets must not be empty, and must be positive");
+        }
+        for (int i = 1; i < pixelBudgets.length; i++) {
+            if (pixelBudgets[i] <= pixelBudgets[i - 1]) {
+                throw new IllegalArgumentException("pixelBudgets must be in increasing order");
+            }
+        }
+        if (initialLevel < 0 || initialLevel >= pixelBudgets.length) {
+            throw new IllegalArgumentException("initialLevel must be an index into pixelBudgets");
+        }
+        this.targetFps = targetFps;
+        this.pixelBudgets = pixelBudgets.clone();
+        this.level = initialLevel;
+        upshiftCapacities = new float[pixelBudgets.length];
+        for (int i = 0; i < pixelBudgets.length - 1; i++) {
+            upshiftCapacities[i] = targetFps * UPSHIFT_MARGIN;
+        }
+        upshiftCapacities[pixelBudgets.length - 1] = Float.POSITIVE_INFINITY;
+        detectorPixels = new float[pixelBudgets.length];
+    }
+
+    /**
+     * Sets how long capacity must stay low before a downshift, and high before an upshift.
+     */
+    void setHoldTimes(long downshiftHoldNanos, long upshiftHoldNanos) {
+        if (downshiftHoldNanos < 0 || upshiftHoldNanos < 0) {
+            throw new IllegalArgumentException("hold times must not be negative");
+        }
+        this.downshiftHoldNanos = downshiftHoldNanos;
+        this.upshiftHoldNanos = upshiftHoldNanos;
+    }
+
+    int getLevel() {
+        return level;
+    }
+
+    int getPixelBudget() {
+        return pixelBudgets[level];
+    }
+
+    /**
+     * Returns the average number of pixels in the frames the detector took on the current level, or 0 if none have been
+     * recorded.
+     */
+    float getDetectorPixels() {
+        return pixelCount > 0 ? (float) pixelSum / pixelCount : detectorPixels[level];
+    }
+
+    /**
+     * Returns the capacity, in frames per second, needed to upshift from the current level, which is infinite at the top.
+     */
+    float getUpshiftCapacity() {
+        if (level == pixelBudgets.length - 1) {
+            return Float.POSITIVE_INFINITY;
+        }
+        return upshiftCapacities[level] * getCostRatio(level + 1);
+    }
+
+    long getDownshifts() {
+        return downshifts;
+    }
+
+    long getUpshifts() {
+        return upshifts;
+    }
+
+    /**
+     * Forgets how long capacity has been low or high, and ignores samples for SETTLE_NANOS from the next one, for when the
+     * camera or the detector has been restarted. The level, and the detector frame sizes measured so far, are kept.
+     */
+    void restart() {
+        isSettlePending = true;
+        lowSinceNanos = NONE;
+        highSinceNanos = NONE;
+    }
+
+    /**
+     * Records the number of pixels in a frame the detector has taken at nowNanos, after any downscaling and cropping.
+     * Frames recorded while the governor is settling are ignored, as they may still be of the size before a step.
+     */
+    void recordDetectorFrame(long nowNanos, int pixels) {
+        if (pixels <= 0) {
+            throw new IllegalArgumentException("pixels must be positive");
+        }
+        if (isSettlePending || nowNanos < settleEndNanos) {
+            return;
+        }
+        pixelSum += pixels;
+        pixelCount += 1;
+    }
+
+    /**
+     * Takes a capacity sample, in frames per second, at nowNanos. Returns true if the level changed, in which case the
+     * preview should be switched to getPixelBudget(). Infinite or NaN samples, as the admission controller gives before
+     * it has measured anything, are ignored.
+     */
+    boolean update(long nowNanos, float capacityFps) {
+        if (Float.isInfinite(capacityFps) || Float.isNaN(capacityFps)) {
+            return false;
+        }
+        if (isSettlePending) {
+            isSettlePending = false;
+            settleEndNanos = nowNanos + SETTLE_NANOS;
+        }
+        if (nowNanos < settleEndNanos) {
+            return false;
+        }
+
+        boolean isUpshiftFree = level < pixelBudgets.length - 1 && getCostRatio(level + 1) <= 1f + SAME_COST_TOLERANCE;
+        boolean isDownshiftUseful = level > 0 && getCostRatio(level - 1) < 1f - SAME_COST_TOLERANCE;
+        if (isDownshiftUseful && capacityFps < targetFps * DOWNSHIFT_FRACTION) {
+            highSinceNanos = NONE;
+            if (lowSinceNanos == NONE) {
+                lowSinceNanos = nowNanos;
+            }
+            if (nowNanos - lowSinceNanos >= downshiftHoldNanos) {
+                if (lastUpshiftNanos != NONE && nowNanos - lastUpshiftNanos < FAILED_UPSHIFT_WINDOW_NANOS) {
+                    upshiftCapacities[level - 1] = Math.max(upshiftCapacities[level - 1],
+                            lastUpshiftCapacity * FAILED_UPSHIFT_RAISE);
+                }
+                lastUpshiftNanos = NONE;
+                downshifts += 1;
+                changeLevel(level - 1);
+                return true;
+            }
+        } else if (isUpshiftFree || capacityFps >= getUpshiftCapacity()) {
+            lowSinceNanos = NONE;
+            if (highSinceNanos == NONE) {
+                highSinceNanos = nowNanos;
+            }
+            if (nowNanos - highSinceNanos >= upshiftHoldNanos) {
+                lastUpshiftNanos = nowNanos;
+                //the capacity expected on the next level
+                lastUpshiftCapacity = capacityFps / getCostRatio(level + 1);
+                upshifts += 1;
+                changeLevel(level + 1);
+                return true;
+            }
+        } else {
+            lowSinceNanos = NONE;
+            highSinceNanos = NONE;
+        }
+        return false;
+    }
+
+    /*
+        Returns how many times the detector pixels on the current level those on the given level are expected to be.
+     */
+    private float getCostRatio(int otherLevel) {
+        float pixels = getDetectorPixels();
+        if (pixels > 0f && detectorPixels[otherLevel] > 0f) {
+            return detectorPixels[otherLevel] / pixels;
+        }
+        return (float) pixelBudgets[otherLevel] / pixelBudgets[level];
+    }
+
+    private void changeLevel(int newLevel) {
+        if (pixelCount > 0) {
+            detectorPixels[level] = (float) pixelSum / pixelCount;
+        }
+        pixelSum = 0;
+        pixelCount = 0;
+        level = newLevel;
+        restart();
+    }
+}
@@ -0,0 +1,190 @@
+package com.affectiva.framedetectordemo;
+
+/**
+ * Restores submission order to results which may complete out of order, for example because they are produced by
+ * several worker threads.
+ *
+ * The producer calls begin() for every sequence number it hands out, in increasing order, and every sequence number
+ * begun must eventually be either completed with a result or skipped. Results are released to the listener strictly in
+ * sequence order; skipped entries are simply dropped. Only entries which have begun and are still waiting, for their own
+ * result or for an earlier one, take up room. So a frame which is replaced in a queue, as happens all the time with a
+ * latest-only policy, costs nothing, and cannot push the frames still being processed out of the window. Should more
+ * than 'capacity' entries be waiting at once, because one of them is stuck, the oldest is given up on and treated as
+ * skipped.
+ *
+ * All methods are synchronized so that workers and the producer may report concurrently. The listener is called while the
+ * lock is held, which is what guarantees ordering, so it should do no more than hand the result off (e.g. to a Handler).
+ */
+class ResultResequencer<T> {
+
+    interface OnResultReleasedListener<T> {
+        void onResultReleased(T result);
+    }
+
+    private static final byte WAITING = 0;
+    private static final byte COMPLETED = 1;
+
+    //the waiting entries, oldest first, in a ring
+    private final long[] sequences;
+    private final Object[] results;
+    private final byte[] states;
+    private final OnResultReleasedListener<T> listener;
+    private int head = 0;
+    private int count = 0;
+
+    private long lastBegun = -1;
+    private long forcedSkips = 0;
+    private boolean closed = false;
+
+    ResultResequencer(int capacity, OnResultReleasedListener<T> listener) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        if (listener == null) {
+            throw new NullPointerException("listener must not be null");
+        }
+        sequences = new long[capacity];
+        results = new Object[capacity];
+        states = new byte[capacity];
+        this.listener = listener;
+    }
+
+    /**
+     * Reports that the given sequence number has been handed out, and that its result is to be waited for. Sequence
+     * numbers must be begun in increasing order, and before they are completed or skipped.
+     */
+    synchronized void begin(long sequence) {
+        if (sequence <= lastBegun) {
+            throw new IllegalArgumentException("sequence numbers must be begun in increasing order");
+        }
+        lastBegun = sequence;
+        if (closed) {
+            return;
+        }
+        if (count == sequences.length) {
+            //the oldest entry is still waiting for its result, or it would have been released; give up on it
+            forcedSkips += 1;
+            remove(0);
+            releaseCompleted();
+        }
+        int index = indexOf(count);
+        sequences[index] = sequence;
+        results[index] = null;
+        states[index] = WAITING;
+        count += 1;
+    }
+
+    /**
+     * Reports the result for the given sequence number.
+     * Returns false if the sequence number had already been given up on or the resequencer has been closed, in which
+     * case the result will never be released.
+     */
+    synchronized boolean complete(long sequence, T result) {
+        int position = find(sequence);
+        if (position < 0) {
+            return false;
+        }
+        int index = indexOf(position);
+        states[index] = COMPLETED;
+        results[index] = result;
+        releaseCompleted();
+        return true;
+    }
+
+    /**
+     * Reports that the given sequence number will never produce a result.
+     */
+    synchronized void skip(long sequence) {
+        int position = find(sequence);
+        if (position >= 0) {
+            remove(position);
+            releaseCompleted();
+        }
+    }
+
+    /**
+     * Stops releasing results. Results still waiting for an earlier entry are handed to discardListener instead, and any
+     * result reported from now on is refused, so that whoever holds resources for it can free them.
+     */
+    @SuppressWarnings("unchecked")
+    synchronized void close(OnResultReleasedListener<T> discardListener) {
+        closed = true;
+        for (int position = 0; position < count; position++) {
+            int index = indexOf(position);
+            Object result = results[index];
+            results[index] = null;
+            if (states[index] == COMPLETED) {
+                discardListener.onResultReleased((T) result);
+            }
+        }
+        count = 0;
+    }
+
+    /**
+     * Returns the number of entries begun and not yet released or skipped.
+     */
+    synchronized int getWaitingCount() {
+        return count;
+    }
+
+    /**
+     * Returns the number of entries given up on because too many entries were waiting.
+     */
+    synchronized long getForcedSkips() {
+        return forcedSkips;
+    }
+
+    private int indexOf(int position) {
+        int index = head + position;
+        return index < sequences.length ? index : index - sequences.length;
+    }
+
+    /*
+        Returns the position of the entry for the sequence number, counting from the oldest, or -1 if it is not waiting.
+        There are only ever a handful of entries, so a linear search is all it takes.
+     */
+    private int find(long sequence) {
+        for (int position = 0; position < count; position++) {
+            long waiting = sequences[indexOf(position)];
+            if (waiting == sequence) {
+                return position;
+            }
+            if (waiting > sequence) {
+                break;
+            }
+        }
+        return -1;
+    }
+
+    /*
+        Removes the entry at the given position, moving the newer entries up to close the gap.
+     */
+    private void remove(int position) {
+        if (position == 0) {
+            results[head] = null;
+            head = indexOf(1);
+            count -= 1;
+            return;
+        }
+        for (int i = position; i < count - 1; i++) {
+            int to = indexOf(i);
+            int from = indexOf(i + 1);
+            sequences[to] = sequences[from];
+            results[to] = results[from];
+            states[to] = states[from];
+        }
+        results[indexOf(count - 1)] = null;
+        count -= 1;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void releaseCompleted() {
+        while (count > 0 && states[head] == COMPLETED) {
+            Object result = results[head];
+            results[head] = null;
+            head = indexOf(1);
+            count -= 1;
+            listener.onResultReleased((T) result);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.affectiva.framedetectordemo;
+
+/**
+ * The clock frames are timestamped with, from the camera through to the listeners of AsyncFrameDetector.
+ *
+ * Frames are stamped with nowNanos(), a monotonic nanosecond clock, and those stamps are what is passed around and
+ * compared. FrameDetector however takes timestamps as float seconds, and a float only has 24 bits of mantissa: seconds
+ * since boot are coarser than 10 ms after a couple of days of uptime. So timestamps are only converted to float at the
+ * SDK boundary, relative to an origin which is rebased at the start of each detector session, and again whenever a
+ * session has run long enough for its float timestamps to lose millisecond resolution.
+ */
+class SessionClock {
+
+    //float seconds keep a resolution of better than 0.25 ms up to 2^11 s, so we rebase well before that
+    static final long DEFAULT_MAX_SESSION_NANOS = 30L * 60L * 1000000000L;
+
+    private final long maxSessionNanos;
+    private long originNanos;
+
+    SessionClock() {
+        this(DEFAULT_MAX_SESSION_NANOS);
+    }
+
+    SessionClock(long maxSessionNanos) {
+        if (maxSessionNanos <= 0) {
+            throw new IllegalArgumentException("maxSessionNanos must be positive");
+        }
+        this.maxSessionNanos = maxSessionNanos;
+        originNanos = nowNanos();
+    }
+
+    /**
+     * Returns the current time of the clock frames are stamped with.
+     */
+    static long nowNanos() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Makes the given time the origin of a new session.
+     */
+    void rebase(long originNanos) {
+        this.originNanos = originNanos;
+    }
+
+    long getOriginNanos() {
+        return originNanos;
+    }
+
+    long toSessionNanos(long nanos) {
+        return nanos - originNanos;
+    }
+
+    /**
+     * Converts a nowNanos() time to float seconds since the session origin, for FrameDetector.
+     */
+    float toSessionSeconds(long nanos) {
+        return (float) ((nanos - originNanos) / 1e9);
+    }
+
+    /**
+     * Returns true if the given time is so far past the origin that its float seconds have lost too much resolution.
+     */
+    boolean isSessionExpired(long nanos) {
+        return nanos - originNanos > maxSessionNanos;
+    }
+}
@@ -0,0 +1,207 @@
+package com.affectiva.framedetectordemo;
+
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A stand-in DetectorEngine which takes a configurable amount of time per frame and reports results from a
+ * ResultSource, so that the pipeline around the detector (queueing, backpressure, worker pools, delivery) can be run and
+ * measured on a plain JVM, without the SDK or a device.
+ *
+ * The time taken per frame comes from a LatencyModel: fixed, uniformly random, or replayed from a trace of measured
+ * FrameDetector service times. By default the engine sleeps for that time; with setBusyWait(true) it spins instead, so
+ * that it competes for CPU like the real detector does.
+ */
+class SyntheticDetectorEngine<F, R> implements DetectorEngine<F, R> {
+
+    interface LatencyModel {
+        /**
+         * Returns how long the next frame takes, in nanoseconds. Only called from the engine's thread.
+         */
+        long nextLatencyNanos();
+    }
+
+    interface LatencyModelFactory {
+        LatencyModel create();
+    }
+
+    interface ResultSource<F, R> {
+        /**
+         * Returns the results for a frame, or null if the engine should report none, as FrameDetector does when it
+         * skips a frame.
+         */
+        R resultsFor(F frame, float timestamp);
+    }
+
+    private final LatencyModel latencyModel;
+    private final ResultSource<F, R> resultSource;
+    private ResultListener<F, R> listener;
+    private long startupLatencyNanos = 0;
+    private boolean isBusyWait = false;
+
+    private boolean isRunning = false;
+    private float lastTimestamp;
+    private long framesProcessed = 0;
+
+    SyntheticDetectorEngine(LatencyModel latencyModel, ResultSource<F, R> resultSource) {
+        if (latencyModel == null) {
+            throw new NullPointerException("latencyModel must not be null");
+        }
+        if (resultSource == null) {
+            throw new NullPointerException("resultSource must not be null");
+        }
+        this.latencyModel = latencyModel;
+        this.resultSource = resultSource;
+    }
+
+    static LatencyModel fixedLatency(final long nanos) {
+        if (nanos < 0) {
+            throw new IllegalArgumentException("nanos must not be negative");
+        }
+        return new LatencyModel() {
+            @Override
+            public long nextLatencyNanos() {
+                return nanos;
+            }
+        };
+    }
+
+    /**
+     * Returns a model whose latencies are uniformly distributed between minNanos and maxNanos. The seed makes runs
+     * repeatable.
+     */
+    static LatencyModel uniformLatency(final long minNanos, final long maxNanos, long seed) {
+        if (minNanos < 0 || maxNanos < minNanos) {
+            throw new IllegalArgumentException("need 0 <= minNanos <= maxNanos");
+        }
+        final Random random = new Random(seed);
+        return new LatencyModel() {
+            @Override
+            public long nextLatencyNanos() {
+                return minNanos + (long) (random.nextDouble() * (maxNanos - minNanos));
+            }
+        };
+    }
+
+    /**
+     * Returns a model which replays the given latencies, in nanoseconds, starting over once it reaches the end. The
+     * array is not copied.
+     */
+    static LatencyModel traceLatency(final long[] traceNanos) {
+        if (traceNanos.length == 0) {
+            throw new IllegalArgumentException("traceNanos must not be empty");
+        }
+        return new LatencyModel() {
+            int next = 0;
+
+            @Override
+            public long nextLatencyNanos() {
+                long nanos = traceNanos[next];
+                next = (next + 1) % traceNanos.length;
+                return nanos;
+            }
+        };
+    }
+
+    /**
+     * Returns a source which reports the same results for every frame.
+     */
+    static <F, R> ResultSource<F, R> constantResults(final R results) {
+        return new ResultSource<F, R>() {
+            @Override
+            public R resultsFor(F frame, float timestamp) {
+                return results;
+            }
+        };
+    }
+
+    /**
+     * Returns a factory for engines with latency models from modelFactory and results from resultSource. Each engine
+     * gets a latency model of its own, since models are not thread safe; resultSource is shared by all of them.
+     */
+    static <F, R> DetectorEngine.Factory<F, R> factory(final LatencyModelFactory modelFactory,
+                                                      final ResultSource<F, R> resultSource) {
+        return new DetectorEngine.Factory<F, R>() {
+            @Override
+            public DetectorEngine<F, R> create() {
+                return new SyntheticDetectorEngine<>(modelFactory.create(), resultSource);
+            }
+        };
+    }
+
+    /**
+     * Sets how long start() takes, to stand in for FrameDetector loading its models.
+     */
+    void setStartupLatency(long nanos) {
+        startupLatencyNanos = nanos;
+    }
+
+    /**
+     * Sets whether the engine spins rather than sleeps for each frame's latency.
+     */
+    void setBusyWait(boolean busyWait) {
+        isBusyWait = busyWait;
+    }
+
+    long getFramesProcessed() {
+        return framesProcessed;
+    }
+
+    @Override
+    public void setResultListener(ResultListener<F, R> listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void start() {
+        if (isRunning) {
+            throw new IllegalStateException("engine is already running");
+        }
+        waitFor(startupLatencyNanos);
+        isRunning = true;
+        lastTimestamp = Float.NEGATIVE_INFINITY;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return isRunning;
+    }
+
+    @Override
+    public void process(F frame, float timestamp) {
+        if (!isRunning) {
+            throw new IllegalStateException("engine is not running");
+        }
+        if (timestamp <= lastTimestamp) {
+            throw new IllegalArgumentException("timestamps must be strictly increasing");
+        }
+        lastTimestamp = timestamp;
+        waitFor(latencyModel.nextLatencyNanos());
+        framesProcessed += 1;
+        R results = resultSource.resultsFor(frame, timestamp);
+        if (results != null && listener != null) {
+            listener.onResults(results, frame, timestamp);
+        }
+    }
+
+    @Override
+    public void reset() {
+        lastTimestamp = Float.NEGATIVE_INFINITY;
+    }
+
+    @Override
+    public void stop() {
+        isRunning = false;
+    }
+
+    private void waitFor(long nanos) {
+        long deadline = System.nanoTime() + nanos;
+        long remaining = nanos;
+        while (remaining > 0) {
+            if (!isBusyWait) {
+                LockSupport.parkNanos(remaining);
+            }
+            remaining = deadline - System.nanoTime();
+        }
+    }
+}
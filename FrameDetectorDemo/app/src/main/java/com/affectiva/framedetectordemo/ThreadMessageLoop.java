@@ -0,0 +1,202 @@
+package com.affectiva.framedetectordemo;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A MessageLoop on a plain Java thread, so that DetectorPipeline can run without Android, in unit tests and benchmarks.
+ * FACTORY's main loop is a thread of its own, which stands in for the main thread. It draws no frames, so
+ * sendMessageAtNextFrame() is the same as sendMessage().
+ *
+ * Pending messages and tasks are kept in a list ordered by the time they are due, then by the order they were sent in.
+ * Entries are recycled, so that, as with Android's Message pool, sending a message allocates nothing once the loop has
+ * warmed up. Loop threads are daemons, so a loop that is never quit does not keep the JVM alive.
+ */
+class ThreadMessageLoop implements MessageLoop {
+
+    static final Factory FACTORY = new Factory() {
+        @Override
+        public MessageLoop startLoop(String name, Callback callback) {
+            return new ThreadMessageLoop(name, callback);
+        }
+
+        @Override
+        public MessageLoop mainLoop(Callback callback) {
+            return new ThreadMessageLoop("Main", callback);
+        }
+    };
+
+    private static final class Entry {
+        int what;
+        Object obj;
+        Runnable task; //null for a message
+        long dueNanos;
+        Entry next;
+    }
+
+    private final Callback callback;
+    private final Thread thread;
+    private Entry head;
+    private Entry free;
+    private boolean isQuit = false;
+
+    ThreadMessageLoop(String name, Callback callback) {
+        if (callback == null) {
+            throw new NullPointerException("callback must not be null");
+        }
+        this.callback = callback;
+        thread = new Thread(name) {
+            @Override
+            public void run() {
+                loop();
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    Thread getThread() {
+        return thread;
+    }
+
+    @Override
+    public void sendMessage(int what, Object obj) {
+        enqueue(what, obj, null, System.nanoTime());
+    }
+
+    @Override
+    public void sendMessageAtNextFrame(int what) {
+        sendMessage(what, null);
+    }
+
+    @Override
+    public synchronized void removeMessages(int what) {
+        Entry previous = null;
+        Entry entry = head;
+        while (entry != null) {
+            Entry next = entry.next;
+            if (entry.task == null && entry.what == what) {
+                unlink(previous, entry);
+            } else {
+                previous = entry;
+            }
+            entry = next;
+        }
+    }
+
+    @Override
+    public void postDelayed(Runnable task, long delayMillis) {
+        if (task == null) {
+            throw new NullPointerException("task must not be null");
+        }
+        enqueue(0, null, task, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis));
+    }
+
+    @Override
+    public synchronized void removeCallbacks(Runnable task) {
+        Entry previous = null;
+        Entry entry = head;
+        while (entry != null) {
+            Entry next = entry.next;
+            if (entry.task == task) {
+                unlink(previous, entry);
+            } else {
+                previous = entry;
+            }
+            entry = next;
+        }
+    }
+
+    @Override
+    public synchronized void quit() {
+        isQuit = true;
+        head = null;
+        notifyAll();
+    }
+
+    private synchronized void enqueue(int what, Object obj, Runnable task, long dueNanos) {
+        if (isQuit) {
+            return;
+        }
+        Entry entry = free;
+        if (entry != null) {
+            free = entry.next;
+        } else {
+            entry = new Entry();
+        }
+        entry.what = what;
+        entry.obj = obj;
+        entry.task = task;
+        entry.dueNanos = dueNanos;
+
+        //after every entry due no later than this one, so that entries due at the same time keep their order
+        Entry previous = null;
+        Entry next = head;
+        while (next != null && next.dueNanos - dueNanos <= 0) {
+            previous = next;
+            next = next.next;
+        }
+        entry.next = next;
+        if (previous == null) {
+            head = entry;
+        } else {
+            previous.next = entry;
+        }
+        notifyAll();
+    }
+
+    private void unlink(Entry previous, Entry entry) {
+        if (previous == null) {
+            head = entry.next;
+        } else {
+            previous.next = entry.next;
+        }
+        recycle(entry);
+    }
+
+    private void recycle(Entry entry) {
+        entry.obj = null;
+        entry.task = null;
+        entry.next = free;
+        free = entry;
+    }
+
+    private void loop() {
+        while (true) {
+            int what;
+            Object obj;
+            Runnable task;
+            synchronized (this) {
+                Entry entry;
+                while (true) {
+                    if (isQuit) {
+                        return;
+                    }
+                    entry = head;
+                    long waitNanos = entry != null ? entry.dueNanos - System.nanoTime() : 0;
+                    if (entry != null && waitNanos <= 0) {
+                        break;
+                    }
+                    try {
+                        if (entry == null) {
+                            wait();
+                        } else {
+                            TimeUnit.NANOSECONDS.timedWait(this, waitNanos);
+                        }
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                head = entry.next;
+                what = entry.what;
+                obj = entry.obj;
+                task = entry.task;
+                recycle(entry);
+            }
+            if (task != null) {
+                task.run();
+            } else {
+                callback.handleMessage(what, obj);
+            }
+        }
+    }
+}
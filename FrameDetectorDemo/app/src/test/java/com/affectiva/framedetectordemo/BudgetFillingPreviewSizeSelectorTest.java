@@ -0,0 +1,62 @@
+package com.affectiva.framedetectordemo;
+
+import org.junit.Test;
+
+import static com.affectiva.framedetectordemo.CostAwarePreviewSizeSelectorTest.LOW_END_TABLET;
+import static com.affectiva.framedetectordemo.CostAwarePreviewSizeSelectorTest.NEXUS_5_BACK;
+import static com.affectiva.framedetectordemo.CostAwarePreviewSizeSelectorTest.assertSize;
+import static com.affectiva.framedetectordemo.CostAwarePreviewSizeSelectorTest.select;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs BudgetFillingPreviewSizeSelector over the preview sizes of CostAwarePreviewSizeSelectorTest.
+ */
+public class BudgetFillingPreviewSizeSelectorTest {
+
+    @Test
+    public void fillsDefaultBudget() {
+        BudgetFillingPreviewSizeSelector selector = new BudgetFillingPreviewSizeSelector();
+        selector.setAspectWeight(0f);
+
+        //the detector gets these downscaled, so the preview need not shrink to the smallest size with large enough faces
+        assertSize(640, 480, selector, NEXUS_5_BACK);
+        assertSize(640, 480, selector, LOW_END_TABLET);
+    }
+
+    @Test
+    public void eachBudgetOfLadderChoosesDistinctSize() {
+        BudgetFillingPreviewSizeSelector selector = new BudgetFillingPreviewSizeSelector();
+        int[][] targets = {{1920, 1080}, {1280, 800}, {1024, 768}};
+        for (int[] target : targets) {
+            selector.setTargetAspectRatio(target[0], target[1]);
+            int previousPixels = 0;
+            for (int budget : ResolutionGovernor.DEFAULT_PIXEL_BUDGETS) {
+                selector.setPixelBudget(budget);
+                int[] size = select(selector, NEXUS_5_BACK);
+                int pixels = size[0] * size[1];
+                assertTrue(target[0] + "x" + target[1] + ", budget " + budget, pixels > previousPixels);
+                previousPixels = pixels;
+            }
+        }
+    }
+
+    @Test
+    public void prefersScreenShapeWithinBudget() {
+        BudgetFillingPreviewSizeSelector selector = new BudgetFillingPreviewSizeSelector();
+        selector.setTargetAspectRatio(1080, 1920);
+        selector.setPixelBudget(1024 * 600);
+        selector.setMinFaceSize(48, 0.1f);
+
+        //800x600 fills more of the budget, but in the wrong shape
+        assertSize(800, 480, selector, NEXUS_5_BACK);
+    }
+
+    @Test
+    public void exceedsBudgetByAsLittleAsFaceSizeAllows() {
+        BudgetFillingPreviewSizeSelector selector = new BudgetFillingPreviewSizeSelector();
+        selector.setAspectWeight(0f);
+        selector.setPixelBudget(160 * 120);
+
+        assertSize(320, 240, selector, NEXUS_5_BACK);
+    }
+}
@@ -0,0 +1,69 @@
+package com.affectiva.framedetectordemo;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CallbackRingMonitorTest {
+
+    private static final int BUFFER_COUNT = 4;
+    private static final long INTERVAL_30FPS_NANOS = 1000000000L / 30;
+
+    /*
+        Reports count frames, intervalNanos apart from startNanos on, with buffersWithCamera buffers left free after each.
+        Returns the time of the last frame.
+     */
+    private static long reportFrames(CallbackRingMonitor monitor, long startNanos, int count, long intervalNanos,
+                                     int buffersWithCamera) {
+        long captureNanos = startNanos;
+        for (int i = 0; i < count; i++) {
+            captureNanos = startNanos + i * intervalNanos;
+            monitor.onFrame(captureNanos, BUFFER_COUNT - buffersWithCamera, buffersWithCamera, BUFFER_COUNT);
+        }
+        return captureNanos;
+    }
+
+    private static CallbackRingMonitor createMonitor() {
+        CallbackRingMonitor monitor = new CallbackRingMonitor();
+        //15 to 30 fps, as cameras commonly report
+        monitor.setFpsRange(15000, 30000);
+        return monitor;
+    }
+
+    @Test
+    public void steadyFramesCountNothing() {
+        CallbackRingMonitor monitor = createMonitor();
+        reportFrames(monitor, 0, 100, INTERVAL_30FPS_NANOS, 2);
+
+        assertEquals(100, monitor.getFrameCount());
+        assertEquals(0, monitor.getStarvationEventCount());
+        assertEquals(0, monitor.getStallCount());
+    }
+
+    @Test
+    public void sustainedStarvationKeepsBeingCounted() {
+        CallbackRingMonitor monitor = createMonitor();
+        long lastNanos = reportFrames(monitor, 0, 30, INTERVAL_30FPS_NANOS, 2);
+        int starvedFrames = 40;
+        //the ring runs dry for good, and the camera only ever gets to fill every other frame; the first gap still follows
+        //a frame that left a buffer free, so it is a stall
+        reportFrames(monitor, lastNanos + 2 * INTERVAL_30FPS_NANOS, starvedFrames, 2 * INTERVAL_30FPS_NANOS, 0);
+
+        assertEquals(1, monitor.getStallCount());
+        assertEquals(starvedFrames - 1, monitor.getStarvationEventCount());
+        assertEquals(starvedFrames - 1, monitor.getFramesMissed());
+    }
+
+    @Test
+    public void cameraSlowingDownWithinRangeIsLearned() {
+        CallbackRingMonitor monitor = createMonitor();
+        long lastNanos = reportFrames(monitor, 0, 30, INTERVAL_30FPS_NANOS, 2);
+        //low light: the camera drops to 15 fps, with buffers to spare
+        reportFrames(monitor, lastNanos + 2 * INTERVAL_30FPS_NANOS, 40, 2 * INTERVAL_30FPS_NANOS, 2);
+
+        assertEquals(0, monitor.getStarvationEventCount());
+        //a few gaps look like stalls until the new interval has been learned
+        assertTrue(monitor.getStallCount() < 10);
+    }
+}
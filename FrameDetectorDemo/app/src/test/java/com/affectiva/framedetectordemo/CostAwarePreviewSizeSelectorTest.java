@@ -0,0 +1,120 @@
+package com.affectiva.framedetectordemo;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs CostAwarePreviewSizeSelector over the preview sizes reported by a few devices, in the order they report them.
+ */
+public class CostAwarePreviewSizeSelectorTest {
+
+    //Nexus 5, back camera
+    static final int[][] NEXUS_5_BACK = {
+            {1920, 1080}, {1280, 960}, {1280, 720}, {1024, 768}, {800, 600}, {800, 480}, {720, 480}, {640, 480},
+            {352, 288}, {320, 240}, {176, 144}};
+
+    //a tablet offering a square size next to 640x480, modelled on the Nexus 7 the old height-only choice went wrong on
+    private static final int[][] TABLET_WITH_SQUARE = {
+            {1280, 720}, {1024, 768}, {800, 600}, {480, 480}, {640, 480}, {352, 288}, {320, 240}, {176, 144}};
+
+    //a low-end tablet whose camera offers little beyond VGA
+    static final int[][] LOW_END_TABLET = {
+            {640, 480}, {352, 288}, {320, 240}, {176, 144}};
+
+    //a camera none of whose sizes is large enough for the default minimum face size
+    private static final int[][] QCIF_ONLY = {
+            {176, 144}, {160, 120}, {128, 96}};
+
+    @Test
+    public void choosesSmallestSizeMeetingDefaultFaceSize() {
+        CostAwarePreviewSizeSelector selector = new CostAwarePreviewSizeSelector();
+        selector.setAspectWeight(0f);
+
+        assertSize(320, 240, selector, NEXUS_5_BACK);
+        assertSize(320, 240, selector, LOW_END_TABLET);
+    }
+
+    @Test
+    public void avoidsSquareSize() {
+        CostAwarePreviewSizeSelector selector = new CostAwarePreviewSizeSelector();
+        selector.setTargetAspectRatio(1280, 800);
+        //faces a tenth of the frame across, so that only 480x480 and larger are good enough
+        selector.setMinFaceSize(48, 0.1f);
+
+        assertSize(640, 480, selector, TABLET_WITH_SQUARE);
+    }
+
+    @Test
+    public void prefersScreenShapeWithinBudget() {
+        CostAwarePreviewSizeSelector selector = new CostAwarePreviewSizeSelector();
+        selector.setTargetAspectRatio(1080, 1920);
+        selector.setPixelBudget(1280 * 720);
+        selector.setMinFaceSize(48, 0.1f);
+
+        assertSize(800, 480, selector, NEXUS_5_BACK);
+    }
+
+    @Test
+    public void staysWithinBudget() {
+        CostAwarePreviewSizeSelector selector = new CostAwarePreviewSizeSelector();
+        selector.setTargetAspectRatio(1920, 1080);
+        selector.setMinFaceSize(48, 0.1f);
+
+        //720x480 and 800x480 are closer to the screen's shape, but over budget
+        assertSize(640, 480, selector, NEXUS_5_BACK);
+    }
+
+    @Test
+    public void exceedsBudgetOnlyForFaceSize() {
+        CostAwarePreviewSizeSelector selector = new CostAwarePreviewSizeSelector();
+        selector.setTargetAspectRatio(1920, 1080);
+        selector.setPixelBudget(320 * 240);
+        selector.setMinFaceSize(48, 0.1f);
+
+        assertSize(640, 480, selector, LOW_END_TABLET);
+    }
+
+    @Test
+    public void fallsBackToLargestWhenNoSizeMeetsFaceSize() {
+        CostAwarePreviewSizeSelector selector = new CostAwarePreviewSizeSelector();
+
+        assertSize(176, 144, selector, QCIF_ONLY);
+    }
+
+    @Test
+    public void lowerBudgetNeverChoosesMorePixels() {
+        CostAwarePreviewSizeSelector selector = new CostAwarePreviewSizeSelector();
+        selector.setTargetAspectRatio(1920, 1080);
+        selector.setMinFaceSize(48, 0.1f);
+        int previousPixels = Integer.MAX_VALUE;
+        for (int budget = 1920 * 1080; budget >= 320 * 240; budget /= 2) {
+            selector.setPixelBudget(budget);
+            int[] size = select(selector, NEXUS_5_BACK);
+            int pixels = size[0] * size[1];
+            assertTrue("budget " + budget, pixels <= previousPixels);
+            previousPixels = pixels;
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptySizeList() {
+        new CostAwarePreviewSizeSelector().select(new int[0], new int[0], 0);
+    }
+
+    static void assertSize(int width, int height, PreviewSizeSelector selector, int[][] sizes) {
+        int[] size = select(selector, sizes);
+        assertEquals(width + "x" + height, size[0] + "x" + size[1]);
+    }
+
+    static int[] select(PreviewSizeSelector selector, int[][] sizes) {
+        int[] widths = new int[sizes.length];
+        int[] heights = new int[sizes.length];
+        for (int i = 0; i < sizes.length; i++) {
+            widths[i] = sizes[i][0];
+            heights[i] = sizes[i][1];
+        }
+        return sizes[selector.select(widths, heights, sizes.length)];
+    }
+}
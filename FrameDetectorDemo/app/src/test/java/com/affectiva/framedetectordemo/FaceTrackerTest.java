@@ -0,0 +1,177 @@
+package com.affectiva.framedetectordemo;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class FaceTrackerTest {
+
+    private static final long FRAME_NANOS = 33000000L;
+    private static final float SIZE = 100f;
+
+    /*
+        The landmarks of a square face SIZE across with its top left corner at (left, top): its four corners, then any
+        further points along the middle of the face, as interleaved x, y.
+     */
+    private static float[] face(float left, float top, int count) {
+        float[] xy = new float[2 * count];
+        for (int i = 0; i < count; i++) {
+            if (i < 4) {
+                xy[2 * i] = left + (i % 2) * SIZE;
+                xy[2 * i + 1] = top + (i / 2) * SIZE;
+            } else {
+                xy[2 * i] = left + SIZE * (i - 3) / (count - 3);
+                xy[2 * i + 1] = top + SIZE / 2;
+            }
+        }
+        return xy;
+    }
+
+    private static float[] face(float left, float top) {
+        return face(left, top, 4);
+    }
+
+    /*
+        Gives the tracker a result made of the given faces and returns their IDs.
+     */
+    private static int[] track(FaceTracker tracker, long timestampNanos, float[]... faces) {
+        tracker.beginFrame();
+        for (float[] xy : faces) {
+            tracker.addFace(xy, xy.length / 2);
+        }
+        int[] ids = new int[tracker.getMaxFaces()];
+        int count = tracker.endFrame(timestampNanos, ids);
+        int[] result = new int[count];
+        System.arraycopy(ids, 0, result, 0, count);
+        return result;
+    }
+
+    @Test
+    public void facesKeepIdsWhenReordered() {
+        FaceTracker tracker = new FaceTracker();
+        assertArrayEquals(new int[]{0, 1}, track(tracker, 0, face(0, 0), face(300, 0)));
+
+        assertArrayEquals(new int[]{1, 0}, track(tracker, FRAME_NANOS, face(305, 5), face(5, 0)));
+        assertArrayEquals(new int[]{0, 1}, track(tracker, 2 * FRAME_NANOS, face(10, 0), face(310, 5)));
+    }
+
+    @Test
+    public void newFaceDoesNotTakeOverId() {
+        FaceTracker tracker = new FaceTracker();
+        assertArrayEquals(new int[]{0}, track(tracker, 0, face(0, 0)));
+
+        //the new face comes first, where the detector would have put the known one before
+        assertArrayEquals(new int[]{1, 0}, track(tracker, FRAME_NANOS, face(300, 0), face(0, 5)));
+    }
+
+    @Test
+    public void pairsAreMatchedBestFirst() {
+        FaceTracker tracker = new FaceTracker();
+        track(tracker, 0, face(0, 0), face(60, 0));
+
+        //the first face is nearer the second track, but the second face is nearer still and gets it
+        assertArrayEquals(new int[]{0, 1}, track(tracker, FRAME_NANOS, face(35, 0), face(62, 0)));
+    }
+
+    @Test
+    public void missingFaceKeepsIdUntilMaxMissingNanos() {
+        FaceTracker tracker = new FaceTracker();
+        track(tracker, 0, face(0, 0), face(300, 0));
+        long maxMissingNanos = FaceTracker.DEFAULT_MAX_MISSING_NANOS;
+        track(tracker, maxMissingNanos / 2, face(300, 0));
+
+        assertArrayEquals(new int[]{0, 1}, track(tracker, maxMissingNanos, face(0, 0), face(300, 0)));
+        track(tracker, maxMissingNanos * 3 / 2, face(300, 0));
+        assertArrayEquals(new int[]{2, 1}, track(tracker, 2 * maxMissingNanos + 1, face(0, 0), face(300, 0)));
+    }
+
+    @Test
+    public void expiringTrackLeavesOthersMatched() {
+        FaceTracker tracker = new FaceTracker();
+        track(tracker, 0, face(0, 0), face(300, 0), face(600, 0));
+        //the first track expires and the last is moved into its place
+        long nowNanos = FaceTracker.DEFAULT_MAX_MISSING_NANOS;
+        track(tracker, nowNanos, face(300, 0), face(600, 0));
+
+        assertArrayEquals(new int[]{2, 1}, track(tracker, 2 * nowNanos, face(600, 0), face(300, 0)));
+    }
+
+    @Test
+    public void fullTrackerDropsTrackSeenLongestAgo() {
+        //room for one face and one missing one
+        FaceTracker tracker = new FaceTracker(1, FaceTracker.DEFAULT_MIN_OVERLAP,
+                FaceTracker.DEFAULT_MAX_LANDMARK_DISTANCE, Long.MAX_VALUE / 2);
+        assertArrayEquals(new int[]{0}, track(tracker, 0, face(0, 0)));
+        assertArrayEquals(new int[]{1}, track(tracker, FRAME_NANOS, face(300, 0)));
+        assertArrayEquals(new int[]{2}, track(tracker, 2 * FRAME_NANOS, face(600, 0)));
+
+        assertArrayEquals(new int[]{1}, track(tracker, 3 * FRAME_NANOS, face(300, 0)));
+        assertArrayEquals(new int[]{3}, track(tracker, 4 * FRAME_NANOS, face(0, 0)));
+    }
+
+    @Test
+    public void facesOverlappingTooLittleMatchByLandmarks() {
+        //only identical boxes overlap enough
+        FaceTracker tracker = new FaceTracker(FaceTracker.DEFAULT_MAX_FACES, 1f,
+                FaceTracker.DEFAULT_MAX_LANDMARK_DISTANCE, FaceTracker.DEFAULT_MAX_MISSING_NANOS);
+        track(tracker, 0, face(0, 0));
+
+        assertArrayEquals(new int[]{0}, track(tracker, FRAME_NANOS, face(20, 10)));
+        //but not if they moved too far
+        assertArrayEquals(new int[]{1}, track(tracker, 2 * FRAME_NANOS, face(80, 10)));
+    }
+
+    @Test
+    public void facesWithOtherLandmarkCountMatchByOverlap() {
+        FaceTracker tracker = new FaceTracker();
+        track(tracker, 0, face(0, 0, 4));
+
+        assertArrayEquals(new int[]{0}, track(tracker, FRAME_NANOS, face(5, 0, 8)));
+    }
+
+    @Test
+    public void moreLandmarksMidResultKeepEarlierFaces() {
+        //matching by landmarks alone, so that points lost in growing their arrays would show
+        FaceTracker tracker = new FaceTracker(FaceTracker.DEFAULT_MAX_FACES, 1f,
+                FaceTracker.DEFAULT_MAX_LANDMARK_DISTANCE, FaceTracker.DEFAULT_MAX_MISSING_NANOS);
+        track(tracker, 0, face(0, 0, 4));
+
+        assertArrayEquals(new int[]{0, 1}, track(tracker, FRAME_NANOS, face(5, 0, 4), face(300, 0, 8)));
+        assertArrayEquals(new int[]{0, 1}, track(tracker, 2 * FRAME_NANOS, face(10, 0, 4), face(305, 0, 8)));
+    }
+
+    @Test
+    public void facesWithoutLandmarksAreNotTracked() {
+        FaceTracker tracker = new FaceTracker();
+
+        assertArrayEquals(new int[]{FaceTracker.NO_FACE, 0}, track(tracker, 0, new float[0], face(0, 0)));
+    }
+
+    @Test
+    public void facesBeyondMaxFacesAreIgnored() {
+        FaceTracker tracker = new FaceTracker(2, FaceTracker.DEFAULT_MIN_OVERLAP,
+                FaceTracker.DEFAULT_MAX_LANDMARK_DISTANCE, FaceTracker.DEFAULT_MAX_MISSING_NANOS);
+
+        assertArrayEquals(new int[]{0, 1}, track(tracker, 0, face(0, 0), face(300, 0), face(600, 0)));
+    }
+
+    @Test
+    public void resetGivesFacesNewIds() {
+        FaceTracker tracker = new FaceTracker();
+        track(tracker, 0, face(0, 0));
+        tracker.reset();
+
+        assertArrayEquals(new int[]{1}, track(tracker, FRAME_NANOS, face(0, 0)));
+    }
+
+    @Test
+    public void chooseFaceFollowsCurrentFaceOrElseOldest() {
+        int[] ids = {FaceTracker.NO_FACE, 5, 3, 7};
+
+        assertEquals(7, FaceTracker.chooseFace(7, ids, ids.length));
+        assertEquals(3, FaceTracker.chooseFace(2, ids, ids.length));
+        assertEquals(5, FaceTracker.chooseFace(FaceTracker.NO_FACE, ids, 2));
+        assertEquals(FaceTracker.NO_FACE, FaceTracker.chooseFace(5, ids, 1));
+    }
+}
@@ -0,0 +1,149 @@
+package com.affectiva.framedetectordemo;
+
+import com.affectiva.android.affdex.sdk.Frame;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FakeCameraSourceTest {
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+    private static final long FRAME_NANOS = 33000000L;
+
+    /*
+        A consumer which, while holding, keeps every frame it is given, as a detector does with the frames it is working on.
+     */
+    private static class HoldingListener implements CameraSource.OnCameraSourceEventListener {
+        final List<FrameBuffer> held = new ArrayList<>();
+        final List<byte[]> dataSeen = new ArrayList<>();
+        boolean isHolding = false;
+
+        @Override
+        public void onFrameAvailable(FrameBuffer frame, int width, int height, Frame.ROTATE rotation,
+                                     long captureNanos) {
+            assertEquals(1, frame.refCount.get());
+            dataSeen.add(frame.getData());
+            if (isHolding) {
+                frame.retain();
+                held.add(frame);
+            }
+        }
+
+        @Override
+        public void onFrameSizeSelected(int width, int height, Frame.ROTATE rotation) {
+        }
+
+        @Override
+        public void onCameraStarted(boolean success, Throwable error) {
+        }
+
+        void releaseAll() {
+            for (FrameBuffer frame : held) {
+                frame.release();
+            }
+            held.clear();
+        }
+    }
+
+    private static FakeCameraSource createSource(HoldingListener listener) {
+        FakeCameraSource source = new FakeCameraSource(WIDTH, HEIGHT, Frame.ROTATE.NO_ROTATION);
+        source.setOnCameraSourceEventListener(listener);
+        source.startCamera(CameraSource.CameraType.CAMERA_FRONT);
+        return source;
+    }
+
+    @Test
+    public void buffersGoRoundWhileConsumersReleaseThem() {
+        HoldingListener listener = new HoldingListener();
+        FakeCameraSource source = createSource(listener);
+        for (int i = 0; i < 30; i++) {
+            assertTrue(source.deliverFrame(i * FRAME_NANOS));
+        }
+
+        assertEquals(30, source.getFramesDelivered());
+        assertEquals(0, source.getFramesDropped());
+        assertEquals(1, source.bufferPool.getAllocationCount());
+        assertEquals(0, source.bufferPool.getBuffersInUse());
+    }
+
+    @Test
+    public void dropsFramesWhileConsumersHoldEveryBuffer() {
+        HoldingListener listener = new HoldingListener();
+        FakeCameraSource source = createSource(listener);
+        int bufferCount = source.bufferPool.getBufferCount();
+        listener.isHolding = true;
+        for (int i = 0; i < bufferCount; i++) {
+            assertTrue(source.deliverFrame(i * FRAME_NANOS));
+        }
+        assertFalse(source.deliverFrame(bufferCount * FRAME_NANOS));
+        assertFalse(source.deliverFrame((bufferCount + 1) * FRAME_NANOS));
+        assertEquals(2, source.getFramesDropped());
+        assertEquals(bufferCount, source.bufferPool.getBuffersInUse());
+        //the frame that took the last buffer left the camera without one
+        assertEquals(1, source.bufferPool.getExhaustionCount());
+
+        listener.isHolding = false;
+        listener.releaseAll();
+        assertTrue(source.deliverFrame((bufferCount + 2) * FRAME_NANOS));
+        assertEquals(bufferCount + 1, source.getFramesDelivered());
+    }
+
+    @Test
+    public void bufferHeldAcrossReallocationIsNotReused() {
+        HoldingListener listener = new HoldingListener();
+        FakeCameraSource source = createSource(listener);
+        listener.isHolding = true;
+        source.deliverFrame(0);
+        byte[] oldData = listener.held.get(0).getData();
+
+        //a restart with more buffers reallocates the pool while a consumer still holds one of the old buffers
+        source.stopCamera();
+        source.setCallbackBufferCount(4);
+        source.startCamera(CameraSource.CameraType.CAMERA_FRONT);
+        assertEquals(2, source.bufferPool.getAllocationCount());
+        listener.releaseAll();
+
+        listener.dataSeen.clear();
+        for (int i = 1; i <= 4; i++) {
+            assertTrue(source.deliverFrame(i * FRAME_NANOS));
+        }
+        assertFalse(source.deliverFrame(5 * FRAME_NANOS));
+        for (byte[] data : listener.dataSeen) {
+            assertFalse(data == oldData);
+        }
+    }
+
+    @Test
+    public void freeBuffersQueuedBeforeReallocationAreNotTaken() {
+        HoldingListener listener = new HoldingListener();
+        FakeCameraSource source = createSource(listener);
+        source.deliverFrame(0);
+
+        //reallocated under the queue, without a detach and attach; the queued buffers no longer belong to the pool
+        source.bufferPool.ensureBuffers(Nv21Image.bufferSize(WIDTH * 2, HEIGHT * 2));
+        assertFalse(source.deliverFrame(FRAME_NANOS));
+        assertEquals(0, source.bufferPool.getBuffersInUse());
+
+        //once attached again, the new buffers are handed out
+        source.freeBuffers.attach();
+        assertTrue(source.freeBuffers.take() != null);
+        assertEquals(1, source.bufferPool.getBuffersInUse());
+    }
+
+    @Test
+    public void stoppedSourceDeliversNothing() {
+        HoldingListener listener = new HoldingListener();
+        FakeCameraSource source = createSource(listener);
+        source.stopCamera();
+
+        assertFalse(source.deliverFrame(0));
+        assertEquals(0, listener.dataSeen.size());
+    }
+}
@@ -0,0 +1,70 @@
+package com.affectiva.framedetectordemo;
+
+import com.affectiva.android.affdex.sdk.Frame;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+public class FramePreprocessorTest {
+
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+
+    private static FrameBuffer createBuffer() {
+        return FrameBuffer.wrap(new byte[Nv21Image.bufferSize(WIDTH, HEIGHT)]);
+    }
+
+    @Test
+    public void downscalesFullFrameAfterDeviceIsTurned() {
+        FramePreprocessor preprocessor = new FramePreprocessor();
+        preprocessor.setDownscaleFactor(2);
+        //the pool keeps its buffers when the device is turned, so the same buffer comes back with another rotation
+        FrameBuffer buffer = createBuffer();
+
+        Frame.ROTATE[] rotations = {Frame.ROTATE.BY_90_CCW, Frame.ROTATE.NO_ROTATION, Frame.ROTATE.BY_90_CW,
+                Frame.ROTATE.BY_180};
+        for (Frame.ROTATE rotation : rotations) {
+            Frame frame = preprocessor.getFrame(buffer, WIDTH, HEIGHT, rotation);
+            assertEquals(rotation.name(), WIDTH / 2, frame.getWidth());
+            assertEquals(rotation.name(), HEIGHT / 2, frame.getHeight());
+            assertEquals(rotation, frame.getTargetRotation());
+        }
+    }
+
+    @Test
+    public void regionOfAnotherSizeReusesScratchData() {
+        FaceRoiTracker tracker = new FaceRoiTracker();
+        FramePreprocessor preprocessor = new FramePreprocessor(tracker);
+        preprocessor.setDownscaleFactor(2);
+        FrameBuffer buffer = createBuffer();
+        Frame downscaled = preprocessor.getFrame(buffer, WIDTH, HEIGHT, Frame.ROTATE.NO_ROTATION);
+        byte[] scratchData = ((Frame.ByteArrayFrame) downscaled).getByteArray();
+
+        preprocessor.setDownscaleFactor(4);
+        Frame smaller = preprocessor.getFrame(buffer, WIDTH, HEIGHT, Frame.ROTATE.NO_ROTATION);
+        assertEquals(WIDTH / 4, smaller.getWidth());
+        assertSame(scratchData, ((Frame.ByteArrayFrame) smaller).getByteArray());
+
+        preprocessor.setDownscaleFactor(1);
+        tracker.onFacesFound(100f, 100f, 200f, 200f, WIDTH, HEIGHT);
+        Frame cropped = preprocessor.getFrame(buffer, WIDTH, HEIGHT, Frame.ROTATE.NO_ROTATION);
+        assertFalse(cropped.getWidth() == WIDTH);
+        assertSame(scratchData, ((Frame.ByteArrayFrame) cropped).getByteArray());
+    }
+
+    @Test
+    public void turningDeviceForgetsRegion() {
+        FaceRoiTracker tracker = new FaceRoiTracker();
+        FramePreprocessor preprocessor = new FramePreprocessor(tracker);
+        FrameBuffer buffer = createBuffer();
+        preprocessor.getFrame(buffer, WIDTH, HEIGHT, Frame.ROTATE.BY_90_CCW);
+        //a face found in the upright portrait frame
+        tracker.onFacesFound(100f, 300f, 200f, 400f, HEIGHT, WIDTH);
+
+        preprocessor.getFrame(buffer, WIDTH, HEIGHT, Frame.ROTATE.NO_ROTATION);
+        assertFalse(tracker.nextRegion(new int[4]));
+    }
+}
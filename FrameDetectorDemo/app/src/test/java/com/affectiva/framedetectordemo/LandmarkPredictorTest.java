@@ -0,0 +1,109 @@
+package com.affectiva.framedetectordemo;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LandmarkPredictorTest {
+
+    private static final long FRAME_NANOS = 33000000L;
+
+    @Test
+    public void predictsNothingBeforeFirstResult() {
+        LandmarkPredictor predictor = new LandmarkPredictor();
+
+        assertEquals(0, predictor.getPointCount());
+        assertEquals(0, predictor.predict(0, new float[4]));
+    }
+
+    @Test
+    public void firstResultIsPredictedWhereItWas() {
+        LandmarkPredictor predictor = new LandmarkPredictor();
+        predictor.update(new float[]{10f, 20f, 30f, 40f}, 2, 0);
+
+        float[] predicted = new float[4];
+        assertEquals(2, predictor.predict(FRAME_NANOS, predicted));
+        assertArrayEquals(new float[]{10f, 20f, 30f, 40f}, predicted, 0.001f);
+    }
+
+    @Test
+    public void followsPointMovingAtConstantVelocity() {
+        LandmarkPredictor predictor = new LandmarkPredictor();
+        //300 pixels per second to the right, i.e. 9.9 pixels per frame
+        float velocity = 300f;
+        long timestampNanos = 0;
+        for (int i = 0; i < 30; i++) {
+            predictor.update(new float[]{velocity * timestampNanos / 1e9f, 50f}, 1, timestampNanos);
+            timestampNanos += FRAME_NANOS;
+        }
+        long lastNanos = timestampNanos - FRAME_NANOS;
+
+        //half a frame after the last result, the point has moved on from where it was reported
+        float[] predicted = new float[2];
+        predictor.predict(lastNanos + FRAME_NANOS / 2, predicted);
+        assertEquals(velocity * (lastNanos + FRAME_NANOS / 2) / 1e9f, predicted[0], 0.5f);
+        assertEquals(50f, predicted[1], 0.001f);
+    }
+
+    @Test
+    public void extrapolatesNoFurtherThanMaximum() {
+        long maxExtrapolationNanos = 100000000L;
+        LandmarkPredictor predictor = new LandmarkPredictor(LandmarkPredictor.DEFAULT_ALPHA,
+                LandmarkPredictor.DEFAULT_BETA, maxExtrapolationNanos, 1000000000L);
+        long timestampNanos = 0;
+        for (int i = 0; i < 30; i++) {
+            predictor.update(new float[]{timestampNanos / 1e6f, 0f}, 1, timestampNanos);
+            timestampNanos += FRAME_NANOS;
+        }
+        long lastNanos = timestampNanos - FRAME_NANOS;
+
+        float[] atMaximum = new float[2];
+        float[] beyondMaximum = new float[2];
+        predictor.predict(lastNanos + maxExtrapolationNanos, atMaximum);
+        predictor.predict(lastNanos + 3 * maxExtrapolationNanos, beyondMaximum);
+        assertTrue(atMaximum[0] > lastNanos / 1e6f);
+        assertEquals(atMaximum[0], beyondMaximum[0], 0.001f);
+    }
+
+    @Test
+    public void staleResultIsNotPredicted() {
+        LandmarkPredictor predictor = new LandmarkPredictor();
+        predictor.update(new float[]{10f, 20f}, 1, 0);
+
+        assertEquals(1, predictor.predict(LandmarkPredictor.DEFAULT_STALE_NANOS, new float[2]));
+        assertEquals(0, predictor.predict(LandmarkPredictor.DEFAULT_STALE_NANOS + 1, new float[2]));
+    }
+
+    @Test
+    public void differentPointCountStartsOver() {
+        LandmarkPredictor predictor = new LandmarkPredictor();
+        predictor.update(new float[]{0f, 0f}, 1, 0);
+        predictor.update(new float[]{10f, 0f}, 1, FRAME_NANOS);
+        predictor.update(new float[]{100f, 100f, 200f, 200f}, 2, 2 * FRAME_NANOS);
+
+        //no velocity carried over from the single point
+        float[] predicted = new float[4];
+        assertEquals(2, predictor.predict(3 * FRAME_NANOS, predicted));
+        assertArrayEquals(new float[]{100f, 100f, 200f, 200f}, predicted, 0.001f);
+    }
+
+    @Test
+    public void resetForgetsFace() {
+        LandmarkPredictor predictor = new LandmarkPredictor();
+        predictor.update(new float[]{10f, 20f}, 1, 0);
+        predictor.reset();
+
+        assertEquals(0, predictor.getPointCount());
+        assertEquals(0, predictor.predict(FRAME_NANOS, new float[2]));
+    }
+
+    @Test
+    public void tooSmallOutputGetsNothing() {
+        LandmarkPredictor predictor = new LandmarkPredictor();
+        predictor.update(new float[]{10f, 20f, 30f, 40f}, 2, 0);
+
+        assertEquals(0, predictor.predict(FRAME_NANOS, new float[3]));
+    }
+}
@@ -0,0 +1,172 @@
+package com.affectiva.framedetectordemo;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MetricSmootherTest {
+
+    private static final float TOLERANCE = 1e-4f;
+    private static final long SAMPLE_NANOS = 100000000L;
+
+    /*
+        Smooths the scores one SAMPLE_NANOS apart and checks each output against the expected one.
+     */
+    private static void assertSmoothed(MetricSmoother smoother, Metrics metric, float[] scores, float[] expected) {
+        for (int i = 0; i < scores.length; i++) {
+            assertEquals("score " + i, expected[i], smoother.smooth(metric, scores[i], i * SAMPLE_NANOS), TOLERANCE);
+        }
+    }
+
+    @Test
+    public void noneLeavesScoresUnchanged() {
+        MetricSmoother smoother = new MetricSmoother();
+        smoother.setNone(Metrics.JOY);
+
+        assertSmoothed(smoother, Metrics.JOY, new float[]{0f, 100f, 3f}, new float[]{0f, 100f, 3f});
+    }
+
+    @Test
+    public void emaMovesByAlphaOfDifference() {
+        MetricSmoother smoother = new MetricSmoother();
+        smoother.setEma(Metrics.JOY, 0.5f);
+
+        assertSmoothed(smoother, Metrics.JOY, new float[]{0f, 10f, 10f, 2f}, new float[]{0f, 5f, 7.5f, 4.75f});
+    }
+
+    @Test
+    public void oneEuroWithoutBetaIsLowPassAtMinCutoff() {
+        MetricSmoother smoother = new MetricSmoother();
+        smoother.setOneEuro(Metrics.JOY, 1f, 0f);
+
+        //a smoothing factor of 1 / (1 + 1 / (2 pi 1Hz 0.1s)) for a cutoff of 1Hz and samples 0.1s apart
+        assertSmoothed(smoother, Metrics.JOY, new float[]{0f, 10f}, new float[]{0f, 3.858695f});
+    }
+
+    @Test
+    public void oneEuroCutoffRisesWithSmoothedDerivative() {
+        MetricSmoother smoother = new MetricSmoother();
+        smoother.setOneEuro(Metrics.JOY, 1f, 0.1f);
+
+        //the derivative, 100 per second, is itself smoothed at DERIVATIVE_CUTOFF_HZ to 38.587, for a cutoff of 4.859Hz;
+        //then the derivative of the remaining step, 24.674, brings it to 33.218, for a cutoff of 4.322Hz
+        assertSmoothed(smoother, Metrics.JOY, new float[]{0f, 10f, 10f}, new float[]{0f, 7.532575f, 9.335910f});
+    }
+
+    @Test
+    public void oneEuroIgnoresScoresNotLaterThanLast() {
+        MetricSmoother smoother = new MetricSmoother();
+        smoother.setOneEuro(Metrics.JOY, 1f, 0f);
+        smoother.smooth(Metrics.JOY, 0f, 0);
+
+        assertEquals(0f, smoother.smooth(Metrics.JOY, 10f, 0), 0f);
+        assertEquals(0f, smoother.smooth(Metrics.JOY, 10f, -SAMPLE_NANOS), 0f);
+        //as though they had never come
+        assertEquals(3.858695f, smoother.smooth(Metrics.JOY, 10f, SAMPLE_NANOS), TOLERANCE);
+    }
+
+    @Test
+    public void medianOfOddWindow() {
+        MetricSmoother smoother = new MetricSmoother();
+        smoother.setMedian(Metrics.JOY, 3);
+
+        //the window fills up, then drops its oldest score for each new one
+        assertSmoothed(smoother, Metrics.JOY, new float[]{5f, 1f, 9f, 2f, 8f, 100f, 7f},
+                new float[]{5f, 3f, 5f, 2f, 8f, 8f, 8f});
+    }
+
+    @Test
+    public void medianOfEvenWindowAveragesMiddleScores() {
+        MetricSmoother smoother = new MetricSmoother();
+        smoother.setMedian(Metrics.JOY, 4);
+
+        assertSmoothed(smoother, Metrics.JOY, new float[]{4f, 1f, 3f, 2f, 10f, 0f},
+                new float[]{4f, 2.5f, 3f, 2.5f, 2.5f, 2.5f});
+    }
+
+    @Test
+    public void nanPassesThroughWithoutAffectingState() {
+        MetricSmoother smoother = new MetricSmoother();
+        smoother.setEma(Metrics.JOY, 0.5f);
+        smoother.setMedian(Metrics.ANGER, 3);
+
+        assertSmoothed(smoother, Metrics.JOY, new float[]{0f, Float.NaN, 10f}, new float[]{0f, Float.NaN, 5f});
+        assertSmoothed(smoother, Metrics.ANGER, new float[]{1f, Float.NaN, 3f}, new float[]{1f, Float.NaN, 2f});
+    }
+
+    @Test
+    public void resetForgetsHistory() {
+        MetricSmoother smoother = new MetricSmoother();
+        smoother.setEma(Metrics.JOY, 0.5f);
+        smoother.setMedian(Metrics.ANGER, 3);
+        assertSmoothed(smoother, Metrics.JOY, new float[]{0f, 10f}, new float[]{0f, 5f});
+        assertSmoothed(smoother, Metrics.ANGER, new float[]{1f, 2f}, new float[]{1f, 1.5f});
+
+        smoother.reset();
+        assertEquals(20f, smoother.smooth(Metrics.JOY, 20f, 10 * SAMPLE_NANOS), 0f);
+        assertEquals(7f, smoother.smooth(Metrics.ANGER, 7f, 10 * SAMPLE_NANOS), 0f);
+    }
+
+    @Test
+    public void changingFilterResetsMetric() {
+        MetricSmoother smoother = new MetricSmoother();
+        smoother.setEma(Metrics.JOY, 0.5f);
+        smoother.smooth(Metrics.JOY, 0f, 0);
+
+        smoother.setEma(Metrics.JOY, 0.25f);
+        assertEquals(10f, smoother.smooth(Metrics.JOY, 10f, SAMPLE_NANOS), 0f);
+    }
+
+    @Test
+    public void metricsAreSmoothedSeparately() {
+        MetricSmoother smoother = new MetricSmoother();
+        smoother.setEma(Metrics.JOY, 0.5f);
+        smoother.setEma(Metrics.ANGER, 0.5f);
+        smoother.smooth(Metrics.JOY, 0f, 0);
+
+        assertEquals(10f, smoother.smooth(Metrics.ANGER, 10f, 0), 0f);
+        assertEquals(5f, smoother.smooth(Metrics.JOY, 10f, SAMPLE_NANOS), TOLERANCE);
+    }
+
+    @Test
+    public void smoothersSharingConfigurationKeepOwnState() {
+        MetricSmoother first = new MetricSmoother();
+        first.setEma(Metrics.JOY, 0.5f);
+        MetricSmoother second = new MetricSmoother(first);
+        assertEquals(MetricSmoother.Filter.EMA, second.getFilter(Metrics.JOY));
+
+        first.smooth(Metrics.JOY, 0f, 0);
+        assertEquals(10f, second.smooth(Metrics.JOY, 10f, 0), 0f);
+        assertEquals(5f, first.smooth(Metrics.JOY, 10f, SAMPLE_NANOS), TOLERANCE);
+        assertEquals(10f, second.smooth(Metrics.JOY, 10f, SAMPLE_NANOS), TOLERANCE);
+
+        //a later change of the configuration applies to both
+        first.setMedian(Metrics.JOY, 3);
+        second.reset();
+        assertEquals(MetricSmoother.Filter.MEDIAN, second.getFilter(Metrics.JOY));
+        second.smooth(Metrics.JOY, 1f, 2 * SAMPLE_NANOS);
+        assertEquals(2f, second.smooth(Metrics.JOY, 3f, 3 * SAMPLE_NANOS), 0f);
+    }
+
+    @Test
+    public void defaultsToOneEuro() {
+        MetricSmoother smoother = new MetricSmoother();
+        for (Metrics metric : Metrics.values()) {
+            assertEquals(MetricSmoother.Filter.ONE_EURO, smoother.getFilter(metric));
+        }
+        smoother.smooth(Metrics.JOY, 0f, 0);
+        float smoothed = smoother.smooth(Metrics.JOY, 10f, SAMPLE_NANOS);
+        assertTrue(smoothed > 0f && smoothed < 10f);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmaAlphaOfZero() {
+        new MetricSmoother().setEma(Metrics.JOY, 0f);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMedianWiderThanMax() {
+        new MetricSmoother().setMedian(Metrics.JOY, MetricSmoother.MAX_MEDIAN_SIZE + 1);
+    }
+}
@@ -0,0 +1,71 @@
+package com.affectiva.framedetectordemo;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MotionGateTest {
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+    private static final long FRAME_NANOS = 33000000L;
+
+    private static byte[] uniformFrame(int luma) {
+        byte[] data = new byte[WIDTH * HEIGHT * 3 / 2];
+        Arrays.fill(data, (byte) luma);
+        return data;
+    }
+
+    private static MotionGate createGate() {
+        return new MotionGate(4, MotionGate.DEFAULT_THRESHOLD, MotionGate.DEFAULT_MAX_SKIP_NANOS);
+    }
+
+    @Test
+    public void firstFrameHasChanged() {
+        assertTrue(createGate().hasChanged(uniformFrame(0), WIDTH, HEIGHT, 0));
+    }
+
+    @Test
+    public void frameLikeReferenceIsSkipped() {
+        MotionGate gate = createGate();
+        gate.commitReference(uniformFrame(100), WIDTH, HEIGHT, 0);
+
+        assertFalse(gate.hasChanged(uniformFrame(102), WIDTH, HEIGHT, FRAME_NANOS));
+        assertEquals(1, gate.getFramesSkipped());
+        assertEquals(1, gate.getFramesAnalyzed());
+    }
+
+    @Test
+    public void uncommittedFrameDoesNotBecomeReference() {
+        MotionGate gate = createGate();
+        gate.commitReference(uniformFrame(0), WIDTH, HEIGHT, 0);
+
+        //the detector turned this frame away, so the next one is still compared with the dark frame
+        assertTrue(gate.hasChanged(uniformFrame(100), WIDTH, HEIGHT, FRAME_NANOS));
+        assertTrue(gate.hasChanged(uniformFrame(100), WIDTH, HEIGHT, 2 * FRAME_NANOS));
+
+        gate.commitReference(uniformFrame(100), WIDTH, HEIGHT, 2 * FRAME_NANOS);
+        assertFalse(gate.hasChanged(uniformFrame(100), WIDTH, HEIGHT, 3 * FRAME_NANOS));
+    }
+
+    @Test
+    public void stillSceneIsAnalyzedAfterMaxSkip() {
+        MotionGate gate = createGate();
+        gate.commitReference(uniformFrame(100), WIDTH, HEIGHT, 0);
+
+        assertFalse(gate.hasChanged(uniformFrame(100), WIDTH, HEIGHT, MotionGate.DEFAULT_MAX_SKIP_NANOS - 1));
+        assertTrue(gate.hasChanged(uniformFrame(100), WIDTH, HEIGHT, MotionGate.DEFAULT_MAX_SKIP_NANOS));
+    }
+
+    @Test
+    public void frameSizeChangeHasChanged() {
+        MotionGate gate = createGate();
+        gate.commitReference(uniformFrame(100), WIDTH, HEIGHT, 0);
+
+        assertTrue(gate.hasChanged(new byte[WIDTH * 2 * HEIGHT * 2 * 3 / 2], WIDTH * 2, HEIGHT * 2, FRAME_NANOS));
+    }
+}
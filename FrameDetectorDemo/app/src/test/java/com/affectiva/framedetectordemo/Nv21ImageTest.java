@@ -0,0 +1,241 @@
+package com.affectiva.framedetectordemo;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class Nv21ImageTest {
+
+    //a camera image of a size whose upright region below fits it either way round
+    private static final int WIDTH = 24;
+    private static final int HEIGHT = 16;
+
+    //a region of the upright image, {left, top, right, bottom}, even and a multiple of 8 in size
+    private static final int[] UPRIGHT_REGION = {2, 4, 10, 12};
+
+    /*
+        An NV21 image in which every sample differs from its neighbours, so that any mix-up of rows, columns or of the V
+        and U samples shows.
+     */
+    private static byte[] testImage(int width, int height) {
+        byte[] data = new byte[Nv21Image.bufferSize(width, height)];
+        for (int i = 0; i < width * height; i++) {
+            data[i] = (byte) (i * 7 + i / width * 13);
+        }
+        for (int i = width * height; i < data.length; i++) {
+            data[i] = (byte) (i * 5 + 1);
+        }
+        return data;
+    }
+
+    private static int luma(byte[] data, int width, int x, int y) {
+        return data[y * width + x] & 0xFF;
+    }
+
+    /*
+        Returns the V (channel 0) or U (channel 1) sample covering pixel (x, y).
+     */
+    private static int chroma(byte[] data, int width, int height, int x, int y, int channel) {
+        return data[width * height + (y / 2) * width + (x / 2) * 2 + channel] & 0xFF;
+    }
+
+    /*
+        Returns the position in the camera image of pixel (x, y) of the upright image it is rotated to by quarterTurns
+        clockwise quarter turns, as {x, y}.
+     */
+    private static int[] toRawPixel(int x, int y, int quarterTurns) {
+        switch (quarterTurns) {
+            case 0:
+                return new int[]{x, y};
+            case 1:
+                return new int[]{y, HEIGHT - 1 - x};
+            case 2:
+                return new int[]{WIDTH - 1 - x, HEIGHT - 1 - y};
+            default:
+                return new int[]{WIDTH - 1 - y, x};
+        }
+    }
+
+    private static int[] toRawRegion(int quarterTurns) {
+        int[] raw = new int[4];
+        Nv21Image.toRawRegion(UPRIGHT_REGION, WIDTH, HEIGHT, quarterTurns, raw);
+        return raw;
+    }
+
+    @Test
+    public void rawRegionHoldsExactlyTheUprightRegion() {
+        for (int quarterTurns = 0; quarterTurns < 4; quarterTurns++) {
+            int[] raw = toRawRegion(quarterTurns);
+            String turns = quarterTurns + " quarter turns";
+            assertTrue(turns, raw[0] >= 0 && raw[1] >= 0 && raw[2] <= WIDTH && raw[3] <= HEIGHT);
+            int uprightArea = (UPRIGHT_REGION[2] - UPRIGHT_REGION[0]) * (UPRIGHT_REGION[3] - UPRIGHT_REGION[1]);
+            assertEquals(turns, uprightArea, (raw[2] - raw[0]) * (raw[3] - raw[1]));
+            for (int y = UPRIGHT_REGION[1]; y < UPRIGHT_REGION[3]; y++) {
+                for (int x = UPRIGHT_REGION[0]; x < UPRIGHT_REGION[2]; x++) {
+                    int[] pixel = toRawPixel(x, y, quarterTurns);
+                    assertTrue(turns + " at " + x + "," + y, pixel[0] >= raw[0] && pixel[0] < raw[2]
+                            && pixel[1] >= raw[1] && pixel[1] < raw[3]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void rawRegionMayBeWrittenOverUprightRegion() {
+        for (int quarterTurns = 0; quarterTurns < 4; quarterTurns++) {
+            int[] region = UPRIGHT_REGION.clone();
+            Nv21Image.toRawRegion(region, WIDTH, HEIGHT, quarterTurns, region);
+            assertArrayEquals(toRawRegion(quarterTurns), region);
+        }
+    }
+
+    @Test
+    public void cropCopiesRawRegionOfEveryRotation() {
+        byte[] src = testImage(WIDTH, HEIGHT);
+        for (int quarterTurns = 0; quarterTurns < 4; quarterTurns++) {
+            int[] raw = toRawRegion(quarterTurns);
+            int width = raw[2] - raw[0];
+            int height = raw[3] - raw[1];
+            byte[] dst = new byte[Nv21Image.bufferSize(width, height)];
+            Nv21Image.crop(src, WIDTH, HEIGHT, raw[0], raw[1], width, height, dst);
+
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    String at = quarterTurns + " quarter turns, at " + x + "," + y;
+                    assertEquals(at, luma(src, WIDTH, raw[0] + x, raw[1] + y), luma(dst, width, x, y));
+                    for (int channel = 0; channel < 2; channel++) {
+                        assertEquals(at, chroma(src, WIDTH, HEIGHT, raw[0] + x, raw[1] + y, channel),
+                                chroma(dst, width, height, x, y, channel));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void downscaleAveragesRawRegionOfEveryRotation() {
+        byte[] src = testImage(WIDTH, HEIGHT);
+        for (int factor : new int[]{1, 2, 4}) {
+            for (int quarterTurns = 0; quarterTurns < 4; quarterTurns++) {
+                int[] raw = toRawRegion(quarterTurns);
+                int outWidth = (raw[2] - raw[0]) / factor;
+                int outHeight = (raw[3] - raw[1]) / factor;
+                byte[] dst = new byte[Nv21Image.bufferSize(outWidth, outHeight)];
+                Nv21Image.downscale(src, WIDTH, HEIGHT, raw[0], raw[1], raw[2] - raw[0], raw[3] - raw[1], factor, dst);
+
+                for (int y = 0; y < outHeight; y++) {
+                    for (int x = 0; x < outWidth; x++) {
+                        String at = "factor " + factor + ", " + quarterTurns + " quarter turns, at " + x + "," + y;
+                        int left = raw[0] + x * factor;
+                        int top = raw[1] + y * factor;
+                        int sum = 0;
+                        for (int dy = 0; dy < factor; dy++) {
+                            for (int dx = 0; dx < factor; dx++) {
+                                sum += luma(src, WIDTH, left + dx, top + dy);
+                            }
+                        }
+                        assertEquals(at, (sum + factor * factor / 2) / (factor * factor), luma(dst, outWidth, x, y));
+                    }
+                }
+                //each output V/U pair covers 2x2 output pixels, so factor x factor of the source's pairs
+                for (int y = 0; y < outHeight; y += 2) {
+                    for (int x = 0; x < outWidth; x += 2) {
+                        for (int channel = 0; channel < 2; channel++) {
+                            int sum = 0;
+                            for (int dy = 0; dy < factor; dy++) {
+                                for (int dx = 0; dx < factor; dx++) {
+                                    sum += chroma(src, WIDTH, HEIGHT, raw[0] + x * factor + 2 * dx,
+                                            raw[1] + y * factor + 2 * dy, channel);
+                                }
+                            }
+                            assertEquals("factor " + factor + ", " + quarterTurns + " quarter turns, chroma at " + x
+                                    + "," + y, (sum + factor * factor / 2) / (factor * factor),
+                                    chroma(dst, outWidth, outHeight, x, y, channel));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /*
+        Lays the samples of an NV21 image out as the three planes of a YUV_420_888 Image, as {y, u, v}: rows yRowStride
+        and chromaRowStride apart, with V and U samples chromaPixelStride apart in their rows. With a pixel stride of 2
+        the U and V planes overlap, interleaved in one buffer, as semi-planar cameras deliver them. The last row of each
+        plane is not padded, as is common.
+     */
+    private static ByteBuffer[] toPlanes(byte[] nv21, int width, int height, int yRowStride, int chromaRowStride,
+                                         int chromaPixelStride) {
+        byte[] y = new byte[(height - 1) * yRowStride + width];
+        for (int row = 0; row < height; row++) {
+            System.arraycopy(nv21, row * width, y, row * yRowStride, width);
+        }
+        int chromaSize = (height / 2 - 1) * chromaRowStride + (width / 2 - 1) * chromaPixelStride + 1;
+        byte[] u;
+        byte[] v;
+        int uOffset;
+        if (chromaPixelStride == 2) {
+            //V first, U one byte later, as in NV21
+            v = new byte[chromaSize + 1];
+            u = v;
+            uOffset = 1;
+        } else {
+            v = new byte[chromaSize];
+            u = new byte[chromaSize];
+            uOffset = 0;
+        }
+        for (int row = 0; row < height / 2; row++) {
+            for (int column = 0; column < width / 2; column++) {
+                int in = width * height + row * width + column * 2;
+                int out = row * chromaRowStride + column * chromaPixelStride;
+                v[out] = nv21[in];
+                u[uOffset + out] = nv21[in + 1];
+            }
+        }
+        ByteBuffer uBuffer = ByteBuffer.wrap(u, uOffset, u.length - uOffset).slice();
+        return new ByteBuffer[]{ByteBuffer.wrap(y), uBuffer, ByteBuffer.wrap(v, 0, chromaSize).slice()};
+    }
+
+    private static void assertFromYuv420(int yRowStride, int chromaRowStride, int chromaPixelStride) {
+        byte[] expected = testImage(WIDTH, HEIGHT);
+        ByteBuffer[] planes = toPlanes(expected, WIDTH, HEIGHT, yRowStride, chromaRowStride, chromaPixelStride);
+        byte[] dst = new byte[Nv21Image.bufferSize(WIDTH, HEIGHT)];
+        Nv21Image.fromYuv420(planes[0], yRowStride, planes[1], planes[2], chromaRowStride, chromaPixelStride, WIDTH,
+                HEIGHT, dst);
+        assertArrayEquals(expected, dst);
+    }
+
+    @Test
+    public void fromYuv420CopiesPlanarPlanes() {
+        assertFromYuv420(WIDTH, WIDTH / 2, 1);
+    }
+
+    @Test
+    public void fromYuv420CopiesPaddedPlanarPlanes() {
+        assertFromYuv420(WIDTH + 8, WIDTH / 2 + 6, 1);
+    }
+
+    @Test
+    public void fromYuv420CopiesSemiPlanarPlanes() {
+        assertFromYuv420(WIDTH, WIDTH, 2);
+    }
+
+    @Test
+    public void fromYuv420CopiesPaddedSemiPlanarPlanes() {
+        assertFromYuv420(WIDTH + 16, WIDTH + 16, 2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cropRejectsRegionOutsideImage() {
+        Nv21Image.crop(testImage(WIDTH, HEIGHT), WIDTH, HEIGHT, 0, 0, HEIGHT, WIDTH, new byte[WIDTH * HEIGHT * 2]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void downscaleRejectsOddRegion() {
+        Nv21Image.downscale(testImage(WIDTH, HEIGHT), WIDTH, HEIGHT, 1, 0, 8, 8, 2, new byte[WIDTH * HEIGHT]);
+    }
+}
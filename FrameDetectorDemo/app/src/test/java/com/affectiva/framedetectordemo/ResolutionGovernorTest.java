@@ -0,0 +1,163 @@
+package com.affectiva.framedetectordemo;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ResolutionGovernorTest {
+
+    private static final float TARGET_FPS = 30f;
+    private static final long SAMPLE_NANOS = 100000000L;
+    private static final long SECOND_NANOS = 1000000000L;
+
+    //the detector frames the default ladder gives on a 4:3 screen, downscaled to a short side of 240 or more
+    private static final int DETECTOR_PIXELS_320X240 = 320 * 240;
+    private static final int DETECTOR_PIXELS_640X480 = 320 * 240;
+    private static final int DETECTOR_PIXELS_1024X768 = 512 * 384;
+
+    /*
+        Feeds the governor a capacity sample, and a detector frame of the given size unless it is 0, every SAMPLE_NANOS
+        from startNanos on, for durationNanos or until it changes level. Returns the time of the last sample.
+     */
+    private static long feed(ResolutionGovernor governor, long startNanos, long durationNanos, float capacityFps,
+                             int detectorPixels) {
+        long nowNanos = startNanos;
+        for (; nowNanos < startNanos + durationNanos; nowNanos += SAMPLE_NANOS) {
+            if (detectorPixels > 0) {
+                governor.recordDetectorFrame(nowNanos, detectorPixels);
+            }
+            if (governor.update(nowNanos, capacityFps)) {
+                break;
+            }
+        }
+        return nowNanos;
+    }
+
+    @Test
+    public void capacityBetweenThresholdsKeepsLevel() {
+        ResolutionGovernor governor = new ResolutionGovernor(TARGET_FPS);
+        //below the target, but not far enough to downshift, and nowhere near enough to upshift
+        feed(governor, 0, 60 * SECOND_NANOS, TARGET_FPS * 0.9f, 0);
+
+        assertEquals(ResolutionGovernor.DEFAULT_LEVEL, governor.getLevel());
+        assertEquals(0, governor.getDownshifts());
+        assertEquals(0, governor.getUpshifts());
+    }
+
+    @Test
+    public void downshiftsOnlyOnceCapacityStaysLow() {
+        ResolutionGovernor governor = new ResolutionGovernor(TARGET_FPS);
+        long nowNanos = feed(governor, 0, ResolutionGovernor.SETTLE_NANOS, TARGET_FPS, 0);
+        //dips shorter than the hold are ridden out
+        for (int i = 0; i < 5; i++) {
+            nowNanos = feed(governor, nowNanos, ResolutionGovernor.DEFAULT_DOWNSHIFT_HOLD_NANOS / 2, TARGET_FPS / 2, 0);
+            nowNanos = feed(governor, nowNanos, SECOND_NANOS, TARGET_FPS, 0);
+        }
+        assertEquals(ResolutionGovernor.DEFAULT_LEVEL, governor.getLevel());
+
+        long lowStartNanos = nowNanos;
+        nowNanos = feed(governor, nowNanos, 10 * SECOND_NANOS, TARGET_FPS / 2, 0);
+        assertEquals(ResolutionGovernor.DEFAULT_LEVEL - 1, governor.getLevel());
+        assertEquals(lowStartNanos + ResolutionGovernor.DEFAULT_DOWNSHIFT_HOLD_NANOS, nowNanos);
+    }
+
+    @Test
+    public void samplesAreIgnoredWhileSettling() {
+        ResolutionGovernor governor = new ResolutionGovernor(TARGET_FPS);
+        governor.setHoldTimes(0, 0);
+        feed(governor, 0, ResolutionGovernor.SETTLE_NANOS, 0.1f, 0);
+        assertEquals(ResolutionGovernor.DEFAULT_LEVEL, governor.getLevel());
+
+        assertTrue(governor.update(ResolutionGovernor.SETTLE_NANOS, 0.1f));
+    }
+
+    @Test
+    public void upshiftsWithoutFrameSizesAsIfCostGrewWithBudget() {
+        ResolutionGovernor governor = new ResolutionGovernor(TARGET_FPS, ResolutionGovernor.DEFAULT_PIXEL_BUDGETS, 0);
+        float needed = TARGET_FPS * ResolutionGovernor.UPSHIFT_MARGIN * 4;
+        assertEquals(needed, governor.getUpshiftCapacity(), 0.01f);
+
+        feed(governor, 0, 60 * SECOND_NANOS, needed * 0.95f, 0);
+        assertEquals(0, governor.getLevel());
+        feed(governor, 60 * SECOND_NANOS, 60 * SECOND_NANOS, needed, 0);
+        assertEquals(1, governor.getLevel());
+    }
+
+    @Test
+    public void levelCostingDetectorTheSameIsNotKeptTo() {
+        ResolutionGovernor governor = new ResolutionGovernor(TARGET_FPS);
+        //a device too slow for the target even at the smallest detector frame
+        float capacityFps = TARGET_FPS / 2;
+        long nowNanos = feed(governor, 0, 60 * SECOND_NANOS, capacityFps, DETECTOR_PIXELS_640X480);
+        //not having been there, the governor tries the lower level once
+        assertEquals(0, governor.getLevel());
+
+        //where the detector turns out to get frames just as large, so it goes back up for the sharper preview
+        nowNanos = feed(governor, nowNanos, 60 * SECOND_NANOS, capacityFps, DETECTOR_PIXELS_320X240);
+        assertEquals(1, governor.getLevel());
+
+        //and stays there, as stepping down would save the detector nothing
+        feed(governor, nowNanos, 120 * SECOND_NANOS, capacityFps, DETECTOR_PIXELS_640X480);
+        assertEquals(1, governor.getLevel());
+        assertEquals(1, governor.getDownshifts());
+        assertEquals(1, governor.getUpshifts());
+    }
+
+    @Test
+    public void upshiftCapacityFollowsMeasuredDetectorPixels() {
+        ResolutionGovernor governor = new ResolutionGovernor(TARGET_FPS);
+        long nowNanos = feed(governor, 0, 60 * SECOND_NANOS, 1000f, DETECTOR_PIXELS_640X480);
+        assertEquals(2, governor.getLevel());
+        //well past the failed upshift window, the device slows down
+        nowNanos = feed(governor, nowNanos, 30 * SECOND_NANOS, TARGET_FPS, DETECTOR_PIXELS_1024X768);
+        nowNanos = feed(governor, nowNanos, 60 * SECOND_NANOS, TARGET_FPS / 2, DETECTOR_PIXELS_1024X768);
+        assertEquals(1, governor.getLevel());
+        feed(governor, nowNanos, ResolutionGovernor.SETTLE_NANOS + SAMPLE_NANOS, TARGET_FPS / 2,
+                DETECTOR_PIXELS_640X480);
+
+        //rather than 3 times the target, for the 3 times larger budget
+        float expectedFps = TARGET_FPS * ResolutionGovernor.UPSHIFT_MARGIN * DETECTOR_PIXELS_1024X768
+                / DETECTOR_PIXELS_640X480;
+        assertEquals(expectedFps, governor.getUpshiftCapacity(), 0.1f);
+    }
+
+    @Test
+    public void failedUpshiftRaisesCapacityNeededToTryAgain() {
+        ResolutionGovernor governor = new ResolutionGovernor(TARGET_FPS, ResolutionGovernor.DEFAULT_PIXEL_BUDGETS, 0);
+        float neededFps = governor.getUpshiftCapacity();
+        long nowNanos = feed(governor, 0, 60 * SECOND_NANOS, neededFps, DETECTOR_PIXELS_320X240);
+        assertEquals(1, governor.getLevel());
+
+        //the larger frames turn out to cost more than expected, and the upshift is undone soon after
+        nowNanos = feed(governor, nowNanos, 60 * SECOND_NANOS, TARGET_FPS / 2, DETECTOR_PIXELS_320X240 * 4);
+        assertEquals(0, governor.getLevel());
+        assertEquals(1, governor.getDownshifts());
+
+        //the same capacity no longer upshifts
+        nowNanos = feed(governor, nowNanos, 60 * SECOND_NANOS, neededFps, DETECTOR_PIXELS_320X240);
+        assertEquals(0, governor.getLevel());
+        assertEquals(neededFps * ResolutionGovernor.FAILED_UPSHIFT_RAISE, governor.getUpshiftCapacity(), 0.1f);
+
+        //but markedly more does
+        feed(governor, nowNanos, 60 * SECOND_NANOS, neededFps * ResolutionGovernor.FAILED_UPSHIFT_RAISE,
+                DETECTOR_PIXELS_320X240);
+        assertEquals(1, governor.getLevel());
+    }
+
+    @Test
+    public void upshiftUndoneLaterIsNotFailed() {
+        ResolutionGovernor governor = new ResolutionGovernor(TARGET_FPS, ResolutionGovernor.DEFAULT_PIXEL_BUDGETS, 0);
+        float neededFps = governor.getUpshiftCapacity();
+        long nowNanos = feed(governor, 0, 60 * SECOND_NANOS, neededFps, DETECTOR_PIXELS_320X240);
+        assertEquals(1, governor.getLevel());
+
+        nowNanos = feed(governor, nowNanos, ResolutionGovernor.FAILED_UPSHIFT_WINDOW_NANOS, TARGET_FPS,
+                DETECTOR_PIXELS_320X240 * 4);
+        nowNanos = feed(governor, nowNanos, 60 * SECOND_NANOS, TARGET_FPS / 2, DETECTOR_PIXELS_320X240 * 4);
+        assertEquals(0, governor.getLevel());
+
+        feed(governor, nowNanos, ResolutionGovernor.SETTLE_NANOS + SAMPLE_NANOS, neededFps, DETECTOR_PIXELS_320X240);
+        assertEquals(neededFps, governor.getUpshiftCapacity(), 0.1f);
+    }
+}
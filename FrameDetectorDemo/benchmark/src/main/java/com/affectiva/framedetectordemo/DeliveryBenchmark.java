@@ -0,0 +1,81 @@
+package com.affectiva.framedetectordemo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Cost of the work done for each result on its way to, and on, the main thread: handing it over through the coalescing
+ * slot with a pooled result object, and formatting the scores of all metrics for display, with CharTextBuffer as
+ * MetricsPanel does and with String.format as it used to.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DeliveryBenchmark {
+
+    static final Metrics[] ALL_METRICS = Metrics.values();
+
+    final AtomicReference<Object[]> latestResult = new AtomicReference<>();
+    final ObjectPool<Object[]> resultPool = new ObjectPool<Object[]>(4) {
+        @Override
+        protected Object[] create() {
+            return new Object[1];
+        }
+    };
+    final float[] scores = new float[ALL_METRICS.length];
+    final CharTextBuffer[] scoreTexts = new CharTextBuffer[ALL_METRICS.length];
+
+    @Setup
+    public void setUp() {
+        for (int i = 0; i < scores.length; i++) {
+            scores[i] = i * 3.7f - 20f;
+            scoreTexts[i] = new CharTextBuffer(16);
+        }
+    }
+
+    @Benchmark
+    public Object[] coalescedHandOff() {
+        Object[] result = resultPool.acquire();
+        Object[] replaced = latestResult.getAndSet(result);
+        if (replaced != null) {
+            resultPool.recycle(replaced);
+        }
+        Object[] delivered = latestResult.getAndSet(null);
+        resultPool.recycle(delivered);
+        return delivered;
+    }
+
+    @Benchmark
+    public int formatScoresWithCharTextBuffer() {
+        int length = 0;
+        for (Metrics metric : ALL_METRICS) {
+            CharTextBuffer text = scoreTexts[metric.ordinal()];
+            text.clear().append(scores[metric.ordinal()], 3);
+            length += text.length();
+        }
+        return length;
+    }
+
+    @Benchmark
+    public int formatScoresWithStringFormat() {
+        int length = 0;
+        for (Metrics metric : ALL_METRICS) {
+            length += String.format("%.3f", scores[metric.ordinal()]).length();
+        }
+        return length;
+    }
+}
@@ -0,0 +1,74 @@
+package com.affectiva.framedetectordemo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of NV21 buffer handling per frame: a pooled buffer's trip from the camera to its consumers and back, compared with
+ * copying the frame out of the camera's buffer, which is what a consumer would have to do without reference counting.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameBufferPoolBenchmark {
+
+    @Param({"640x480", "1280x720"})
+    public String previewSize;
+
+    @Param({"8"})
+    public int bufferCount;
+
+    FrameBufferPool pool;
+    final ArrayDeque<FrameBuffer> buffersWithCamera = new ArrayDeque<>();
+    byte[] copy;
+
+    @Setup
+    public void setUp() {
+        String[] size = previewSize.split("x");
+        int frameSize = Integer.parseInt(size[0]) * Integer.parseInt(size[1]) * 3 / 2;
+        pool = new FrameBufferPool(bufferCount);
+        pool.ensureBuffers(frameSize);
+        pool.attach(new FrameBufferPool.OnBufferRecycledListener() {
+            @Override
+            public void onBufferRecycled(FrameBuffer buffer, int attachEpoch) {
+                buffersWithCamera.addLast(buffer);
+            }
+        });
+        copy = new byte[frameSize];
+    }
+
+    /**
+     * The camera fills a buffer, the callback and one queued frame hold references to it, and both let go.
+     */
+    @Benchmark
+    public FrameBuffer pooledFrame() {
+        FrameBuffer buffer = pool.onFrameReceived(buffersWithCamera.pollFirst().getData());
+        buffer.retain();
+        buffer.release();
+        buffer.release();
+        return buffer;
+    }
+
+    @Benchmark
+    public byte[] copiedFrame() {
+        FrameBuffer buffer = buffersWithCamera.pollFirst();
+        System.arraycopy(buffer.getData(), 0, copy, 0, copy.length);
+        buffersWithCamera.addLast(buffer);
+        return copy;
+    }
+}
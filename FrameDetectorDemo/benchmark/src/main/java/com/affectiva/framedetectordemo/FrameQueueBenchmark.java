@@ -0,0 +1,78 @@
+package com.affectiva.framedetectordemo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the FrameQueue operations behind each BackpressurePolicy: uncontended, and with a producer and a consumer
+ * thread working on the same queue, as the camera thread and a worker do. BOUNDED_BLOCKING is left out, since with a
+ * faster producer than consumer it measures how long the producer is blocked rather than the queue.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameQueueBenchmark {
+
+    @Param({"LATEST_ONLY", "DROP_NEWEST", "DROP_OLDEST"})
+    public BackpressurePolicy.Mode policy;
+
+    @Param({"2"})
+    public int capacity;
+
+    FrameQueue<Object> queue;
+    final Object frame = new Object();
+
+    @Setup
+    public void setUp() {
+        BackpressurePolicy backpressurePolicy;
+        switch (policy) {
+            case DROP_NEWEST:
+                backpressurePolicy = BackpressurePolicy.dropNewest(capacity);
+                break;
+            case DROP_OLDEST:
+                backpressurePolicy = BackpressurePolicy.dropOldest(capacity);
+                break;
+            default:
+                backpressurePolicy = BackpressurePolicy.latestOnly();
+                break;
+        }
+        queue = backpressurePolicy.createQueue();
+    }
+
+    @Benchmark
+    @Group("uncontended")
+    public Object offerThenPoll() {
+        queue.offer(frame);
+        return queue.poll();
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public Object offer() {
+        return queue.offer(frame);
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public Object poll() {
+        return queue.poll();
+    }
+}
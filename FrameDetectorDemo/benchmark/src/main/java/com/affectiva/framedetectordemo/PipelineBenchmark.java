@@ -0,0 +1,157 @@
+package com.affectiva.framedetectordemo;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Streams camera frames at a fixed rate through the whole pipeline, a DetectorPipeline on plain threads configured as
+ * MainActivity configures AsyncFrameDetector, with a stand-in detector taking detectMillis per frame, and reports the
+ * frame counts and latency percentiles of each iteration as secondary results (see Counters).
+ *
+ * The score is the time taken to stream and drain FRAMES frames, so it mostly reflects the producer rate; the latencies
+ * and the share of frames delivered are what to compare between changes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class PipelineBenchmark {
+
+    static final int FRAMES = 150;
+    static final int FRAME_SIZE = 640 * 480 * 3 / 2; //NV21 VGA, the usual preview size
+
+    @Param({"15", "30", "60"})
+    public float producerFps;
+
+    @Param({"1", "2", "4"})
+    public int workers;
+
+    @Param({"LATEST_ONLY", "DROP_OLDEST"})
+    public BackpressurePolicy.Mode policy;
+
+    @Param({"40"})
+    public int detectMillis;
+
+    DetectorPipeline<Object, Object> pipeline;
+    SimulatedCamera camera;
+    final AtomicLong framesDelivered = new AtomicLong();
+
+    /**
+     * What happened to the frames of an iteration, and how long they took, in microseconds, from the camera to the
+     * listener (END_TO_END) and in the stages most affected by the policy and the number of workers. JMH reports these
+     * alongside the score, per iteration and in its summary, instead of them being printed in between.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Counters {
+        public long offered;
+        public long processed;
+        public long dropped;
+        public long delivered;
+        public long coalesced;
+        public long cameraDropped;
+        public long bufferExhaustions;
+        public long endToEndP50Micros;
+        public long endToEndP99Micros;
+        public long endToEndMaxMicros;
+        public long queueWaitP99Micros;
+        public long deliveryP99Micros;
+
+        void record(DetectorPipeline<Object, Object> pipeline, SimulatedCamera camera, long framesDelivered) {
+            offered = pipeline.getFramesSubmitted();
+            processed = pipeline.getFramesProcessed();
+            dropped = pipeline.getFramesDropped();
+            delivered = framesDelivered;
+            coalesced = pipeline.getResultsCoalesced();
+            cameraDropped = camera.framesDropped.get();
+            bufferExhaustions = camera.bufferPool.getExhaustionCount();
+            PipelineLatencyStats stats = pipeline.getLatencyStats();
+            LatencyHistogram endToEnd = stats.getHistogram(PipelineLatencyStats.Stage.END_TO_END);
+            endToEndP50Micros = endToEnd.getPercentileMicros(0.5);
+            endToEndP99Micros = endToEnd.getPercentileMicros(0.99);
+            endToEndMaxMicros = endToEnd.getMaxMicros();
+            queueWaitP99Micros = stats.getHistogram(PipelineLatencyStats.Stage.QUEUE_WAIT).getPercentileMicros(0.99);
+            deliveryP99Micros = stats.getHistogram(PipelineLatencyStats.Stage.DELIVERY).getPercentileMicros(0.99);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        final long detectNanos = TimeUnit.MILLISECONDS.toNanos(detectMillis);
+        DetectorEngine.Factory<Object, Object> engineFactory = SyntheticDetectorEngine.factory(
+                new SyntheticDetectorEngine.LatencyModelFactory() {
+                    @Override
+                    public SyntheticDetectorEngine.LatencyModel create() {
+                        //+-25% around the nominal detector time
+                        return SyntheticDetectorEngine.uniformLatency(detectNanos * 3 / 4, detectNanos * 5 / 4, 42);
+                    }
+                },
+                SyntheticDetectorEngine.constantResults(new Object()));
+        BackpressurePolicy backpressurePolicy = policy == BackpressurePolicy.Mode.LATEST_ONLY
+                ? BackpressurePolicy.latestOnly() : BackpressurePolicy.dropOldest(2);
+        pipeline = new DetectorPipeline<>(engineFactory, workers, backpressurePolicy, ThreadMessageLoop.FACTORY);
+        pipeline.setDeliveryMode(DetectorPipeline.DeliveryMode.COALESCED_VSYNC);
+        pipeline.getAdmissionController().setTargetFps(producerFps);
+        framesDelivered.set(0);
+        pipeline.setOnDetectorEventListener(new DetectorPipeline.Listener<Object, Object>() {
+            @Override
+            public void onImageResults(Object results, Object image, long timestampNanos) {
+                framesDelivered.incrementAndGet();
+            }
+
+            @Override
+            public void onDetectorStarted() {
+            }
+
+            @Override
+            public void onDetectorFailed() {
+            }
+        });
+        //same sizing as MainActivity: one queued and one in process per worker, plus two for the camera
+        camera = new SimulatedCamera(pipeline, 2 * workers + 2, FRAME_SIZE);
+        pipeline.start();
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        pipeline.stop();
+        camera.stop();
+    }
+
+    @Benchmark
+    public long stream(Counters counters) {
+        long intervalNanos = (long) (1e9 / producerFps);
+        long nextFrameNanos = System.nanoTime();
+        for (int i = 0; i < FRAMES; i++) {
+            long waitNanos = nextFrameNanos - System.nanoTime();
+            if (waitNanos > 0) {
+                LockSupport.parkNanos(waitNanos);
+            }
+            camera.deliverFrame(System.nanoTime());
+            nextFrameNanos += intervalNanos;
+        }
+        //let the frames still in flight come out the other end
+        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(3 * detectMillis));
+        //recorded here rather than in tearDown(), which JMH does not promise to run before it reads the counters
+        counters.record(pipeline, camera, framesDelivered.get());
+        return framesDelivered.get();
+    }
+}
@@ -0,0 +1,77 @@
+package com.affectiva.framedetectordemo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost per result of putting results back in submission order, with completions arriving in the order 'workers'
+ * round-robin workers finishing in reverse would produce: every result but the last of a round has to wait. Each round's
+ * sequence numbers are begun together, as frames are dispatched before any of them completes.
+ * One in skipEvery sequence numbers is skipped rather than completed, as for frames FrameDetector has no result for.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResultResequencerBenchmark {
+
+    static final int ROUNDS = 64;
+
+    @Param({"1", "2", "4"})
+    public int workers;
+
+    @Param({"0", "10"})
+    public int skipEvery;
+
+    ResultResequencer<Object> resequencer;
+    final Object result = new Object();
+    long released = 0;
+    long nextSequence = 0;
+
+    @Setup
+    public void setUp() {
+        resequencer = new ResultResequencer<>(workers * 2, new ResultResequencer.OnResultReleasedListener<Object>() {
+            @Override
+            public void onResultReleased(Object result) {
+                released += 1;
+            }
+        });
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROUNDS * 4)
+    public long completeOutOfOrder() {
+        //ROUNDS * 4 results per invocation whatever the worker count, so that scores compare per result
+        int count = ROUNDS * 4;
+        for (int done = 0; done < count; done += workers) {
+            long base = nextSequence;
+            for (int i = 0; i < workers; i++) {
+                resequencer.begin(base + i);
+            }
+            for (int i = workers - 1; i >= 0; i--) {
+                long sequence = base + i;
+                if (skipEvery > 0 && sequence % skipEvery == 0) {
+                    resequencer.skip(sequence);
+                } else {
+                    resequencer.complete(sequence, result);
+                }
+            }
+            nextSequence += workers;
+        }
+        return released;
+    }
+}
@@ -0,0 +1,51 @@
+package com.affectiva.framedetectordemo;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stands in for the camera in the pipeline benchmarks: hands frames to a DetectorPipeline in buffers from a
+ * FrameBufferPool, the way CameraHelper.onPreviewFrame does, and drops a frame when the pipeline holds every buffer.
+ */
+final class SimulatedCamera {
+
+    final FrameBufferPool bufferPool;
+    final AtomicLong framesDropped = new AtomicLong();
+
+    private final DetectorPipeline<Object, Object> pipeline;
+    private final ArrayBlockingQueue<FrameBuffer> buffersWithCamera;
+    private final Object frame = new Object();
+
+    SimulatedCamera(DetectorPipeline<Object, Object> pipeline, int bufferCount, int frameSize) {
+        this.pipeline = pipeline;
+        bufferPool = new FrameBufferPool(bufferCount);
+        bufferPool.ensureBuffers(frameSize);
+        buffersWithCamera = new ArrayBlockingQueue<>(bufferCount);
+        bufferPool.attach(new FrameBufferPool.OnBufferRecycledListener() {
+            @Override
+            public void onBufferRecycled(FrameBuffer buffer, int attachEpoch) {
+                buffersWithCamera.offer(buffer);
+            }
+        });
+    }
+
+    /**
+     * Delivers a frame captured at captureNanos to the pipeline. Returns false if the camera had no buffer to deliver the
+     * frame in.
+     */
+    boolean deliverFrame(long captureNanos) {
+        FrameBuffer buffer = buffersWithCamera.poll();
+        if (buffer == null) {
+            framesDropped.incrementAndGet();
+            return false;
+        }
+        buffer = bufferPool.onFrameReceived(buffer.getData());
+        pipeline.process(frame, captureNanos, buffer);
+        buffer.release();
+        return true;
+    }
+
+    void stop() {
+        bufferPool.detach();
+    }
+}
@@ -0,0 +1,92 @@
+package com.affectiva.framedetectordemo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of handing one camera frame to the pipeline, DetectorPipeline.process(): taking the buffer from the pool,
+ * admission, dispatch to a worker queue, and whatever the BackpressurePolicy does when that queue is full. This is the work done on the camera thread
+ * for every frame, so it has to stay small next to the frame interval.
+ *
+ * Capture times advance by frameIntervalMicros per call rather than with the wall clock, so that the admission controller
+ * and the session clock see a steady producer rate however fast the calls are made.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SubmissionBenchmark {
+
+    @Param({"LATEST_ONLY", "DROP_OLDEST", "BOUNDED_BLOCKING"})
+    public BackpressurePolicy.Mode policy;
+
+    @Param({"2"})
+    public int workers;
+
+    @Param({"0", "100"})
+    public int detectMicros;
+
+    @Param({"33333", "16667", "1000"})
+    public int frameIntervalMicros;
+
+    DetectorPipeline<Object, Object> pipeline;
+    SimulatedCamera camera;
+    long captureNanos;
+
+    @Setup
+    public void setUp() {
+        final long detectNanos = TimeUnit.MICROSECONDS.toNanos(detectMicros);
+        DetectorEngine.Factory<Object, Object> engineFactory = SyntheticDetectorEngine.factory(
+                new SyntheticDetectorEngine.LatencyModelFactory() {
+                    @Override
+                    public SyntheticDetectorEngine.LatencyModel create() {
+                        return SyntheticDetectorEngine.fixedLatency(detectNanos);
+                    }
+                },
+                SyntheticDetectorEngine.constantResults(new Object()));
+        BackpressurePolicy backpressurePolicy;
+        switch (policy) {
+            case DROP_OLDEST:
+                backpressurePolicy = BackpressurePolicy.dropOldest(2);
+                break;
+            case BOUNDED_BLOCKING:
+                backpressurePolicy = BackpressurePolicy.boundedBlocking(2);
+                break;
+            default:
+                backpressurePolicy = BackpressurePolicy.latestOnly();
+                break;
+        }
+        pipeline = new DetectorPipeline<>(engineFactory, workers, backpressurePolicy, ThreadMessageLoop.FACTORY);
+        pipeline.setDeliveryMode(DetectorPipeline.DeliveryMode.COALESCED_VSYNC);
+        pipeline.getAdmissionController().setTargetFps(30f);
+        camera = new SimulatedCamera(pipeline, 2 * workers + 2, PipelineBenchmark.FRAME_SIZE);
+        pipeline.start();
+        captureNanos = System.nanoTime();
+    }
+
+    @TearDown
+    public void tearDown() {
+        pipeline.stop();
+        camera.stop();
+    }
+
+    @Benchmark
+    public boolean deliverCameraFrame() {
+        captureNanos += frameIntervalMicros * 1000L;
+        return camera.deliverFrame(captureNanos);
+    }
+}
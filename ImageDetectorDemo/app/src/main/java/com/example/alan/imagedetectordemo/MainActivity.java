@@ -314,11 +314,12 @@ public class MainActivity extends Activity implements Detector.ImageListener {
 
 
         if (faces != null && faces.size() > 0) {
-            Face face = faces.get(0);
+            //a photo may show several people: the scores shown are those of the largest face, and every face is drawn
+            Face face = getLargestFace(faces);
             for (int n = 0; n < MetricsManager.getTotalNumMetrics(); n++) {
                 metricScoreTextViews[n].setText(String.format("%.3f", getScore(n, face)));
             }
-            points = face.getFacePoints();
+            points = getAllFacePoints(faces);
         } else {
             for (int n = 0; n < MetricsManager.getTotalNumMetrics(); n++) {
                 metricScoreTextViews[n].setText("---");
@@ -332,6 +333,51 @@ public class MainActivity extends Activity implements Detector.ImageListener {
             imageView.setImageBitmap(imageBitmap);
     }
 
+    static Face getLargestFace(List<Face> faces) {
+        Face largest = faces.get(0);
+        float largestArea = -1;
+        for (Face face : faces) {
+            PointF[] points = face.getFacePoints();
+            if (points == null || points.length == 0) {
+                continue;
+            }
+            float left = points[0].x;
+            float top = points[0].y;
+            float right = left;
+            float bottom = top;
+            for (PointF point : points) {
+                left = Math.min(left, point.x);
+                top = Math.min(top, point.y);
+                right = Math.max(right, point.x);
+                bottom = Math.max(bottom, point.y);
+            }
+            float area = (right - left) * (bottom - top);
+            if (area > largestArea) {
+                largestArea = area;
+                largest = face;
+            }
+        }
+        return largest;
+    }
+
+    static PointF[] getAllFacePoints(List<Face> faces) {
+        int count = 0;
+        for (Face face : faces) {
+            PointF[] points = face.getFacePoints();
+            count += points != null ? points.length : 0;
+        }
+        PointF[] allPoints = new PointF[count];
+        int next = 0;
+        for (Face face : faces) {
+            PointF[] points = face.getFacePoints();
+            if (points != null) {
+                System.arraycopy(points, 0, allPoints, next, points.length);
+                next += points.length;
+            }
+        }
+        return allPoints;
+    }
+
     float getScore(int metricCode, Face face) {
 
         float score;
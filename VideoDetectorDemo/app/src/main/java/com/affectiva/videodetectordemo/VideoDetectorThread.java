@@ -36,6 +36,11 @@ public class VideoDetectorThread extends Thread implements Detector.ImageListene
 
     MetricsPanel metricsPanel;
 
+    //faces keep their IDs across frames, and the panel follows one face, switching only once that face is gone
+    final FaceTracker faceTracker = new FaceTracker();
+    final int[] faceIds = new int[faceTracker.getMaxFaces()];
+    int displayedFaceId = FaceTracker.NO_FACE;
+
     public VideoDetectorThread(String file, Activity context, MetricsPanel metricsPanel, DrawingView drawingView ) {
         filename = file;
         activity = context;
@@ -66,17 +71,32 @@ public class VideoDetectorThread extends Thread implements Detector.ImageListene
     public void onImageResults(List<Face> list, Frame image, final float timestamp) {
 
         final Frame frame = image;
-        final List<Face> faces = list;
         Log.e("integration_testing",String.valueOf(timestamp));
 
+        //results arrive here in order, so faces are tracked here rather than on the UI thread
+        Face displayedFace = null;
+        if (list != null) {
+            faceTracker.beginFrame();
+            for (int i = 0; i < list.size(); i++) {
+                faceTracker.addFace(list.get(i).getFacePoints());
+            }
+            int faceCount = faceTracker.endFrame((long) (timestamp * 1e9), faceIds);
+            displayedFaceId = FaceTracker.chooseFace(displayedFaceId, faceIds, faceCount);
+            for (int i = 0; i < faceCount; i++) {
+                if (faceIds[i] == displayedFaceId && displayedFaceId != FaceTracker.NO_FACE) {
+                    displayedFace = list.get(i);
+                }
+            }
+        }
+        final Face face = displayedFace;
+
 
 
         activity.runOnUiThread(new Runnable() {
             @Override
             public void run() {
                 //update metrics
-                if (faces != null && faces.size() > 0) {
-                    Face face = faces.get(0);
+                if (face != null) {
                     for (Metrics metric : Metrics.values()) {
                         metricsPanel.setMetricValue(metric,getScore(metric,face));
 